@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.smilo.commons;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+/**
+ * Immutable 32 byte hash, like the SHA-256 hash of a block or transaction. Holds the raw digest instead of its 64
+ * character hex form, which takes a quarter of the memory and compares without walking the characters. Hashes are
+ * uniformly distributed, so the hash code is taken from the first bytes of the digest.
+ */
+public final class Hash32 implements Comparable<Hash32> {
+
+    public static final int LENGTH = 32;
+
+    private final byte[] bytes;
+    private final int hashCode;
+
+    private Hash32(byte[] bytes) {
+        this.bytes = bytes;
+        this.hashCode = ByteBuffer.wrap(bytes).getInt();
+    }
+
+    /**
+     * @param bytes the 32 bytes of the hash, which are copied
+     * @return the hash
+     */
+    public static Hash32 of(byte[] bytes) {
+        if (bytes.length != LENGTH) {
+            throw new IllegalArgumentException("A hash must be " + LENGTH + " bytes, got " + bytes.length);
+        }
+        return new Hash32(bytes.clone());
+    }
+
+    /**
+     * Reads a hash from the next 32 bytes of a buffer.
+     *
+     * @param buffer buffer to read from
+     * @return the hash
+     */
+    public static Hash32 read(ByteBuffer buffer) {
+        byte[] bytes = new byte[LENGTH];
+        buffer.get(bytes);
+        return new Hash32(bytes);
+    }
+
+    /**
+     * @param hex the hash as 64 hex characters, in either case
+     * @return the hash
+     * @throws IllegalArgumentException when the string is not a hash
+     */
+    public static Hash32 fromHex(String hex) {
+        Hash32 hash = tryParse(hex);
+        if (hash == null) {
+            throw new IllegalArgumentException("Not a hash: " + hex);
+        }
+        return hash;
+    }
+
+    /**
+     * @param hex the hash as 64 hex characters, in either case
+     * @return the hash, or null when the string is not a hash
+     */
+    public static Hash32 tryParse(String hex) {
+        if (hex == null || hex.length() != LENGTH * 2) {
+            return null;
+        }
+        byte[] bytes = new byte[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return new Hash32(bytes);
+    }
+
+    /**
+     * @return a copy of the 32 bytes of the hash
+     */
+    public byte[] toBytes() {
+        return bytes.clone();
+    }
+
+    /**
+     * Writes the 32 bytes of the hash to a buffer.
+     *
+     * @param buffer buffer to write to
+     * @return the buffer
+     */
+    public ByteBuffer writeTo(ByteBuffer buffer) {
+        return buffer.put(bytes);
+    }
+
+    /**
+     * Reads 8 bytes of the hash as a long, for structures that hash the hash again, like Bloom filters.
+     *
+     * @param index index of the 8 bytes, from 0 to 3
+     * @return the bytes as a long
+     */
+    public long getLong(int index) {
+        return ByteBuffer.wrap(bytes).getLong(index * Long.BYTES);
+    }
+
+    /**
+     * @return the hash as 64 uppercase hex characters, the form used on the wire
+     */
+    public String toHex() {
+        return HashUtility.toHEXString(bytes);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Hash32)) {
+            return false;
+        }
+        Hash32 other = (Hash32) obj;
+        return MessageDigest.isEqual(bytes, other.bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    /**
+     * Orders hashes by their bytes compared as unsigned values, the order of hash keys in the store.
+     */
+    @Override
+    public int compareTo(Hash32 other) {
+        for (int i = 0; i < LENGTH; i++) {
+            int compared = Integer.compare(bytes[i] & 0xFF, other.bytes[i] & 0xFF);
+            if (compared != 0) {
+                return compared;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+}
@@ -108,7 +108,7 @@ public class HashUtility {
         }
     }
 
-    private static String toHEXString(byte[] data) {
+    public static String toHEXString(byte[] data) {
         try {
             return DatatypeConverter.printHexBinary(data);
         } catch (Exception e) {
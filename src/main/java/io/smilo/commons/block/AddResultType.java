@@ -19,7 +19,7 @@ package io.smilo.commons.block;
 
 public enum AddResultType {
 
-    ADDED(true), QUEUED(true), DUPLICATE(false), VALIDATION_ERROR(false), FORK_ERROR(false), UNKNOWN(false);
+    ADDED(true), QUEUED(true), FORKED(true), REORGANIZED(true), DUPLICATE(false), VALIDATION_ERROR(false), FORK_ERROR(false), UNKNOWN(false);
 
     private final boolean success;
 
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.smilo.commons.block;
+
+import io.smilo.commons.block.data.transaction.Transaction;
+import io.smilo.commons.block.data.transaction.TransactionOutput;
+import io.smilo.commons.db.PagedCollection;
+import io.smilo.commons.db.Store;
+import io.smilo.commons.db.StoreSnapshot;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Index of the transactions involving an address, as sender or as receiver, in the order their blocks were added to
+ * the canonical chain. Every address has an array in the index holding the location of its transactions, so a page
+ * of the history of an address is read without walking the chain.
+ */
+public class AddressHistory {
+
+    static final String COLLECTION_NAME = "addresshistory";
+    // blockNum followed by the index of the transaction in the block
+    private static final int ENTRY_LENGTH = Long.BYTES + Integer.BYTES;
+
+    private final Store store;
+
+    /**
+     * @param store store holding the index
+     */
+    public AddressHistory(Store store) {
+        this.store = store;
+        store.initializeCollection(COLLECTION_NAME);
+    }
+
+    /**
+     * Adds the transactions of a block that was added to the canonical chain.
+     *
+     * @param block block to add
+     */
+    public void add(Block block) {
+        Map<String, List<byte[]>> entries = new LinkedHashMap<>();
+        List<Transaction> transactions = block.getTransactions();
+        for (int i = 0; i < transactions.size(); i++) {
+            byte[] entry = ByteBuffer.allocate(ENTRY_LENGTH).putLong(block.getBlockNum()).putInt(i).array();
+            addresses(transactions.get(i)).forEach(address -> entries.computeIfAbsent(address, a -> new ArrayList<>()).add(entry));
+        }
+        store.batch(() -> entries.forEach((address, locations) -> array(address).appendAll(locations)));
+    }
+
+    /**
+     * Removes the transactions of a block that was removed from the canonical chain. Blocks must be removed from the
+     * last block down, so their transactions are at the end of every array.
+     *
+     * @param block block to remove
+     */
+    public void remove(Block block) {
+        Set<String> addresses = new HashSet<>();
+        block.getTransactions().forEach(transaction -> addresses.addAll(addresses(transaction)));
+        store.batch(() -> addresses.forEach(address -> {
+            PagedCollection array = array(address);
+            long size = array.size();
+            while (size > 0 && ByteBuffer.wrap(array.get(size - 1)).getLong() == block.getBlockNum()) {
+                size--;
+            }
+            array.truncate(size);
+        }));
+    }
+
+    /**
+     * @param address address to query for
+     * @return the amount of transactions involving the address
+     */
+    public long size(String address) {
+        return array(address).size();
+    }
+
+    /**
+     * Reads a page of the transactions involving an address.
+     *
+     * @param address address to query for
+     * @param skip amount of transactions to skip, counted from the latest transaction when reading in descending order
+     * @param take maximum amount of transactions to return
+     * @param isDescending whether to start at the latest transaction
+     * @return the locations of the transactions on the page
+     */
+    public List<Location> page(String address, long skip, long take, boolean isDescending) {
+        return toLocations(array(address).page(skip, take, isDescending));
+    }
+
+    /**
+     * Reads a page of the transactions involving an address from a snapshot, so the blocks of the locations can be
+     * read from the same snapshot.
+     *
+     * @param snapshot snapshot of the store holding the index
+     * @param address address to query for
+     * @param skip amount of transactions to skip, counted from the latest transaction when reading in descending order
+     * @param take maximum amount of transactions to return
+     * @param isDescending whether to start at the latest transaction
+     * @return the locations of the transactions on the page when the snapshot was taken
+     */
+    public List<Location> page(StoreSnapshot snapshot, String address, long skip, long take, boolean isDescending) {
+        return toLocations(array(address).page(snapshot, skip, take, isDescending));
+    }
+
+    /**
+     * Removes the history of all addresses.
+     */
+    public void clear() {
+        store.clear(COLLECTION_NAME);
+    }
+
+    private PagedCollection array(String address) {
+        return new PagedCollection(store, COLLECTION_NAME, address);
+    }
+
+    private static List<Location> toLocations(List<byte[]> entries) {
+        return entries.stream()
+                .map(entry -> {
+                    ByteBuffer buffer = ByteBuffer.wrap(entry);
+                    return new Location(buffer.getLong(), buffer.getInt());
+                })
+                .collect(Collectors.toList());
+    }
+
+    private static Set<String> addresses(Transaction transaction) {
+        // An address sending to itself is involved once
+        Set<String> addresses = new LinkedHashSet<>();
+        if (transaction.getInputAddress() != null && !transaction.getInputAddress().isEmpty()) {
+            addresses.add(transaction.getInputAddress());
+        }
+        for (TransactionOutput output : transaction.getTransactionOutputs()) {
+            if (output.getOutputAddress() != null && !output.getOutputAddress().isEmpty()) {
+                addresses.add(output.getOutputAddress());
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * Location of a transaction in the canonical chain.
+     */
+    public static final class Location {
+        private final long blockNum;
+        private final int transactionIndex;
+
+        Location(long blockNum, int transactionIndex) {
+            this.blockNum = blockNum;
+            this.transactionIndex = transactionIndex;
+        }
+
+        public long getBlockNum() {
+            return blockNum;
+        }
+
+        /**
+         * @return index of the transaction in the transactions of its block
+         */
+        public int getTransactionIndex() {
+            return transactionIndex;
+        }
+    }
+}
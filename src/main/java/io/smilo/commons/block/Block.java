@@ -17,11 +17,13 @@
 package io.smilo.commons.block;
 
 
+import io.smilo.commons.Hash32;
 import io.smilo.commons.block.data.transaction.Transaction;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.Supplier;
 
 import static java.util.stream.Collectors.joining;
 
@@ -36,7 +38,12 @@ public class Block extends Content {
     private String redeemAddress;
     private String ledgerHash;
     private List<Transaction> transactions;
+    // Decodes the transactions of a block that was read without them, until the transactions are first used
+    private volatile Supplier<List<Transaction>> transactionLoader;
     private String blockHash;
+    // The hashes in raw form, parsed when first used
+    private Hash32 hash;
+    private Hash32 previousHash;
     private String nodeSignature;
     private long nodeSignatureIndex;
 
@@ -80,7 +87,7 @@ public class Block extends Content {
     }
 
     public String getRawBlockData() {
-        String transactionsString = transactions.stream().filter(Transaction::hasContent).map(Transaction::getRawTransaction).collect(joining("*"));
+        String transactionsString = getTransactions().stream().filter(Transaction::hasContent).map(Transaction::getRawTransaction).collect(joining("*"));
         return "{" + getTimestamp() + ":" + blockNum + ":" + previousBlockHash + ":" + redeemAddress + "},{" + ledgerHash + "},{" + transactionsString + "}";
     }
 
@@ -95,26 +102,38 @@ public class Block extends Content {
      */
     public List<String> getTransactionsInvolvingAddress(String addressToFind) {
         ArrayList<String> relevantTransactionParts = new ArrayList<>();
-        for (Transaction tempTransaction: transactions) {
-            //Transaction format: InputAssetId;InputAddress;InputAmount;TX_Fee;ToAddress1;Output1;ToAddress2;Output2;SignatureData;SignatureIndex
-            String assetid = tempTransaction.getAssetId();
-            String sender = tempTransaction.getInputAddress();
-            if (sender.equalsIgnoreCase(addressToFind)) {
-                tempTransaction.getTransactionOutputs()
-                        .forEach(txOutput -> {
-                            relevantTransactionParts.add(assetid + ":" + sender + ":" + txOutput.getOutputAddress() + ":" + txOutput.getOutputAmount());
-                        });
-            } else {
-                tempTransaction.getTransactionOutputs().stream()
-                        .filter(txOutput -> txOutput.getOutputAddress().equals(addressToFind))
-                        .forEach(txOutput -> {
-                            relevantTransactionParts.add(assetid + ":" + sender + ":" + txOutput.getOutputAddress() + ":" + txOutput.getOutputAmount());
-                        });
-            }
+        for (Transaction tempTransaction: getTransactions()) {
+            addTransactionParts(tempTransaction, addressToFind, relevantTransactionParts);
         }
         return relevantTransactionParts;
     }
 
+    /**
+     * Adds the parts of a transaction involving an address in simplified format, see
+     * {@link #getTransactionsInvolvingAddress(String)}.
+     *
+     * @param tempTransaction transaction to take the parts from
+     * @param addressToFind address the parts must involve
+     * @param relevantTransactionParts list receiving the parts
+     */
+    static void addTransactionParts(Transaction tempTransaction, String addressToFind, List<String> relevantTransactionParts) {
+        //Transaction format: InputAssetId;InputAddress;InputAmount;TX_Fee;ToAddress1;Output1;ToAddress2;Output2;SignatureData;SignatureIndex
+        String assetid = tempTransaction.getAssetId();
+        String sender = tempTransaction.getInputAddress();
+        if (sender.equalsIgnoreCase(addressToFind)) {
+            tempTransaction.getTransactionOutputs()
+                    .forEach(txOutput -> {
+                        relevantTransactionParts.add(assetid + ":" + sender + ":" + txOutput.getOutputAddress() + ":" + txOutput.getOutputAmount());
+                    });
+        } else {
+            tempTransaction.getTransactionOutputs().stream()
+                    .filter(txOutput -> txOutput.getOutputAddress().equals(addressToFind))
+                    .forEach(txOutput -> {
+                        relevantTransactionParts.add(assetid + ":" + sender + ":" + txOutput.getOutputAddress() + ":" + txOutput.getOutputAmount());
+                    });
+        }
+    }
+
     /**
      * Returns the raw String representation of the block, useful when saving the block or sending it to a peer.
      * 
@@ -133,9 +152,34 @@ public class Block extends Content {
     }
 
     public List<Transaction> getTransactions() {
+        if (transactionLoader != null) {
+            synchronized (this) {
+                Supplier<List<Transaction>> loader = transactionLoader;
+                if (loader != null) {
+                    transactions = loader.get();
+                    transactionLoader = null;
+                }
+            }
+        }
         return transactions;
     }
 
+    /**
+     * Lets the transactions be decoded when they are first used, see {@link BlockParser#deserializeHeader(java.nio.ByteBuffer)}.
+     *
+     * @param transactionLoader decodes the transactions of the block
+     */
+    void setTransactionLoader(Supplier<List<Transaction>> transactionLoader) {
+        this.transactionLoader = transactionLoader;
+    }
+
+    /**
+     * @return whether the transactions of the block have been decoded
+     */
+    boolean isTransactionsLoaded() {
+        return transactionLoader == null;
+    }
+
     public String getBlockHash() {
         return blockHash;
     }
@@ -144,6 +188,26 @@ public class Block extends Content {
         return previousBlockHash;
     }
 
+    /**
+     * @return the blockHash in raw form, or null when it is not a valid hash
+     */
+    public Hash32 getHash() {
+        if (hash == null) {
+            hash = Hash32.tryParse(blockHash);
+        }
+        return hash;
+    }
+
+    /**
+     * @return the previousBlockHash in raw form, or null when it is not a valid hash
+     */
+    public Hash32 getPreviousHash() {
+        if (previousHash == null) {
+            previousHash = Hash32.tryParse(previousBlockHash);
+        }
+        return previousHash;
+    }
+
     public String getNodeSignature() {
         return nodeSignature;
     }
@@ -157,6 +221,7 @@ public class Block extends Content {
     }
 
     public boolean hasNoExplicitTransactions() {
+        List<Transaction> transactions = getTransactions();
         return transactions.isEmpty() || transactions.stream().allMatch(t -> t.isEmpty());
     }
 
@@ -166,18 +231,21 @@ public class Block extends Content {
 
     public void setPreviousBlockHash(String previousBlockHash) {
         this.previousBlockHash = previousBlockHash;
+        this.previousHash = null;
     }
 
     public void setLedgerHash(String ledgerHash) {
         this.ledgerHash = ledgerHash;
     }
 
-    public void setTransactions(List<Transaction> transactions) {
+    public synchronized void setTransactions(List<Transaction> transactions) {
         this.transactions = transactions;
+        this.transactionLoader = null;
     }
 
     public void setBlockHash(String blockHash) {
         this.blockHash = blockHash;
+        this.hash = null;
     }
 
     public void setNodeSignature(String nodeSignature) {
@@ -198,6 +266,9 @@ public class Block extends Content {
 
     @Override
     public int hashCode() {
+        if (getHash() != null) {
+            return getHash().hashCode();
+        }
         int hash = 3;
         hash = 67 * hash + Objects.hashCode(this.blockHash);
         return hash;
@@ -215,6 +286,9 @@ public class Block extends Content {
             return false;
         }
         final Block other = (Block) obj;
+        if (getHash() != null && other.getHash() != null) {
+            return getHash().equals(other.getHash());
+        }
         return Objects.equals(this.blockHash, other.blockHash);
     }
 
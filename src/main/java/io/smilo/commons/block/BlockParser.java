@@ -21,7 +21,9 @@ import io.smilo.commons.block.data.Parser;
 import io.smilo.commons.block.data.Validator;
 import io.smilo.commons.block.data.transaction.Transaction;
 import io.smilo.commons.block.data.transaction.TransactionParser;
+import io.smilo.commons.db.StoreSnapshot;
 import io.smilo.commons.ledger.AddressUtility;
+import io.smilo.commons.ledger.LedgerManager;
 import org.apache.commons.codec.binary.Hex;
 import org.apache.log4j.Logger;
 import org.msgpack.core.MessagePack;
@@ -31,6 +33,7 @@ import org.springframework.stereotype.Component;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -48,10 +51,12 @@ public class BlockParser implements Parser<Block>, Validator<Block> {
     private static final byte CURRENT_VERSION = (byte) 1;
     private final AddressUtility addressUtility;
     private final TransactionParser transactionParser;
+    private final LedgerManager ledgerManager;
 
-    public BlockParser(AddressUtility addressUtility, TransactionParser transactionParser) {
+    public BlockParser(AddressUtility addressUtility, TransactionParser transactionParser, LedgerManager ledgerManager) {
         this.addressUtility = addressUtility;
         this.transactionParser = transactionParser;
+        this.ledgerManager = ledgerManager;
     }
 
     @Override
@@ -110,11 +115,13 @@ public class BlockParser implements Parser<Block>, Validator<Block> {
                 return true;
             }
 
-            // Return true if all transactions are valid
+            // Return true if all transactions are valid, every transaction is checked against the same ledger state
             // TODO: Can be removed if transactions are validated during parsing earlier in the process
-            return block.getTransactions()
-                    .stream()
-                    .allMatch(t -> transactionParser.isValid(t, true));
+            try (StoreSnapshot snapshot = ledgerManager.snapshot()) {
+                return block.getTransactions()
+                        .stream()
+                        .allMatch(t -> transactionParser.isValid(snapshot, t, true));
+            }
         } catch (Exception e) {
             LOGGER.error("Got exception when validating block ", e);
             return false;
@@ -145,7 +152,49 @@ public class BlockParser implements Parser<Block>, Validator<Block> {
     @Override
     public Block deserialize(byte[] raw) {
         if (raw.length == 0) return null;
-        MessageUnpacker msgpack = MessagePack.newDefaultUnpacker(raw);
+        Block block = deserialize(MessagePack.newDefaultUnpacker(raw));
+        if (block == null) {
+            LOGGER.debug("Mensagem: "+ new String(raw));
+        }
+        return block;
+    }
+
+    @Override
+    public Block deserialize(ByteBuffer raw) {
+        if (!raw.hasRemaining()) return null;
+        // msgpack reads direct and array backed buffers in place, anything else has to be copied first
+        if (!raw.isDirect() && !raw.hasArray()) return Parser.super.deserialize(raw);
+        return deserialize(MessagePack.newDefaultUnpacker(raw));
+    }
+
+    /**
+     * Decodes a block without decoding its transactions. The serialized transactions are copied aside and only decoded
+     * when the transactions of the block are first used, so callers that only need fields like the blockNum or the
+     * blockHash of a block skip the cost of decoding them.
+     *
+     * @param raw the serialized block
+     * @return the block, or null when it can't be decoded
+     */
+    public Block deserializeHeader(ByteBuffer raw) {
+        if (!raw.hasRemaining()) return null;
+        // msgpack reads direct and array backed buffers in place, anything else has to be copied first
+        ByteBuffer source = raw;
+        if (!raw.isDirect() && !raw.hasArray()) {
+            byte[] copy = new byte[raw.remaining()];
+            raw.duplicate().get(copy);
+            source = ByteBuffer.wrap(copy);
+        }
+        return deserialize(MessagePack.newDefaultUnpacker(source), source);
+    }
+
+    private Block deserialize(MessageUnpacker msgpack) {
+        return deserialize(msgpack, null);
+    }
+
+    /**
+     * @param source the buffer the unpacker reads from, to decode the transactions lazily, or null to decode them now
+     */
+    private Block deserialize(MessageUnpacker msgpack, ByteBuffer source) {
         Block block;
         try {
             msgpack.unpackByte(); // Skip version number
@@ -154,13 +203,21 @@ public class BlockParser implements Parser<Block>, Validator<Block> {
             String previousBlockHash = msgpack.unpackString();
             String redeemAddress = msgpack.unpackString();
             String ledgerHash = msgpack.unpackString();
-            int numberOfTransactions = msgpack.unpackArrayHeader();
-            List<Transaction> transactions = new ArrayList<>();
-            for (int i = 0; i < numberOfTransactions; i++) {
-                int sizeOfTransaction = msgpack.unpackBinaryHeader();
-                byte[] rawTransaction = new byte[sizeOfTransaction];
-                msgpack.readPayload(rawTransaction);
-                transactions.add(transactionParser.deserialize(rawTransaction));
+            List<Transaction> transactions = null;
+            byte[] rawTransactions = null;
+            if (source == null) {
+                transactions = deserializeTransactions(msgpack);
+            } else {
+                // Skip over the transactions, keeping a copy of their bytes
+                int start = (int) msgpack.getTotalReadBytes();
+                int numberOfTransactions = msgpack.unpackArrayHeader();
+                for (int i = 0; i < numberOfTransactions; i++) {
+                    msgpack.skipValue();
+                }
+                rawTransactions = new byte[(int) msgpack.getTotalReadBytes() - start];
+                ByteBuffer region = source.duplicate();
+                region.position(source.position() + start);
+                region.get(rawTransactions);
             }
             int size = msgpack.unpackBinaryHeader();
             byte [] extraData = msgpack.readPayload(size);
@@ -172,15 +229,37 @@ public class BlockParser implements Parser<Block>, Validator<Block> {
             Long blockSignatureIndex = msgpack.unpackLong();
             block = new Block(timestamp,blockNumber,previousBlockHash,redeemAddress,ledgerHash,transactions,blockSignature,blockSignatureIndex.intValue());
             block.setBlockHash(blockHash);
+            if (rawTransactions != null) {
+                final byte[] lazyTransactions = rawTransactions;
+                block.setTransactionLoader(() -> deserializeTransactions(lazyTransactions));
+            }
         } catch (IndexOutOfBoundsException | IOException ex) {
             LOGGER.error("Unable to deserialize block", ex);
-            LOGGER.debug("Mensagem: "+ new String(raw));
-
             return null;
         }
         return block;
     }
 
+    private List<Transaction> deserializeTransactions(MessageUnpacker msgpack) throws IOException {
+        int numberOfTransactions = msgpack.unpackArrayHeader();
+        List<Transaction> transactions = new ArrayList<>();
+        for (int i = 0; i < numberOfTransactions; i++) {
+            int sizeOfTransaction = msgpack.unpackBinaryHeader();
+            byte[] rawTransaction = new byte[sizeOfTransaction];
+            msgpack.readPayload(rawTransaction);
+            transactions.add(transactionParser.deserialize(rawTransaction));
+        }
+        return transactions;
+    }
+
+    private List<Transaction> deserializeTransactions(byte[] rawTransactions) {
+        try (MessageUnpacker msgpack = MessagePack.newDefaultUnpacker(rawTransactions)) {
+            return deserializeTransactions(msgpack);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to deserialize the transactions of a block", e);
+        }
+    }
+
     @Override
     public byte[] serializeWithoutSignature(Block block) {
         return (block.getRawBlockData()).getBytes(UTF_8);
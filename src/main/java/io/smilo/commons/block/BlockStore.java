@@ -18,18 +18,26 @@ package io.smilo.commons.block;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.smilo.commons.Hash32;
+import io.smilo.commons.db.PagedCollection;
 import io.smilo.commons.db.Store;
+import io.smilo.commons.db.StoreSnapshot;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static java.nio.ByteBuffer.allocateDirect;
 import static org.ethereum.util.ByteUtil.longToBytes;
@@ -44,15 +52,45 @@ public class BlockStore {
     private BlockParser blockParser;
     private static final Logger LOGGER = Logger.getLogger(BlockStore.class);
     protected final Store store;
-    // TODO: we can't keep the chain in memory forever, find a way to write a part of the chain to db and only keep the last few blocks in memory
-    // TODO: we currently don't write multiple forks to the database. Instead, every block for every chain is saved to the database, which will probably cause errors.
+    // The block collection is the canonical chain, keyed by blockNum with the raw blockHash as value, which makes it a
+    // dense list of the hashes of the blocks in the tree
+    private final PagedCollection blocks;
+    // All stored blocks, of the canonical chain and its forks
+    private final BlockTree tree;
+    // Transactions of the canonical chain by address
+    private final AddressHistory history;
     private List<SmiloChain> chains;
     protected static final String COLLECTION_NAME = "block";
 
-    public BlockStore(Store store) {
+    // Amount of blocks every chain keeps in memory, which must cover the deepest fork that can still be resolved
+    private final int chainWindowSize;
+
+    public BlockStore(Store store, @Value("${CHAIN_WINDOW_SIZE:1000}") int chainWindowSize) {
         this.chains = new ArrayList<>();
         this.store = store;
+        this.chainWindowSize = chainWindowSize;
         store.initializeCollection(COLLECTION_NAME);
+        this.blocks = new PagedCollection(store, COLLECTION_NAME);
+        this.tree = new BlockTree(store);
+        this.history = new AddressHistory(store);
+    }
+
+    /**
+     * Retrieves the tree of all stored blocks, including the blocks of forks.
+     *
+     * @return the block tree
+     */
+    public BlockTree getTree() {
+        return tree;
+    }
+
+    /**
+     * Retrieves the index of the transactions of the canonical chain by address.
+     *
+     * @return the address history
+     */
+    public AddressHistory getAddressHistory() {
+        return history;
     }
 
     /**
@@ -80,13 +118,105 @@ public class BlockStore {
     }
 
     /**
-     * Writes a block to the smiloChain file
+     * Writes a block to the block tree and makes it the block of the canonical chain at its blockNum, adding its
+     * transactions to the address history. The block either extends the canonical chain or replaces its last block,
+     * a replaced block stays in the tree, but leaves the address history. Blocks further below the last block would
+     * leave the blocks above them on another fork, so those have to be reverted first, see {@link #revertLastBlock()}.
      *
      * @param block to write
+     * @throws IllegalArgumentException when another block is canonical at a blockNum below the last block
      */
     public void writeBlockToFile(Block block) {
-        byte[] bytes = blockParser.serialize(block);
-        store.put(COLLECTION_NAME, longToBytes(block.getBlockNum()), bytes);
+        byte[] key = longToBytes(block.getBlockNum());
+        byte[] hash = hashOf(block).toBytes();
+        store.batch(() -> {
+            byte[] current = store.get(COLLECTION_NAME, key);
+            if (Arrays.equals(current, hash)) {
+                return;
+            }
+            long height = getCanonicalHeight();
+            if (block.getBlockNum() < height) {
+                throw new IllegalArgumentException("Block " + block.getBlockNum() + " is below the last canonical block " + height + ", revert the blocks above it first");
+            }
+            if (current != null) {
+                history.remove(tree.readBlock(current, blockParser::deserialize));
+            }
+            writeToTree(block);
+            // New blocks usually extend the chain, which lets the store append instead of searching the insert position
+            store.append(COLLECTION_NAME, key, hash);
+            history.add(block);
+        });
+    }
+
+    /**
+     * Retrieves the hash of the block of the canonical chain at a blockNum
+     *
+     * @param blockNum blockNum to query for
+     * @return the hash of the canonical block, or null when the canonical chain is shorter
+     */
+    public Hash32 getCanonicalHash(long blockNum) {
+        byte[] hash = store.get(COLLECTION_NAME, longToBytes(blockNum));
+        return hash == null ? null : Hash32.of(hash);
+    }
+
+    /**
+     * @return the blockNum of the last block of the canonical chain, or -1 when the canonical chain is empty
+     */
+    public long getCanonicalHeight() {
+        Map.Entry<byte[], byte[]> last = store.last(COLLECTION_NAME);
+        return last == null ? -1 : ByteBuffer.wrap(last.getKey()).getLong();
+    }
+
+    /**
+     * Removes the last block from the canonical chain and its transactions from the address history. The block stays
+     * in the block tree.
+     *
+     * @return the removed block, or null if the canonical chain is empty
+     */
+    public Block revertLastBlock() {
+        Block[] reverted = new Block[1];
+        store.batch(() -> {
+            Map.Entry<byte[], byte[]> last = store.last(COLLECTION_NAME);
+            if (last == null) {
+                return;
+            }
+            reverted[0] = tree.readBlock(last.getValue(), blockParser::deserialize);
+            history.remove(reverted[0]);
+            store.remove(COLLECTION_NAME, last.getKey());
+        });
+        return reverted[0];
+    }
+
+    /**
+     * Writes a block of a fork to the block tree, without changing the canonical chain.
+     *
+     * @param block block to write
+     * @return the node of the block, or null when the previous block is unknown or the blockNum doesn't follow it
+     */
+    public BlockTree.Node writeForkBlock(Block block) {
+        BlockTree.Node parent = block.getPreviousHash() == null ? null : tree.getNode(block.getPreviousHash());
+        if (parent == null || parent.getHeight() + 1 != block.getBlockNum()) {
+            return null;
+        }
+        return writeToTree(block);
+    }
+
+    private BlockTree.Node writeToTree(Block block) {
+        BlockTree.Node node = tree.getNode(hashOf(block));
+        if (node != null) {
+            return node;
+        }
+        if (block.getPreviousHash() == null) {
+            throw new IllegalArgumentException("Block " + block.getBlockNum() + " has an invalid previousBlockHash " + block.getPreviousBlockHash());
+        }
+        return tree.insert(block.getHash(), block.getPreviousHash(), block.getBlockNum(), blockParser.serialize(block));
+    }
+
+    private static Hash32 hashOf(Block block) {
+        if (block.getHash() == null) {
+            throw new IllegalArgumentException("Block " + block.getBlockNum() + " has an invalid blockHash " + block.getBlockHash());
+        }
+        return block.getHash();
     }
 
     /**
@@ -102,23 +232,43 @@ public class BlockStore {
     }
 
     /**
-     * Calls getTransactionsInvolvingAddress() on all Block objects in the current Blockchain to get all relevant transactions.
+     * Retrieves all transactions of the canonical chain involving an address from the address history.
      *
      * @param addressToFind Address to search through all block transaction pools for
      * @return ArrayList<String> All transactions in simplified form blocknum:sender:amount:asset:receiver of
      */
     public List<String> getAllTransactionsInvolvingAddress(String addressToFind) {
-        SmiloChain longestChain = getLargestChain();
-
-        List<String> allTransactions = new ArrayList<>();
+        return getTransactionsInvolvingAddress(addressToFind, 0, Long.MAX_VALUE, false);
+    }
 
-        for (int i = 0; i < longestChain.getLength(); i++) {
-            List<String> transactionsFromBlock = longestChain.getBlockByIndex(i).getTransactionsInvolvingAddress(addressToFind);
-            for (int j = 0; j < transactionsFromBlock.size(); j++) {
-                allTransactions.add(longestChain.getBlockByIndex(i).getBlockNum() + ":" + transactionsFromBlock.get(j));
+    /**
+     * Retrieves a page of the transactions of the canonical chain involving an address from the address history. A
+     * transaction with several outputs involving the address counts once, but results in an entry per output.
+     *
+     * @param addressToFind address to query for
+     * @param skip amount of transactions to skip, counted from the latest transaction when reading in descending order
+     * @param take maximum amount of transactions to return
+     * @param isDescending whether to start at the latest transaction
+     * @return the transactions on the page in simplified form blocknum:sender:amount:asset:receiver
+     */
+    public List<String> getTransactionsInvolvingAddress(String addressToFind, long skip, long take, boolean isDescending) {
+        List<String> transactions = new ArrayList<>();
+        // The locations and their blocks are read from one snapshot, so a reorg in between can't mismatch them
+        try (StoreSnapshot snapshot = store.snapshot()) {
+            Block block = null;
+            for (AddressHistory.Location location : history.page(snapshot, addressToFind, skip, take, isDescending)) {
+                // Transactions of the same block are next to each other
+                if (block == null || block.getBlockNum() != location.getBlockNum()) {
+                    block = getBlock(snapshot, location.getBlockNum());
+                }
+                List<String> parts = new ArrayList<>();
+                Block.addTransactionParts(block.getTransactions().get(location.getTransactionIndex()), addressToFind, parts);
+                for (String part : parts) {
+                    transactions.add(block.getBlockNum() + ":" + part);
+                }
             }
         }
-        return allTransactions;
+        return transactions;
     }
 
     /**
@@ -144,14 +294,41 @@ public class BlockStore {
     }
 
     /**
-     * Checks if any of the chain forks contains the given blockHash
+     * Checks if any of the chain forks or the block tree contains the given blockHash
      *
      * @param blockHash blockHash to check
-     * @return
+     * @return true if a block with the given blockHash is known
      */
     public boolean containsHash(String blockHash) {
-        return chains.stream()
-                .anyMatch(chain -> chain.containsHash(blockHash));
+        Hash32 hash = Hash32.tryParse(blockHash);
+        return hash != null && (chains.stream().anyMatch(chain -> chain.containsHash(hash)) || tree.contains(hash));
+    }
+
+    /**
+     * Retrieves a block by blockHash, from the chain forks in memory or otherwise from the block tree
+     *
+     * @param blockHash blockHash to query for
+     * @return the block with the given blockHash, or null if the block is unknown
+     */
+    public Block getBlockByHash(String blockHash) {
+        Hash32 hash = Hash32.tryParse(blockHash);
+        return hash == null ? null : getBlockByHash(hash);
+    }
+
+    /**
+     * Retrieves a block by hash, from the chain forks in memory or otherwise from the block tree
+     *
+     * @param hash hash to query for
+     * @return the block with the given hash, or null if the block is unknown
+     */
+    public Block getBlockByHash(Hash32 hash) {
+        for (SmiloChain chain : chains) {
+            Optional<Block> block = chain.getBlockByHash(hash);
+            if (block.isPresent()) {
+                return block.get();
+            }
+        }
+        return tree.readBlock(hash, blockParser::deserializeHeader);
     }
 
     /**
@@ -159,6 +336,21 @@ public class BlockStore {
      */
     public void cleanUpChains() {
         chains = chains.stream().filter(c -> c.getLength() > getBlockchainLength() - 10).collect(Collectors.toList());
+        // Forks that fell out of the window can't be resolved anymore
+        BlockTree.Node best = tree.getBestTip();
+        if (best != null) {
+            tree.pruneTips(best.getWork() - chainWindowSize);
+        }
+    }
+
+    /**
+     * Creates an empty chain, which keeps its last blocks in memory and reads older blocks from the database. Add it
+     * to the list of forks with {@link #addSmiloChain(SmiloChain)}.
+     *
+     * @return the new chain
+     */
+    public SmiloChain createChain() {
+        return new SmiloChain(chainWindowSize, this::getBlock);
     }
 
     /**
@@ -177,12 +369,91 @@ public class BlockStore {
      * @return the block containing the given blockNum
      */
     public Block getBlock(long blockNum) {
-        Block result = null;
-        byte[] raw = store.get(COLLECTION_NAME, longToBytes(blockNum));
-        if (raw != null && raw.length > 0) {
-            result = blockParser.deserialize(raw);
+        byte[] hash = store.get(COLLECTION_NAME, longToBytes(blockNum));
+        return hash == null ? null : tree.readBlock(hash, blockParser::deserializeHeader);
+    }
+
+    /**
+     * Retrieves a block by blockNum from a snapshot of the database
+     *
+     * @param snapshot snapshot to read from
+     * @param blockNum blockNum to query for
+     * @return the block containing the given blockNum when the snapshot was taken
+     */
+    public Block getBlock(StoreSnapshot snapshot, long blockNum) {
+        byte[] hash = snapshot.get(COLLECTION_NAME, longToBytes(blockNum));
+        return hash == null ? null : tree.readBlock(snapshot, hash, blockParser::deserializeHeader);
+    }
+
+    /**
+     * Takes a snapshot of the database, so several lookups see the stored blocks in one consistent state.
+     *
+     * @return a snapshot of the database, which must be closed
+     */
+    public StoreSnapshot snapshot() {
+        return store.snapshot();
+    }
+
+    /**
+     * Retrieves a page of blocks from the database, ordered by blockNum
+     *
+     * @param skip amount of blocks to skip, counted from the latest block when reading in descending order
+     * @param take maximum amount of blocks to return
+     * @param isDescending whether to start at the latest block
+     * @return the blocks on the page
+     */
+    public List<Block> getBlockPage(long skip, long take, boolean isDescending) {
+        return blocks.page(skip, take, isDescending).stream()
+                .map(hash -> tree.readBlock(hash, blockParser::deserializeHeader))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Streams the blocks of the canonical chain from blockNum from (inclusive) up to blockNum to (exclusive). The blocks
+     * are read from one snapshot of the database while the stream is consumed, walking the canonical chain with a
+     * single cursor, and every block is decoded when the stream reaches it, so the range is never held in memory. The
+     * transactions of a block are only decoded when they are used. The stream holds the snapshot until it is closed,
+     * so always use it in a try-with-resources block on one thread.
+     *
+     * @param from blockNum of the first block
+     * @param to blockNum to stop before
+     * @return the blocks in the range
+     */
+    public Stream<Block> streamBlocks(long from, long to) {
+        return streamBlocks(from, to, blockParser::deserializeHeader);
+    }
+
+    /**
+     * Streams the serialized blocks of the canonical chain, like {@link #streamBlocks(long, long)}, for callers that
+     * pass the blocks on without decoding them.
+     *
+     * @param from blockNum of the first block
+     * @param to blockNum to stop before
+     * @return the serialized blocks in the range
+     */
+    public Stream<byte[]> streamRawBlocks(long from, long to) {
+        return streamBlocks(from, to, BlockStore::toBytes);
+    }
+
+    private <T> Stream<T> streamBlocks(long from, long to, Function<ByteBuffer, T> reader) {
+        if (from < 0 || to <= from) {
+            return Stream.empty();
+        }
+        StoreSnapshot snapshot = store.snapshot();
+        try {
+            return snapshot.scan(COLLECTION_NAME, longToBytes(from), longToBytes(to), false)
+                    .map(entry -> tree.readBlock(snapshot, entry.getValue(), reader))
+                    .onClose(snapshot::close);
+        } catch (RuntimeException e) {
+            snapshot.close();
+            throw e;
         }
-        return result;
+    }
+
+    private static byte[] toBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
     }
 
     /**
@@ -192,11 +463,18 @@ public class BlockStore {
      */
     public Block getLatestBlockFromStore() {
         Map.Entry<byte[], byte[]> m = store.last(COLLECTION_NAME);
-        if (m == null) {
-            return null;
-        }
-        byte[] raw = m.getValue();
-        return blockParser.deserialize(raw);
+        return m == null ? null : tree.readBlock(m.getValue(), blockParser::deserializeHeader);
+    }
+
+    /**
+     * Retrieves the last block from a snapshot of the database
+     *
+     * @param snapshot snapshot to read from
+     * @return the last block when the snapshot was taken
+     */
+    public Block getLatestBlockFromStore(StoreSnapshot snapshot) {
+        Map.Entry<byte[], byte[]> m = snapshot.last(COLLECTION_NAME);
+        return m == null ? null : tree.readBlock(snapshot, m.getValue(), blockParser::deserializeHeader);
     }
 
     /**
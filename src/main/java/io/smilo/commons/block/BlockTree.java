@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.smilo.commons.block;
+
+import io.smilo.commons.Hash32;
+import io.smilo.commons.db.Store;
+import io.smilo.commons.db.StoreSnapshot;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Tree of all stored blocks, the canonical chain as well as its forks. Every node is keyed by the raw bytes of its
+ * blockHash and holds the hash of its parent, its height, the cumulative work of the chain ending in it and the
+ * serialized block, so a fork is stored next to the chain it forks from instead of overwriting its blocks.
+ * <p>
+ * The leaves of the tree are kept as tips, keyed by their work followed by their hash. The last tip is the one with
+ * the most work, so the best tip is found without walking the tree, and adding a block only replaces the tip of its
+ * parent. Every block adds one unit of work, so the work of a chain is its amount of blocks.
+ */
+public class BlockTree {
+
+    static final String NODE_COLLECTION_NAME = "blocktree";
+    static final String TIP_COLLECTION_NAME = "blocktip";
+    // Height and work of the node, followed by the hash of its parent
+    private static final int HEADER_LENGTH = Long.BYTES + Long.BYTES + Hash32.LENGTH;
+
+    private final Store store;
+
+    /**
+     * @param store store holding the tree
+     */
+    public BlockTree(Store store) {
+        this.store = store;
+        store.initializeCollection(NODE_COLLECTION_NAME);
+        store.initializeCollection(TIP_COLLECTION_NAME);
+    }
+
+    /**
+     * Adds a block to the tree, as child of its parent when the parent is in the tree, or as a new root otherwise. A
+     * root is assumed to extend a chain starting at height 0. Adding a block that is already in the tree has no effect.
+     *
+     * @param blockHash hash of the block
+     * @param parentHash hash of the previous block
+     * @param height blockNum of the block
+     * @param block the serialized block
+     * @return the node of the block
+     */
+    public Node insert(Hash32 blockHash, Hash32 parentHash, long height, byte[] block) {
+        Node[] inserted = new Node[1];
+        store.batch(() -> {
+            byte[] key = blockHash.toBytes();
+            Node existing = store.read(NODE_COLLECTION_NAME, key, buffer -> decode(blockHash, buffer));
+            if (existing != null) {
+                inserted[0] = existing;
+                return;
+            }
+            Node parent = getNode(parentHash);
+            long work = parent == null ? height + 1 : parent.getWork() + 1;
+            Node node = new Node(blockHash, parentHash, height, work);
+
+            ByteBuffer value = ByteBuffer.allocate(HEADER_LENGTH + block.length)
+                    .putLong(height)
+                    .putLong(work);
+            parentHash.writeTo(value).put(block);
+            store.put(NODE_COLLECTION_NAME, key, value.array());
+            if (parent != null) {
+                store.remove(TIP_COLLECTION_NAME, tipKey(parent));
+            }
+            store.put(TIP_COLLECTION_NAME, tipKey(node), key);
+            inserted[0] = node;
+        });
+        return inserted[0];
+    }
+
+    /**
+     * @param blockHash hash of the block
+     * @return true when the block is in the tree
+     */
+    public boolean contains(Hash32 blockHash) {
+        return store.read(NODE_COLLECTION_NAME, blockHash.toBytes(), buffer -> Boolean.TRUE) != null;
+    }
+
+    /**
+     * @param blockHash hash of the block
+     * @return the node of the block, or null when the block is not in the tree
+     */
+    public Node getNode(Hash32 blockHash) {
+        return store.read(NODE_COLLECTION_NAME, blockHash.toBytes(), buffer -> decode(blockHash, buffer));
+    }
+
+    /**
+     * Reads the serialized block of a node. See {@link Store#read(String, byte[], Function)}.
+     *
+     * @param blockHash hash of the block
+     * @param reader function decoding the serialized block
+     * @param <T> type of the decoded block
+     * @return the decoded block, or null when the block is not in the tree
+     */
+    public <T> T readBlock(Hash32 blockHash, Function<ByteBuffer, T> reader) {
+        return readBlock(blockHash.toBytes(), reader);
+    }
+
+    <T> T readBlock(byte[] key, Function<ByteBuffer, T> reader) {
+        return store.read(NODE_COLLECTION_NAME, key, buffer -> reader.apply(skipHeader(buffer)));
+    }
+
+    <T> T readBlock(StoreSnapshot snapshot, byte[] key, Function<ByteBuffer, T> reader) {
+        return snapshot.read(NODE_COLLECTION_NAME, key, buffer -> reader.apply(skipHeader(buffer)));
+    }
+
+    /**
+     * @return the tip with the most work, or null when the tree is empty
+     */
+    public Node getBestTip() {
+        Map.Entry<byte[], byte[]> tip = store.last(TIP_COLLECTION_NAME);
+        return tip == null ? null : getNode(Hash32.of(tip.getValue()));
+    }
+
+    /**
+     * @return all tips, ordered by work
+     */
+    public List<Node> getTips() {
+        try (Stream<Map.Entry<byte[], byte[]>> tips = store.scan(TIP_COLLECTION_NAME)) {
+            return tips.map(tip -> getNode(Hash32.of(tip.getValue())))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Stops tracking the tips of forks that were abandoned, their blocks stay in the tree.
+     *
+     * @param work tips with less work than this are removed
+     */
+    public void pruneTips(long work) {
+        if (work <= 0) {
+            return;
+        }
+        byte[] bound = ByteBuffer.allocate(Long.BYTES).putLong(work).array();
+        // Tips are ordered by work, so only the tip with the least work tells whether there is anything to prune
+        try (Stream<Map.Entry<byte[], byte[]>> tips = store.scan(TIP_COLLECTION_NAME, null, bound, false)) {
+            if (!tips.findFirst().isPresent()) {
+                return;
+            }
+        }
+        store.batch(() -> {
+            List<byte[]> abandoned;
+            try (Stream<Map.Entry<byte[], byte[]>> tips = store.scan(TIP_COLLECTION_NAME, null, bound, false)) {
+                abandoned = tips.map(Map.Entry::getKey).collect(Collectors.toList());
+            }
+            abandoned.forEach(tip -> store.remove(TIP_COLLECTION_NAME, tip));
+        });
+    }
+
+    /**
+     * Removes all blocks and tips.
+     */
+    public void clear() {
+        store.clear(NODE_COLLECTION_NAME);
+        store.clear(TIP_COLLECTION_NAME);
+    }
+
+    private static byte[] tipKey(Node node) {
+        ByteBuffer key = ByteBuffer.allocate(Long.BYTES + Hash32.LENGTH).putLong(node.getWork());
+        return node.getBlockHash().writeTo(key).array();
+    }
+
+    private static Node decode(Hash32 blockHash, ByteBuffer buffer) {
+        long height = buffer.getLong();
+        long work = buffer.getLong();
+        return new Node(blockHash, Hash32.read(buffer), height, work);
+    }
+
+    private static ByteBuffer skipHeader(ByteBuffer buffer) {
+        buffer.position(buffer.position() + HEADER_LENGTH);
+        return buffer.slice();
+    }
+
+    /**
+     * Position of a block in the tree.
+     */
+    public static final class Node {
+        private final Hash32 blockHash;
+        private final Hash32 parentHash;
+        private final long height;
+        private final long work;
+
+        Node(Hash32 blockHash, Hash32 parentHash, long height, long work) {
+            this.blockHash = blockHash;
+            this.parentHash = parentHash;
+            this.height = height;
+            this.work = work;
+        }
+
+        public Hash32 getBlockHash() {
+            return blockHash;
+        }
+
+        public Hash32 getParentHash() {
+            return parentHash;
+        }
+
+        /**
+         * @return blockNum of the block
+         */
+        public long getHeight() {
+            return height;
+        }
+
+        /**
+         * @return work of the chain ending in this block
+         */
+        public long getWork() {
+            return work;
+        }
+    }
+}
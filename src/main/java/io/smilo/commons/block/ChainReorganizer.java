@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.smilo.commons.block;
+
+import io.smilo.commons.Hash32;
+import io.smilo.commons.block.data.transaction.Transaction;
+import io.smilo.commons.block.data.transaction.TransactionOutput;
+import io.smilo.commons.db.Store;
+import io.smilo.commons.ledger.LedgerManager;
+import io.smilo.commons.ledger.UndoJournal;
+import org.apache.log4j.Logger;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Applies blocks to the ledger and switches the canonical chain to a fork with more work.
+ * <p>
+ * A switch walks the parent pointers of the block tree from the tip of the fork down to the common ancestor, the first
+ * block that is part of the canonical chain. Only the canonical blocks above the ancestor are undone, latest first, by
+ * restoring the accounts they touched from the {@link UndoJournal}, after which the blocks of the fork are applied from
+ * the ancestor up. The walk, the undo and the apply all run in one
+ * store batch, so a switch costs as much as the depth of the fork and either completes or leaves the chain untouched.
+ */
+@Component
+public class ChainReorganizer {
+
+    private static final Logger LOGGER = Logger.getLogger(ChainReorganizer.class);
+
+    private final BlockStore blockStore;
+    private final LedgerManager ledgerManager;
+    private final UndoJournal undoJournal;
+    private final Store store;
+
+    public ChainReorganizer(BlockStore blockStore, LedgerManager ledgerManager, UndoJournal undoJournal, Store store) {
+        this.blockStore = blockStore;
+        this.ledgerManager = ledgerManager;
+        this.undoJournal = undoJournal;
+        this.store = store;
+    }
+
+    /**
+     * Makes the chain ending in the given block the canonical chain.
+     *
+     * @param tip hash of the last block of the fork, which must be in the block tree
+     * @return the blocks that were undone and applied, or null when the fork doesn't connect to the canonical chain
+     */
+    public Reorganization reorganize(Hash32 tip) {
+        Deque<Block> branch = new ArrayDeque<>();
+        List<Block> undone = new ArrayList<>();
+        boolean[] connected = new boolean[1];
+        store.batch(() -> {
+            BlockTree.Node node = blockStore.getTree().getNode(tip);
+            while (node != null && !node.getBlockHash().equals(blockStore.getCanonicalHash(node.getHeight()))) {
+                branch.push(blockStore.getBlockByHash(node.getBlockHash()));
+                node = node.getHeight() == 0 ? null : blockStore.getTree().getNode(node.getParentHash());
+            }
+            connected[0] = node != null;
+            if (node == null) {
+                return;
+            }
+
+            for (long height = blockStore.getCanonicalHeight(); height > node.getHeight(); height--) {
+                Block block = blockStore.revertLastBlock();
+                undoBlock(block);
+                undone.add(block);
+            }
+            for (Block block : branch) {
+                applyBlock(block);
+                blockStore.writeBlockToFile(block);
+            }
+        });
+        if (!connected[0]) {
+            LOGGER.warn("Fork ending in block " + tip + " doesn't connect to the canonical chain");
+            return null;
+        }
+
+        // The chain in memory follows the store once the batch is committed
+        SmiloChain chain = blockStore.getLargestChain();
+        if (chain != null) {
+            undone.forEach(block -> chain.removeLastBlock());
+            branch.forEach(chain::addBlock);
+        }
+        if (!branch.isEmpty()) {
+            LOGGER.info("Switched to fork ending in block " + tip + ", undid " + undone.size() + " blocks and applied " + branch.size() + " blocks");
+        }
+        return new Reorganization(undone, new ArrayList<>(branch));
+    }
+
+    /**
+     * Executes the transactions of a block on the ledger. Transactions are retried until the ones they depend on in
+     * the same block have been executed. The accounts the block touches are recorded in the undo journal first.
+     *
+     * @param block block to apply
+     * @throws IllegalStateException when some transactions can never be executed
+     */
+    public void applyBlock(Block block) {
+        if (block.getHash() != null) {
+            undoJournal.record(block.getBlockNum(), block.getHash(), getTouchedAddresses(block));
+        }
+        //We can't directly assign transactionsToApply to block.transactions as we are going to edit it, and we don't want to delete transactions from the actual block.
+        List<Transaction> transactionsToApply = block.getTransactions().stream()
+                .filter(transaction -> !transaction.isEmpty())
+                .collect(Collectors.toCollection(ArrayList::new));
+
+        while (!transactionsToApply.isEmpty()) {
+            // Every pass has to execute a transaction, otherwise the remaining ones wait for each other forever
+            boolean executed = transactionsToApply.removeIf(ledgerManager::executeTransaction);
+            if (!executed) {
+                throw new IllegalStateException("Infinite block detected! Hash: " + block.getBlockHash() + " and height: " + block.getBlockNum() + ", TransactionsToApply size " + transactionsToApply.size());
+            }
+        }
+    }
+
+    /**
+     * Restores the accounts of a block from the undo journal. Blocks without a journal, like the blocks applied before
+     * journals were kept, have their transactions reversed instead, latest first.
+     *
+     * @param block block to undo
+     * @throws IllegalStateException when a transaction can't be reversed
+     */
+    public void undoBlock(Block block) {
+        if (block.getHash() != null && undoJournal.rollback(block.getBlockNum(), block.getHash())) {
+            return;
+        }
+        List<Transaction> transactions = block.getTransactions();
+        for (int i = transactions.size() - 1; i >= 0; i--) {
+            Transaction transaction = transactions.get(i);
+            if (!transaction.isEmpty() && !ledgerManager.reverseTransaction(transaction)) {
+                throw new IllegalStateException("Unable to reverse transaction " + transaction.getDataHash() + " of block " + block.getBlockNum());
+            }
+        }
+    }
+
+    /**
+     * Blocks undone and applied by a switch to a fork.
+     */
+    public static final class Reorganization {
+        private final List<Block> undone;
+        private final List<Block> applied;
+
+        private Reorganization(List<Block> undone, List<Block> applied) {
+            this.undone = undone;
+            this.applied = applied;
+        }
+
+        /**
+         * @return the canonical blocks that were undone, latest first
+         */
+        public List<Block> getUndone() {
+            return undone;
+        }
+
+        /**
+         * @return the blocks of the fork that were applied, from the common ancestor up
+         */
+        public List<Block> getApplied() {
+            return applied;
+        }
+    }
+
+    private static Set<String> getTouchedAddresses(Block block) {
+        Set<String> addresses = new LinkedHashSet<>();
+        for (Transaction transaction : block.getTransactions()) {
+            if (transaction.getInputAddress() != null) {
+                addresses.add(transaction.getInputAddress());
+            }
+            for (TransactionOutput output : transaction.getTransactionOutputs()) {
+                addresses.add(output.getOutputAddress());
+            }
+        }
+        return addresses;
+    }
+}
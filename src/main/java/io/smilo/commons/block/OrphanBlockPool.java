@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.smilo.commons.block;
+
+import io.smilo.commons.Hash32;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Pool of blocks whose previous block is not known yet, like the blocks that arrive out of order while catching up.
+ * Orphans are indexed by the hash of their previous block, so once a block connects only its own children are tried,
+ * and by blockNum, so the pool can evict the orphans furthest from the tip when it holds too many blocks or bytes.
+ * <p>
+ * When an orphan arrives whose previous block isn't awaited yet, the listeners are asked to fetch it. Listeners
+ * register themselves, so components talking to peers don't have to be dependencies of the pool.
+ */
+@Component
+public class OrphanBlockPool {
+
+    /**
+     * Receives the previous blocks the orphans are waiting for.
+     */
+    public interface Listener {
+
+        /**
+         * Called when the first orphan waiting for a block arrives.
+         *
+         * @param parentHash hash of the missing block
+         * @param parentBlockNum blockNum of the missing block
+         */
+        void onMissingParent(Hash32 parentHash, long parentBlockNum);
+    }
+
+    private final int maxBlocks;
+    private final long maxBytes;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Map<Hash32, Orphan> byHash = new HashMap<>();
+    private final Map<Hash32, List<Orphan>> byParent = new HashMap<>();
+    private final TreeMap<Long, List<Orphan>> byBlockNum = new TreeMap<>();
+    private long bytes;
+
+    /**
+     * @param maxBlocks most orphans kept
+     * @param maxBytes most serialized bytes of orphans kept
+     */
+    public OrphanBlockPool(@Value("${ORPHAN_POOL_MAX_BLOCKS:1000}") int maxBlocks,
+                           @Value("${ORPHAN_POOL_MAX_BYTES:67108864}") long maxBytes) {
+        this.maxBlocks = maxBlocks;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param listener listener to notify of missing blocks
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Adds an orphan to the pool. When the pool is full, the orphans furthest from the tip are evicted, which may be
+     * the new orphan itself.
+     *
+     * @param block block whose previous block is unknown
+     * @param size size of the serialized block in bytes
+     * @param tipBlockNum blockNum of the last block of the canonical chain
+     * @return true when the block is kept in the pool
+     */
+    public boolean add(Block block, int size, long tipBlockNum) {
+        Hash32 parent = block.getPreviousHash();
+        if (block.getHash() == null || parent == null) {
+            return false;
+        }
+        boolean kept;
+        boolean missing;
+        synchronized (this) {
+            if (byHash.containsKey(block.getHash())) {
+                return true;
+            }
+            Orphan orphan = new Orphan(block, size);
+            // A parent that is queued itself or already requested for another orphan isn't requested again
+            missing = !byHash.containsKey(parent) && !byParent.containsKey(parent);
+            byHash.put(block.getHash(), orphan);
+            byParent.computeIfAbsent(parent, p -> new ArrayList<>()).add(orphan);
+            byBlockNum.computeIfAbsent(block.getBlockNum(), n -> new ArrayList<>()).add(orphan);
+            bytes += size;
+            while (byHash.size() > maxBlocks || bytes > maxBytes) {
+                evictFurthestFrom(tipBlockNum);
+            }
+            kept = byHash.containsKey(block.getHash());
+        }
+        if (kept && missing) {
+            listeners.forEach(listener -> listener.onMissingParent(parent, block.getBlockNum() - 1));
+        }
+        return kept;
+    }
+
+    /**
+     * Takes the orphans waiting for a block out of the pool, for instance because the block was just added.
+     *
+     * @param parentHash hash of the block
+     * @return the orphans following the block, in the order they arrived
+     */
+    public synchronized List<Block> removeChildren(Hash32 parentHash) {
+        List<Orphan> children = byParent.get(parentHash);
+        if (children == null) {
+            return Collections.emptyList();
+        }
+        List<Block> blocks = new ArrayList<>(children.size());
+        for (Orphan child : new ArrayList<>(children)) {
+            remove(child);
+            blocks.add(child.block);
+        }
+        return blocks;
+    }
+
+    /**
+     * @param hash hash of the block
+     * @return true when the block is in the pool
+     */
+    public synchronized boolean contains(Hash32 hash) {
+        return byHash.containsKey(hash);
+    }
+
+    /**
+     * @return amount of orphans in the pool
+     */
+    public synchronized int size() {
+        return byHash.size();
+    }
+
+    /**
+     * @return serialized bytes of the orphans in the pool
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Removes all orphans.
+     */
+    public synchronized void clear() {
+        byHash.clear();
+        byParent.clear();
+        byBlockNum.clear();
+        bytes = 0;
+    }
+
+    private void evictFurthestFrom(long tipBlockNum) {
+        long lowest = byBlockNum.firstKey();
+        long highest = byBlockNum.lastKey();
+        List<Orphan> furthest = highest - tipBlockNum >= tipBlockNum - lowest ? byBlockNum.get(highest) : byBlockNum.get(lowest);
+        // The latest arrival goes first, the earlier orphans are more likely to be connected by now
+        remove(furthest.get(furthest.size() - 1));
+    }
+
+    private void remove(Orphan orphan) {
+        Block block = orphan.block;
+        byHash.remove(block.getHash());
+        removeFrom(byParent, block.getPreviousHash(), orphan);
+        removeFrom(byBlockNum, block.getBlockNum(), orphan);
+        bytes -= orphan.size;
+    }
+
+    private static <K> void removeFrom(Map<K, List<Orphan>> index, K key, Orphan orphan) {
+        List<Orphan> orphans = index.get(key);
+        orphans.remove(orphan);
+        if (orphans.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    /**
+     * Block in the pool together with its size.
+     */
+    private static final class Orphan {
+        private final Block block;
+        private final int size;
+
+        private Orphan(Block block, int size) {
+            this.block = block;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.smilo.commons.block;
+
+import io.smilo.commons.Hash32;
+import org.apache.log4j.Logger;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Bounded memory of the blocks seen in broadcasts, so a block that peers keep relaying is only processed once.
+ * <p>
+ * Seen hashes are recorded in a generation, a Bloom filter sized for a configured amount of hashes. Once a generation
+ * is full or too old it replaces the previous generation, whose hashes are forgotten, so the memory stays bounded and
+ * lookups cost a fixed amount of bit tests. A Bloom filter never misses a hash it holds, but may claim to hold a hash
+ * it doesn't. A hash the filters claim to hold is therefore confirmed with an exact check, like a lookup in the block
+ * hash index, before it counts as seen. Hashes that the exact check can't confirm, like those of declined blocks, can
+ * be pinned, which remembers them exactly for as long as their generation lives.
+ */
+public class SeenBlockCache {
+
+    private static final Logger LOGGER = Logger.getLogger(SeenBlockCache.class);
+
+    private final int hashesPerGeneration;
+    private final long maxGenerationAgeMillis;
+    private final int bits;
+    private final int hashFunctions;
+    private final Predicate<Hash32> exactCheck;
+    private final LongSupplier clock;
+    private Generation current;
+    private Generation previous;
+
+    /**
+     * @param hashesPerGeneration amount of hashes a generation holds before it is replaced
+     * @param falsePositiveRate rate of unseen hashes a full generation claims to hold, which sizes its filter
+     * @param maxGenerationAgeMillis age after which a generation is replaced, even when it isn't full
+     * @param exactCheck confirms that a hash the filters claim to hold was seen
+     */
+    public SeenBlockCache(int hashesPerGeneration, double falsePositiveRate, long maxGenerationAgeMillis, Predicate<Hash32> exactCheck) {
+        this(hashesPerGeneration, falsePositiveRate, maxGenerationAgeMillis, exactCheck, System::currentTimeMillis);
+    }
+
+    SeenBlockCache(int hashesPerGeneration, double falsePositiveRate, long maxGenerationAgeMillis, Predicate<Hash32> exactCheck, LongSupplier clock) {
+        if (hashesPerGeneration < 1) {
+            throw new IllegalArgumentException("A generation must hold at least one hash, got " + hashesPerGeneration);
+        }
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1, got " + falsePositiveRate);
+        }
+        this.hashesPerGeneration = hashesPerGeneration;
+        this.maxGenerationAgeMillis = maxGenerationAgeMillis;
+        // Optimal size and amount of hash functions of a Bloom filter for n hashes at false positive rate p:
+        // m = -n ln(p) / ln(2)^2 and k = m / n ln(2)
+        long optimalBits = (long) Math.ceil(-hashesPerGeneration * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.bits = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, optimalBits));
+        this.hashFunctions = Math.max(1, (int) Math.round((double) bits / hashesPerGeneration * Math.log(2)));
+        this.exactCheck = exactCheck;
+        this.clock = clock;
+        this.current = new Generation(bits, clock.getAsLong());
+        this.previous = new Generation(bits, clock.getAsLong());
+    }
+
+    /**
+     * Records a hash as seen.
+     *
+     * @param hash hash of the block
+     */
+    public synchronized void add(Hash32 hash) {
+        rotateIfExpired();
+        current.add(hash, hashFunctions);
+    }
+
+    /**
+     * Records a hash as seen and remembers it exactly, for hashes the exact check can't confirm.
+     *
+     * @param hash hash of the block
+     */
+    public synchronized void pin(Hash32 hash) {
+        add(hash);
+        current.pinned.add(hash);
+    }
+
+    /**
+     * @param hash hash of the block
+     * @return true when the hash was seen and is still remembered
+     */
+    public boolean contains(Hash32 hash) {
+        synchronized (this) {
+            rotateIfExpired();
+            if (!current.mightContain(hash, hashFunctions) && !previous.mightContain(hash, hashFunctions)) {
+                return false;
+            }
+            if (current.pinned.contains(hash) || previous.pinned.contains(hash)) {
+                return true;
+            }
+        }
+        // The exact check may hit the database, so it runs without holding the lock
+        return exactCheck.test(hash);
+    }
+
+    /**
+     * Estimates how often the filters claim to hold a hash that was never added, from the amount of hashes they hold
+     * right now. Such hashes are caught by the exact check, so this is the rate at which the exact check runs for
+     * unseen blocks.
+     *
+     * @return the expected false positive rate, between 0 and 1
+     */
+    public synchronized double getExpectedFalsePositiveRate() {
+        double inCurrent = falsePositiveRate(current.size);
+        double inPrevious = falsePositiveRate(previous.size);
+        return 1 - (1 - inCurrent) * (1 - inPrevious);
+    }
+
+    /**
+     * @return the amount of hashes remembered by the filters
+     */
+    public synchronized long size() {
+        return (long) current.size + previous.size;
+    }
+
+    /**
+     * Forgets all hashes.
+     */
+    public synchronized void clear() {
+        current = new Generation(bits, clock.getAsLong());
+        previous = new Generation(bits, clock.getAsLong());
+    }
+
+    private double falsePositiveRate(int hashes) {
+        return Math.pow(1 - Math.exp(-(double) hashFunctions * hashes / bits), hashFunctions);
+    }
+
+    private void rotateIfExpired() {
+        long now = clock.getAsLong();
+        if (current.size >= hashesPerGeneration || now - current.created >= maxGenerationAgeMillis) {
+            previous = current;
+            current = new Generation(bits, now);
+            LOGGER.debug("Started a new generation of seen blocks, expected false positive rate is " + getExpectedFalsePositiveRate());
+        }
+    }
+
+    /**
+     * Bloom filter holding the hashes seen during a period, together with the hashes pinned during that period.
+     */
+    private static final class Generation {
+        private final long[] words;
+        private final int bits;
+        private final long created;
+        private final Set<Hash32> pinned = new HashSet<>();
+        private int size;
+
+        private Generation(int bits, long created) {
+            this.words = new long[(bits + 63) / 64];
+            this.bits = bits;
+            this.created = created;
+        }
+
+        private void add(Hash32 hash, int hashFunctions) {
+            // Block hashes are uniformly distributed, so two words of the hash combine into all bit positions
+            long h1 = hash.getLong(0);
+            long h2 = hash.getLong(1);
+            for (int i = 0; i < hashFunctions; i++) {
+                int bit = (int) Math.floorMod(h1 + i * h2, (long) bits);
+                words[bit >>> 6] |= 1L << bit;
+            }
+            size++;
+        }
+
+        private boolean mightContain(Hash32 hash, int hashFunctions) {
+            long h1 = hash.getLong(0);
+            long h2 = hash.getLong(1);
+            for (int i = 0; i < hashFunctions; i++) {
+                int bit = (int) Math.floorMod(h1 + i * h2, (long) bits);
+                if ((words[bit >>> 6] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -17,28 +17,62 @@
 package io.smilo.commons.block;
 
 
+import io.smilo.commons.Hash32;
+
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.LongFunction;
 
 /**
- * Represents a chain of blocks
+ * Represents a chain of blocks. Only the last blocks of the chain are kept in memory, older blocks are read from the
+ * history of stored blocks when they are needed. The window of blocks in memory must cover the deepest fork that can
+ * still be resolved, because the history holds a single block per blockNum, shared by all forks.
  */
 public class SmiloChain {
 
-    // TODO: LinkedList/LinkedSet?
+    private final int maxBlocksInMemory;
+    // Loads a block that left the window by blockNum
+    private final LongFunction<Block> history;
+    // The last blocks of the chain
     private final List<Block> blocks;
+    // Index of the blocks in memory by blockHash, so hash lookups don't have to walk the chain
+    private final Map<Hash32, Block> blocksByHash;
+    // blockNum of the first block of the chain
+    private long firstBlockNum;
+    // Amount of blocks that left the window
+    private int evicted;
 
+    /**
+     * Creates a chain that keeps all its blocks in memory
+     */
     public SmiloChain() {
+        this(Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * Creates a chain that keeps only its last blocks in memory
+     * @param maxBlocksInMemory amount of blocks to keep in memory
+     * @param history loads a block by blockNum once it left memory
+     */
+    public SmiloChain(int maxBlocksInMemory, LongFunction<Block> history) {
+        if (maxBlocksInMemory < 1) {
+            throw new IllegalArgumentException("A chain must keep at least one block in memory, got " + maxBlocksInMemory);
+        }
+        this.maxBlocksInMemory = maxBlocksInMemory;
+        this.history = history;
         this.blocks = new ArrayList<>();
+        this.blocksByHash = new HashMap<>();
     }
 
     /**
      * Finds the length of the chain in blocks
-     * @return amount of blocks in the chain
+     * @return amount of blocks in the chain, including the blocks that are no longer kept in memory
      */
     public int getLength() {
-        return blocks.size();
+        return evicted + blocks.size();
     }
     
     /**
@@ -46,16 +80,25 @@ public class SmiloChain {
      * @return true if no blocks are added, false if blocks are present
      */
     public boolean isEmpty() {
-        return blocks.isEmpty();
+        return getLength() == 0;
     }
 
     /**
-     * Finds a block by hash
+     * Finds a block in memory by hash
      * @param hash Hash to query the blocks with
      * @return The block with the matching hash or an empty optional
      */
     public Optional<Block> getBlockByHash(String hash) {
-        return blocks.stream().filter(block -> block.getBlockHash().equals(hash)).findFirst();
+        return getBlockByHash(Hash32.tryParse(hash));
+    }
+
+    /**
+     * Finds a block in memory by hash
+     * @param hash Hash to query the blocks with
+     * @return The block with the matching hash or an empty optional
+     */
+    public Optional<Block> getBlockByHash(Hash32 hash) {
+        return hash == null ? Optional.empty() : Optional.ofNullable(blocksByHash.get(hash));
     }
 
     /**
@@ -70,28 +113,76 @@ public class SmiloChain {
     }
 
     /**
-     * Adds a block to the chain
+     * Adds a block to the chain. When the window is full, the oldest block in memory leaves it, so it must have been
+     * stored by then.
      * @param block block to add
      */
     public void addBlock(Block block) {
+        if (getLength() == 0) {
+            this.firstBlockNum = block.getBlockNum();
+        }
         this.blocks.add(block);
+        if (block.getHash() != null) {
+            this.blocksByHash.put(block.getHash(), block);
+        }
+        if (blocks.size() > maxBlocksInMemory) {
+            Block oldest = blocks.remove(0);
+            if (oldest.getHash() != null) {
+                blocksByHash.remove(oldest.getHash(), oldest);
+            }
+            evicted++;
+        }
     }
 
     /**
-     * Returns all blocks in the chain
-     * @return all blocks in the chain
+     * Removes the last block from the chain, for instance when a fork replaces it. When no blocks are left in memory,
+     * the last block that left the window is read back from history, so it must still be stored by then.
+     * @return the removed block, or null when the chain is empty
+     */
+    public Block removeLastBlock() {
+        if (blocks.isEmpty()) {
+            return null;
+        }
+        Block last = blocks.remove(blocks.size() - 1);
+        if (last.getHash() != null) {
+            blocksByHash.remove(last.getHash(), last);
+        }
+        if (blocks.isEmpty() && evicted > 0) {
+            evicted--;
+            Block previous = history.apply(firstBlockNum + evicted);
+            blocks.add(previous);
+            if (previous.getHash() != null) {
+                blocksByHash.put(previous.getHash(), previous);
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Returns the blocks of the chain that are kept in memory. Add blocks through {@link #addBlock(Block)}, so they
+     * can be found by hash.
+     * @return the last blocks of the chain
      */
     public List<Block> getBlocks() {
         return this.blocks;
     }
 
     /**
-     * checks if the chain contains a block with the given blockHash
+     * checks if the blocks in memory contain a block with the given blockHash
      * @param blockHash blockHash to query with
      * @return true of the chain contains a block with the given blockHash
      */
     public boolean containsHash(String blockHash) {
-        return this.blocks.stream().anyMatch(block -> block.getBlockHash().equals(blockHash));
+        return containsHash(Hash32.tryParse(blockHash));
+    }
+
+    /**
+     * checks if the blocks in memory contain a block with the given hash
+     * @param hash hash to query with
+     * @return true of the chain contains a block with the given hash
+     */
+    public boolean containsHash(Hash32 hash) {
+        return hash != null && this.blocksByHash.containsKey(hash);
     }
 
     /**
@@ -101,6 +192,9 @@ public class SmiloChain {
      * @return block at index
      */
     public Block getBlockByIndex(int index) {
-        return blocks.get(index);
+        if (index < evicted && index >= 0) {
+            return history.apply(firstBlockNum + index);
+        }
+        return blocks.get(index - evicted);
     }
 }
@@ -16,15 +16,20 @@
 
 package io.smilo.commons.block;
 
+import io.smilo.commons.Hash32;
 import io.smilo.commons.block.data.transaction.Transaction;
+import io.smilo.commons.db.Store;
 import io.smilo.commons.ledger.LedgerManager;
 import io.smilo.commons.peer.PeerStore;
 import io.smilo.commons.peer.sport.INetworkState;
 import io.smilo.commons.pendingpool.PendingBlockDataPool;
 import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Only one SmiloChainService object is created per instance of the daemon. It keeps track of ALL possible chains, and internally handles chain reorganization. The decision to put LedgerManager as an
@@ -60,15 +65,15 @@ import java.util.*;
 public class SmiloChainService {
 
     private static final Logger LOGGER = Logger.getLogger(SmiloChainService.class);
-    private static final int MAX_LOOP_COUNT = 10000;
 
     //blockhash as key, set of node identifiers
     private Map<String, Set<String>> approvedBlocks = new HashMap<>();
     private final Set<Block> chainQueue;
-    private final List<Block> blockQueue;
+    // Blocks waiting for their previous block
+    private final OrphanBlockPool orphanPool;
 
-    // TODO: cleanup allBroadcastBlockHashes every now and then
-    private final Set<String> allBroadcastBlockHashes = new HashSet<>();
+    // Blocks seen in broadcasts, confirmed against the stored and queued blocks
+    private final SeenBlockCache seenBlocks;
 
     private final LedgerManager ledgerManager;
     private final BlockParser blockGenerator;
@@ -76,21 +81,33 @@ public class SmiloChainService {
     private final PeerStore peerStore;
     private final INetworkState networkState;
     private final PendingBlockDataPool pendingBlockDataPool;
+    private final Store store;
+    private final ChainReorganizer chainReorganizer;
 
     public SmiloChainService(LedgerManager ledgerManager,
                              BlockParser blockGenerator,
                              BlockStore blockStore,
                              PeerStore peerStore,
                              INetworkState networkState,
-                             PendingBlockDataPool pendingBlockDataPool) {
+                             PendingBlockDataPool pendingBlockDataPool,
+                             Store store,
+                             ChainReorganizer chainReorganizer,
+                             OrphanBlockPool orphanPool,
+                             @Value("${SEEN_BLOCKS_PER_GENERATION:100000}") int seenBlocksPerGeneration,
+                             @Value("${SEEN_BLOCKS_FALSE_POSITIVE_RATE:0.001}") double seenBlocksFalsePositiveRate,
+                             @Value("${SEEN_BLOCKS_GENERATION_MINUTES:60}") long seenBlocksGenerationMinutes) {
         this.peerStore = peerStore;
+        this.store = store;
+        this.chainReorganizer = chainReorganizer;
         this.networkState = networkState;
         this.pendingBlockDataPool = pendingBlockDataPool;
-        this.blockQueue = new ArrayList<>();
+        this.orphanPool = orphanPool;
         this.chainQueue = new HashSet<>();
         this.ledgerManager = ledgerManager;
         this.blockGenerator = blockGenerator;
         this.blockStore = blockStore;
+        this.seenBlocks = new SeenBlockCache(seenBlocksPerGeneration, seenBlocksFalsePositiveRate,
+                TimeUnit.MINUTES.toMillis(seenBlocksGenerationMinutes), this::isStoredOrQueued);
     }
 
     /**
@@ -111,7 +128,6 @@ public class SmiloChainService {
                 return new AddBlockResult(block, AddResultType.UNKNOWN, "Something went wrong adding the block!");
             }
             final int largestChainLength = largestChain.getLength();
-            final String largestChainLastBlockHash = !largestChain.isEmpty() ? largestChain.getLastBlock().getBlockHash() : "";
 
             //Now we have the longest chain, we remove any chains that are less than largestChainLength - 10 in length.
             //TODO: why though? ಠ_ಠ
@@ -120,8 +136,11 @@ public class SmiloChainService {
             //Block looks fine on its own--we don't know how it's going to play with the chain. If the block's number is larger than the largest chain + 1, we'll put the block in a queue to attempt to add later.
             //Block numbering starts at 0.
             if (block.getBlockNum() > largestChain.getLastBlock().getBlockNum() + 1) {
-                //Add it to the queue.
-                blockQueue.add(block);
+                //Add it to the queue, which evicts the blocks furthest ahead or behind when it is full.
+                if (!orphanPool.add(block, blockGenerator.serialize(block).length, largestChain.getLastBlock().getBlockNum())) {
+                    LOGGER.info("Block " + block.getBlockNum() + " is too far from the tip to be queued");
+                    return new AddBlockResult(block, AddResultType.UNKNOWN, "Block is too far from the tip to be queued");
+                }
                 /*
                  * In the future, the addBlock() method may be changed to return an int, with values representing things like block above existing heights, validation error, block not on any chains, etc.
                  * For now, the boolean indicates simply whether immediate addition of the block to some internal smiloChain was successful.
@@ -133,119 +152,99 @@ public class SmiloChainService {
                 return new AddBlockResult(block, AddResultType.QUEUED, "Block has been added to the queue");
             }
 
-            //Then, we will see whether it goes well onto the ends of any existing chains.
-            if (blockStore.getAll().stream()
-                    .anyMatch(chain -> addBlockToChain(chain, block, largestChainLastBlockHash, largestChain))) {
-                blockStore.writeBlockToFile(block);
+            //Then, we will see whether it goes well onto the end of the canonical chain. Forks are kept in the block tree.
+            //The ledger updates and the block itself are committed in one batch, so a block is never half applied.
+            AtomicBoolean added = new AtomicBoolean(false);
+            store.batch(() -> {
+                if (addBlockToChain(largestChain, block)) {
+                    blockStore.writeBlockToFile(block);
+                    added.set(true);
+                }
+            });
+            if (added.get()) {
+                // Only extend the chain in memory once the batch committed, so a rolled back block is never kept
+                largestChain.addBlock(block);
                 return new AddBlockResult(block, AddResultType.ADDED, "Added successfully");
             }
 
-            boolean foundPlaceForBlock = findPlaceForBlock(block);
-            if (foundPlaceForBlock) //Was put on a fork. We need to make sure that the dominant smiloChain is represented by the Ledger.
-            {
-                //Might be stuff here in the future...
-            } else {
-                //Didn't fit on any existing smiloChain. Probably really old.
-                LOGGER.error("Block didn't fit on any existing smiloChain. Probably really old.");
-                return new AddBlockResult(block, AddResultType.FORK_ERROR, "Block didn't fit!");
-            }
+            return findPlaceForBlock(block);
         } catch (Exception e) {
             LOGGER.error("Exception when trying to addBlock", e);
             return new AddBlockResult(block, AddResultType.UNKNOWN, e.getMessage());
         }
-
-        return new AddBlockResult(block, AddResultType.UNKNOWN, "Something went wrong adding the block!");
     }
 
     /**
-     * Attempts to find a chain to place a block in
+     * Attempts to place a block on a fork. The block is stored in the block tree when its previous block is known, so
+     * the fork is kept next to the chain it forks from. When the fork ends up with more work than the canonical chain,
+     * the canonical chain switches to the fork.
      *
      * @param block Block to add
-     * @return returns true if the block fits on one of the chains, false if not
+     * @return FORKED when the block was stored on a fork, REORGANIZED when the canonical chain switched to its fork, or
+     * FORK_ERROR when the block doesn't fit on any chain
      */
-    private boolean findPlaceForBlock(Block block) {
-        for (int i = 0; i < blockStore.getAll().size(); i++) {
-            SmiloChain tempChain = blockStore.getAll().get(i); //No working with this ArrayList indirectly; we've got a lot of work to do!
-            // TODO: 11?
-            for (int j = tempChain.getLength() - 11; j < tempChain.getLength(); j++) {
-                if (j < 0) //Pathetically-early network forks handled
-                {
-                    j = 0; //Negative blocks aren't one of the features of 2.0
-                }
-                if (tempChain.getBlockByIndex(j).getBlockHash().equals(block.getPreviousBlockHash())) //Found where it forked!
-                {
-                    // TODO: newChain is never saved! Is this correct?
-                    ArrayList<Block> newChain = new ArrayList<>();
-                    //Add all of the old chain until we get to the fork
-                    for (int k = 0; k <= j; k++) {
-                        newChain.add(tempChain.getBlockByIndex(k));
-                    }
-                    //Add the fork block, which is an alternative to tempChain.get(j + 1)
-                    newChain.add(block);
-                    return true;
-                    //As block didn't fit onto the end of another chain, we don't need to check for the new fork being longer.
-                }
+    private AddBlockResult findPlaceForBlock(Block block) {
+        BlockTree.Node node = blockStore.writeForkBlock(block);
+        if (node == null) {
+            //Didn't fit on any existing smiloChain. Probably really old.
+            LOGGER.error("Block didn't fit on any existing smiloChain. Probably really old.");
+            return new AddBlockResult(block, AddResultType.FORK_ERROR, "Block didn't fit!");
+        }
+        Block lastBlock = blockStore.getLastBlock();
+        BlockTree.Node canonicalTip = lastBlock == null ? null : blockStore.getTree().getNode(lastBlock.getHash());
+        if (canonicalTip != null && node.getWork() > canonicalTip.getWork()) {
+            LOGGER.info("Fork ending in block " + block.getBlockNum() + " with hash " + block.getBlockHash() + " has more work than the canonical chain");
+            ChainReorganizer.Reorganization reorganization = chainReorganizer.reorganize(node.getBlockHash());
+            if (reorganization == null) {
+                return new AddBlockResult(block, AddResultType.FORK_ERROR, "Fork doesn't connect to the canonical chain");
             }
+            updatePendingPool(reorganization);
+            return new AddBlockResult(block, AddResultType.REORGANIZED, "Switched to the fork of the block");
         }
-        return false;
+        return new AddBlockResult(block, AddResultType.FORKED, "Added to a fork");
     }
 
-    // TODO: refactor
+    /**
+     * Updates the pending pool after the canonical chain switched to a fork. The transactions of the applied blocks are
+     * no longer pending, the transactions of the undone blocks are pending again unless the fork holds them as well.
+     *
+     * @param reorganization blocks undone and applied by the switch
+     */
+    private void updatePendingPool(ChainReorganizer.Reorganization reorganization) {
+        Set<Transaction> applied = new HashSet<>();
+        for (Block block : reorganization.getApplied()) {
+            pendingBlockDataPool.removeTransactionsInBlock(block);
+            applied.addAll(block.getTransactions());
+        }
+        // Oldest block first, so transactions are validated against the ledger in the order they were made
+        List<Block> undone = new ArrayList<>(reorganization.getUndone());
+        Collections.reverse(undone);
+        for (Block block : undone) {
+            block.getTransactions().stream()
+                    .filter(transaction -> !transaction.isEmpty() && !applied.contains(transaction))
+                    .forEach(pendingBlockDataPool::addBlockData);
+        }
+    }
 
     /**
-     * Adds a block to a chain
+     * Applies a block that follows the end of the canonical chain to the ledger. The chain itself is only extended by
+     * the caller once the batch applying the block committed.
      *
-     * @param chain                     chain to add the block to
+     * @param chain                     the largest chain on this node
      * @param block                     block to add
-     * @param largestChainLastBlockHash last blockhash of the largest chain
-     * @param largestChain              the largest chain on this node
-     * @return true if the block was added, false if an error occurred
+     * @return true if the block was applied, false if it doesn't follow the last block of the chain
      */
-    private boolean addBlockToChain(SmiloChain chain, Block block, final String largestChainLastBlockHash, SmiloChain largestChain) {
+    private boolean addBlockToChain(SmiloChain chain, Block block) {
         //Block numbering starts at 0
         LOGGER.debug("Previous block hash according to chain: " + chain.getLastBlock().getBlockHash());
         LOGGER.debug("Previous block hash according to added block: " + block.getPreviousBlockHash());
         LOGGER.debug("Selected chain size: " + chain.getLength());
         LOGGER.debug("Should be equal to block num: " + block.getBlockNum());
         if (block.getPreviousBlockHash().equals(chain.getLastBlock().getBlockHash()) && chain.getLastBlock().getBlockNum() + 1 == block.getBlockNum()) {
-            chain.addBlock(block);
-            //We might have created a longer fork! We need to check.
-            if (chain.getLength() > largestChain.getLength()) //We just created a longer chain--but it might be the original that we added to!
-            {
-                if (!chain.getBlockByIndex(chain.getLength() - 2).getBlockHash().equals(largestChainLastBlockHash)) //Then we didn't stack onto the correct chain... We need to reverse some blocks in the ledger
-                {
-                    //Future implementations will be MUCH more efficient--they'll reverse down the fork and ride it back up.
-                    //However, during the developmental time squeeze that is two hours before 0.0.1a1 launch when I realized the logic I had here wasn't good, this seemed like a great idea.
-                    for (int i = largestChain.getLength() - 1; i > 0; i--) {
-                        List<Transaction> transactionsToReverse = largestChain.getBlockByIndex(i).getTransactions();
-                        for (int k = 0; k < transactionsToReverse.size(); k++) {
-                            ledgerManager.reverseTransaction(transactionsToReverse.get(k));
-                        }
-                        // ledgerManager.adjustAddressBalance(largestChain.get(j).redeemAddress, -100); // Todo: Reverse mining income...
-                        ledgerManager.adjustAddressSignatureCount(largestChain.getBlockByIndex(i).getRedeemAddress(), -1);
-                    }
-                    //The ledger is completely empty, basically. Good job. Efficiency at its finest. Will be fixed during upcoming refactoring.
-                    for (int i = 0; i < chain.getLength(); i++) {
-                        addTransactions(block);
-                        ledgerManager.adjustAddressSignatureCount(chain.getBlockByIndex(i).getRedeemAddress(), 1);
-                    }
-                } else //Great, we added to the longest chain!
-                {
-                    //We need to execute all the transactions...
-                    //if (ledgerManager.getLastBlockNum() < block.getBlockNum()) //If the ledger was read in from a file, then we don't add the transactions again!
-                    {
-                        addTransactions(block);
-                        //ledgerManager.adjustAddressBalance(block.redeemAddress, 100); // Todo: Pay mining fee
-                        ledgerManager.adjustAddressSignatureCount(block.getRedeemAddress(), 1);
-                    }
-                }
-            }
-            addTransactions(block);
+            chainReorganizer.applyBlock(block);
             return true;
         } else {
-            LOGGER.error("Something went wrong with stacking...");
-            LOGGER.error("Last block hash: " + chain.getLastBlock().getBlockHash());
-            LOGGER.error("Previous block hash: " + block.getPreviousBlockHash());
+            LOGGER.debug("Block " + block.getBlockNum() + " doesn't follow the last block of the chain " + chain.getLastBlock().getBlockHash());
             return false;
         }
     }
@@ -256,47 +255,18 @@ public class SmiloChainService {
      * @param block block to add
      */
     public void createInitialChain(Block block) {
-        SmiloChain initial = new SmiloChain();
+        SmiloChain initial = blockStore.createChain();
         blockStore.addSmiloChain(initial);
         initial.addBlock(block);
 
-        if (blockStore.getLastBlock() == null) {
-            addTransactions(block);
-        }
-
-        ledgerManager.adjustAddressSignatureCount(block.getRedeemAddress(), 1);
-        blockStore.writeBlockToFile(block);
-    }
-
-    /**
-     * Adds all transactions in a block to the ledgerManager
-     *
-     * @param block block to take the transactions from
-     */
-    private void addTransactions(Block block) {
-        //We can't directly assign transactionsToApply to block.transactions as we are going to edit it, and we don't want to delete transactions from the actual block.
-        List<Transaction> transactionsToApply = new ArrayList<>(block.getTransactions());
-
-        int loopCount = 0;
-        int transactionsApplied = 0;
-        //Yippee let's add our first chunk of transactions if we need to!
-        while (transactionsToApply.size() > transactionsApplied && !transactionsToApply.get(0).isEmpty()) {
-            loopCount++;
-
-            // Todo! Fix this, i made a quick fix.
-            for (int k = 0; k < transactionsToApply.size(); k++) {
-                if (ledgerManager.executeTransaction(transactionsToApply.get(k))) {
-                    //Executed correctly
-                    transactionsToApply.remove(k);
-                    //Compensate for changed ArrayList size
-                    k--;
-                }
-            }
-            if (loopCount > MAX_LOOP_COUNT) {
-                LOGGER.error("Infinite block detected! Hash: " + block.getBlockHash() + " and height: " + block.getBlockNum() + ", TransactionsToApply size " + transactionsToApply.size());
-                System.exit(-1); // Todo: make this clean and stable
+        store.batch(() -> {
+            if (blockStore.getLastBlock() == null) {
+                chainReorganizer.applyBlock(block);
             }
-        }
+
+            ledgerManager.adjustAddressSignatureCount(block.getRedeemAddress(), 1);
+            blockStore.writeBlockToFile(block);
+        });
     }
 
     // TODO: refactor to object instead of string
@@ -338,8 +308,12 @@ public class SmiloChainService {
             }
             //Block has not been previously received, so it will be added to the smiloChain (hopefully)
             LOGGER.info("addBlockToSmiloChain, new block from network!" + " Block: " + block.getPrintableString());
-            allBroadcastBlockHashes.add(block.getBlockHash());
+            seenBlocks.add(block.getHash());
             AddBlockResult result = addBlock(block);
+            if (result.getType() != AddResultType.ADDED && block.getHash() != null && !isStoredOrQueued(block.getHash())) {
+                // Rejected blocks are never stored, so they are remembered exactly like declined blocks
+                seenBlocks.pin(block.getHash());
+            }
             networkState.updateCatchupMode();
             boolean isAdded = result.getType().isSuccess() && !networkState.getCatchupMode();
             if (isAdded) {
@@ -352,10 +326,14 @@ public class SmiloChainService {
                 //Remove all transactions from the pendingTransactionPool that appear in the block
                 pendingBlockDataPool.removeTransactionsInBlock(block);
                 chainQueue.remove(block);
-
-                // Check Queue
+            } else if (result.getType() == AddResultType.REORGANIZED) {
+                // The pending pool was updated for every block of the switch
+                chainQueue.remove(block);
+            }
+            if (result.getType() == AddResultType.ADDED || (block.getHash() != null && blockStore.getTree().contains(block.getHash()))) {
+                // Check Queue, a block on a fork can be the parent of queued blocks as well
                 LOGGER.info("Processing queue");
-                tryBlockQueue();
+                connectOrphans(block);
             }
 
             LOGGER.info("Block add result: " + result.getType() + " " + result.getMessage());
@@ -370,42 +348,56 @@ public class SmiloChainService {
      * @return true if it has been seen before, false if not
      */
     public boolean hasSeenBefore(String blockHash) {
-        return allBroadcastBlockHashes.stream().anyMatch(p -> p.equals(blockHash));
+        Hash32 hash = Hash32.tryParse(blockHash);
+        return hash != null && seenBlocks.contains(hash);
+    }
+
+    /**
+     * @return the rate at which blocks that were never seen are checked against the stored blocks
+     */
+    public double getSeenBlocksFalsePositiveRate() {
+        return seenBlocks.getExpectedFalsePositiveRate();
+    }
+
+    private boolean isStoredOrQueued(Hash32 hash) {
+        return blockStore.getTree().contains(hash) || orphanPool.contains(hash);
     }
 
     /**
      * Add the block to the list of seen before blocks.
      * This is mostly be used by declined block to prevent consensus to start again.
+     * Declined blocks are never stored, so they are remembered exactly until their generation of seen blocks expires.
      * @param blockHash
      */
     public void addBlockhashToSeenBeforeList(String blockHash) {
-        allBroadcastBlockHashes.add(blockHash);
+        Hash32 hash = Hash32.tryParse(blockHash);
+        if (hash != null) {
+            seenBlocks.pin(hash);
+        }
     }
 
     /**
-     * Try to add blocks in the queue to the chain
+     * Try to add the queued blocks following a block that was just stored, and the queued blocks following those
+     *
+     * @param parent block that was just stored
      */
-    private void tryBlockQueue() {
-        boolean addedABlock = false;
-        //Some blocks in the queue may be attempted before other dependency blocks, so while we are able to add blocks, we will continue to add them.
-        do {
-            addedABlock = false;
-            for (int i = 0; i < blockQueue.size(); i++) {
-                Block block = blockQueue.get(i);
+    private void connectOrphans(Block parent) {
+        Deque<Block> connected = new ArrayDeque<>();
+        connected.add(parent);
+        while (!connected.isEmpty()) {
+            for (Block block : orphanPool.removeChildren(connected.poll().getHash())) {
                 AddBlockResult result = addBlock(block);
 
                 if (result.getType() == AddResultType.ADDED) {
                     //Remove all transactions from the pendingTransactionPool that appear in the block
                     pendingBlockDataPool.removeTransactionsInBlock(block);
-                    addedABlock = true;
                 }
-                if (result.getType() != AddResultType.QUEUED) {
-                    // if it was not queued, it has either been added to the chain or it was invalid.
-                    blockQueue.remove(i);
-                    i--; //Compensate for changing ArrayList size, don't want to skip an element!
+                // Blocks that were queued again or were invalid are not stored, so their children stay queued
+                if (blockStore.getTree().contains(block.getHash())) {
+                    connected.add(block);
                 }
             }
-        } while (addedABlock);
+        }
     }
 
     /**
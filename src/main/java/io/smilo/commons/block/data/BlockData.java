@@ -17,6 +17,7 @@
 package io.smilo.commons.block.data;
 
 
+import io.smilo.commons.Hash32;
 import io.smilo.commons.block.Content;
 
 import java.math.BigInteger;
@@ -31,6 +32,8 @@ public abstract class BlockData extends Content {
     private Optional<String> signatureData = Optional.of("");
     private long signatureIndex;
     private Optional<String> dataHash = Optional.of("");
+    // The dataHash in raw form, parsed when first used
+    private Hash32 hash;
 
     protected BlockData() {}
 
@@ -68,6 +71,16 @@ public abstract class BlockData extends Content {
         return dataHash.orElse("");
     }
 
+    /**
+     * @return the dataHash in raw form, or null when it is not a valid hash
+     */
+    public Hash32 getHash() {
+        if (hash == null) {
+            hash = Hash32.tryParse(getDataHash());
+        }
+        return hash;
+    }
+
     public void setInputAddress(String inputAddress) {
         this.inputAddress = inputAddress;
     }
@@ -90,6 +103,7 @@ public abstract class BlockData extends Content {
 
     public void setDataHash(String dataHash) {
         this.dataHash = Optional.of(dataHash);
+        this.hash = null;
     }
 
     @Override
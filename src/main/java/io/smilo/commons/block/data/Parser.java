@@ -16,10 +16,22 @@
 
 package io.smilo.commons.block.data;
 
+import java.nio.ByteBuffer;
+
 public interface Parser<T> {
 
     T deserialize(byte[] data);
 
+    /**
+     * Deserializes the remaining bytes of the buffer. Parsers that can decode straight from a buffer should override
+     * this to avoid the copy into a byte array.
+     */
+    default T deserialize(ByteBuffer data) {
+        byte[] raw = new byte[data.remaining()];
+        data.get(raw);
+        return deserialize(raw);
+    }
+
     byte[] serialize(T data);
 
     byte[] serializeWithoutSignature(T data);
@@ -19,6 +19,7 @@ package io.smilo.commons.block.data.transaction;
 import io.smilo.commons.HashUtility;
 import io.smilo.commons.block.data.Parser;
 import io.smilo.commons.block.data.Validator;
+import io.smilo.commons.db.StoreSnapshot;
 import io.smilo.commons.ledger.AddressUtility;
 import io.smilo.commons.ledger.LedgerManager;
 import io.smilo.commons.pendingpool.StringBigIntegerPair;
@@ -36,6 +37,7 @@ import java.io.IOException;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Function;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
@@ -96,6 +98,24 @@ public class TransactionParser implements Parser<Transaction>, Validator<Transac
      * @return true if valid, false if invalid
      */
     public boolean isValid(Transaction transaction, boolean allowMultipleSpendingTransactions) {
+        // A single balance is read, which is consistent by itself, so no snapshot is needed
+        return isValid(ledgerManager::getAddressBalance, transaction, allowMultipleSpendingTransactions);
+    }
+
+    /**
+     * Checks if the transaction is valid, like {@link #isValid(Transaction, boolean)}, against the balances in a snapshot
+     * of the ledger. Validating several transactions against one snapshot makes them all see the same balances.
+     *
+     * @param snapshot snapshot of the ledger to check the balance against
+     * @param transaction transaction to check
+     * @param allowMultipleSpendingTransactions if true, the method will not check if there are spending transactions pending.
+     * @return true if valid, false if invalid
+     */
+    public boolean isValid(StoreSnapshot snapshot, Transaction transaction, boolean allowMultipleSpendingTransactions) {
+        return isValid(address -> ledgerManager.getAddressBalance(snapshot, address), transaction, allowMultipleSpendingTransactions);
+    }
+
+    private boolean isValid(Function<String, BigInteger> balances, Transaction transaction, boolean allowMultipleSpendingTransactions) {
         boolean isValid = true;
         try {
             if(transaction.getDataHash().equals("")){
@@ -156,7 +176,7 @@ public class TransactionParser implements Parser<Transaction>, Validator<Transac
                     break;
                 }
             }
-            BigInteger previousBalance = ledgerManager.getAddressBalance(transaction.getInputAddress());
+            BigInteger previousBalance = balances.apply(transaction.getInputAddress());
             // TODO: Check if pending transactions on account balance are properly counted on LedgerStore.
             if (previousBalance.compareTo(transaction.getInputAmount()) < 0) {
                 LOGGER.info("Account " + transaction.getInputAddress() + " tried to spend " + transaction.getInputAmount() + " but only had " + (previousBalance.add(outstandingOutgoingAmount)) + " coins.");
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.smilo.commons.db;
+
+/**
+ * Bounds of the cache of one collection in a {@link CachingStore}. The least recently used entries are evicted once
+ * either bound is exceeded.
+ */
+public class CachePolicy {
+
+    private final int maxEntries;
+    private final long maxBytes;
+
+    /**
+     * @param maxEntries maximum amount of entries to cache
+     * @param maxBytes maximum size of the cached keys and values together
+     */
+    public CachePolicy(int maxEntries, long maxBytes) {
+        if (maxEntries <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Cache bounds must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.smilo.commons.db;
+
+/**
+ * Snapshot of the counters of one collection cache in a {@link CachingStore}.
+ */
+public class CacheStatistics {
+
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final int entries;
+    private final long bytes;
+
+    public CacheStatistics(long hits, long misses, long evictions, int entries, long bytes) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.entries = entries;
+        this.bytes = bytes;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return amount of entries evicted to stay within the bounds of the cache
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return amount of entries currently cached
+     */
+    public int getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return size of the cached keys and values together
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return fraction of lookups served from the cache, between 0 and 1
+     */
+    public double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return "hits: " + hits + ", misses: " + misses + ", evictions: " + evictions + ", entries: " + entries + ", bytes: " + bytes;
+    }
+}
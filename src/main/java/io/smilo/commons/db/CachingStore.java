@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.smilo.commons.db;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Store decorator keeping the most recently read values of selected collections in memory, so hot keys like the
+ * default account, the latest block and the peers don't cost a database transaction on every lookup.
+ * <p>
+ * Values are cached as the stored bytes rather than as decoded entities, because the entities are mutable and callers
+ * change them before writing them back. Every write invalidates the key, both when it is issued and again when its
+ * batch ends, and a read only fills the cache when nothing in the collection was invalidated while it ran. Writes that
+ * might still be rolled back are never cached, and reads inside a batch skip the cache for keys the batch has written.
+ */
+public class CachingStore implements Store {
+
+    private final Store delegate;
+    private final Map<String, CollectionCache> caches = new HashMap<>();
+    // Keys written by the batch the current thread is running, if any
+    private final ThreadLocal<Batch> currentBatch = new ThreadLocal<>();
+
+    /**
+     * @param delegate store holding the data
+     * @param policies cache bounds per collection, collections without a policy are not cached
+     */
+    public CachingStore(Store delegate, Map<String, CachePolicy> policies) {
+        this.delegate = delegate;
+        policies.forEach((collection, policy) -> caches.put(collection, new CollectionCache(policy)));
+    }
+
+    /**
+     * @return the cache counters of every cached collection
+     */
+    public Map<String, CacheStatistics> getStatistics() {
+        Map<String, CacheStatistics> statistics = new TreeMap<>();
+        caches.forEach((collection, cache) -> statistics.put(collection, cache.statistics()));
+        return statistics;
+    }
+
+    /**
+     * @return the store holding the data
+     */
+    public Store getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void put(String collection, byte[] key, byte[] value) {
+        write(collection, key, () -> delegate.put(collection, key, value));
+    }
+
+    @Override
+    public void append(String collection, byte[] key, byte[] value) {
+        write(collection, key, () -> delegate.append(collection, key, value));
+    }
+
+    @Override
+    public byte[] get(String collection, byte[] key) {
+        CollectionCache cache = caches.get(collection);
+        ByteBuffer cacheKey = ByteBuffer.wrap(key);
+        if (cache == null || isWrittenByCurrentBatch(collection, cacheKey)) {
+            return delegate.get(collection, key);
+        }
+
+        byte[] value = cache.get(cacheKey);
+        if (value != null) {
+            // Callers are free to change the array they get
+            return value.clone();
+        }
+        long version = cache.version();
+        value = delegate.get(collection, key);
+        if (value != null && currentBatch.get() == null) {
+            cache.put(ByteBuffer.wrap(key.clone()), value.clone(), version);
+        }
+        return value;
+    }
+
+    @Override
+    public <T> T read(String collection, byte[] key, Function<ByteBuffer, T> reader) {
+        CollectionCache cache = caches.get(collection);
+        ByteBuffer cacheKey = ByteBuffer.wrap(key);
+        if (cache == null || isWrittenByCurrentBatch(collection, cacheKey)) {
+            return delegate.read(collection, key, reader);
+        }
+
+        byte[] value = cache.get(cacheKey);
+        if (value != null) {
+            return reader.apply(ByteBuffer.wrap(value).asReadOnlyBuffer());
+        }
+
+        // Decode through the delegate, so stores below the cache see the read and its decoding as usual
+        long version = cache.version();
+        byte[][] stored = new byte[1][];
+        T result = delegate.read(collection, key, buffer -> {
+            stored[0] = new byte[buffer.remaining()];
+            buffer.duplicate().get(stored[0]);
+            return reader.apply(buffer);
+        });
+        if (stored[0] != null && currentBatch.get() == null) {
+            cache.put(ByteBuffer.wrap(key.clone()), stored[0], version);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean remove(String collection, byte[] key) {
+        boolean[] removed = new boolean[1];
+        write(collection, key, () -> removed[0] = delegate.remove(collection, key));
+        return removed[0];
+    }
+
+    @Override
+    public Stream<Map.Entry<byte[], byte[]>> scan(String collection, byte[] fromKey, byte[] toKey, boolean isDescending) {
+        return delegate.scan(collection, fromKey, toKey, isDescending);
+    }
+
+    @Override
+    public Map.Entry<byte[], byte[]> last(String collection) {
+        return delegate.last(collection);
+    }
+
+    @Override
+    public void initializeCollection(String collectionName) {
+        delegate.initializeCollection(collectionName);
+    }
+
+    @Override
+    public void clear(String collectionName) {
+        CollectionCache cache = caches.get(collectionName);
+        Batch batch = currentBatch.get();
+        if (cache == null) {
+            delegate.clear(collectionName);
+        } else if (batch != null) {
+            batch.cleared.add(collectionName);
+            cache.invalidateAll();
+            delegate.clear(collectionName);
+        } else {
+            cache.invalidateAll();
+            try {
+                delegate.clear(collectionName);
+            } finally {
+                cache.invalidateAll();
+            }
+        }
+    }
+
+    @Override
+    public Long getEntries(String collectionName) {
+        return delegate.getEntries(collectionName);
+    }
+
+    @Override
+    public void batch(Runnable work) {
+        if (currentBatch.get() != null) {
+            // Join the batch that is already running on this thread
+            work.run();
+            return;
+        }
+
+        Batch batch = new Batch();
+        currentBatch.set(batch);
+        try {
+            delegate.batch(work);
+        } finally {
+            currentBatch.remove();
+            // Other threads may have cached the old values while the batch ran, whether it committed or not
+            batch.invalidate();
+        }
+    }
+
+    @Override
+    public StoreBatch beginBatch() {
+        if (currentBatch.get() != null) {
+            return delegate.beginBatch();
+        }
+        StoreBatch delegateBatch = delegate.beginBatch();
+        Batch batch = new Batch();
+        currentBatch.set(batch);
+        return new StoreBatch() {
+            private boolean closed;
+
+            @Override
+            public void commit() {
+                delegateBatch.commit();
+            }
+
+            @Override
+            public void close() {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                try {
+                    delegateBatch.close();
+                } finally {
+                    currentBatch.remove();
+                    batch.invalidate();
+                }
+            }
+        };
+    }
+
+    @Override
+    public void sync() {
+        delegate.sync();
+    }
+
+    @Override
+    public StoreSnapshot snapshot() {
+        // The cache may hold values written after the snapshot was taken, so snapshots always read from the delegate
+        return delegate.snapshot();
+    }
+
+    /**
+     * Applies a write of a key. Inside a batch the write is recorded, so the key is dropped again when the batch ends.
+     * A single write commits by itself, so it drops the key right before and after it instead of starting a batch,
+     * which would take the writers of every store the delegate combines.
+     */
+    private void write(String collection, byte[] key, Runnable write) {
+        CollectionCache cache = caches.get(collection);
+        if (cache == null) {
+            write.run();
+        } else if (currentBatch.get() != null) {
+            touch(collection, key);
+            write.run();
+        } else {
+            ByteBuffer cacheKey = ByteBuffer.wrap(key.clone());
+            cache.invalidate(cacheKey);
+            try {
+                write.run();
+            } finally {
+                cache.invalidate(cacheKey);
+            }
+        }
+    }
+
+    /**
+     * Records a write of the current batch and drops the key from the cache.
+     */
+    private void touch(String collection, byte[] key) {
+        CollectionCache cache = caches.get(collection);
+        if (cache != null) {
+            ByteBuffer cacheKey = ByteBuffer.wrap(key.clone());
+            currentBatch.get().written.computeIfAbsent(collection, c -> new HashSet<>()).add(cacheKey);
+            cache.invalidate(cacheKey);
+        }
+    }
+
+    private boolean isWrittenByCurrentBatch(String collection, ByteBuffer key) {
+        Batch batch = currentBatch.get();
+        if (batch == null) {
+            return false;
+        }
+        Set<ByteBuffer> written = batch.written.get(collection);
+        return batch.cleared.contains(collection) || (written != null && written.contains(key));
+    }
+
+    /**
+     * Keys written and collections cleared by a batch.
+     */
+    private final class Batch {
+        private final Map<String, Set<ByteBuffer>> written = new HashMap<>();
+        private final Set<String> cleared = new HashSet<>();
+
+        private void invalidate() {
+            written.forEach((collection, keys) -> keys.forEach(caches.get(collection)::invalidate));
+            cleared.forEach(collection -> caches.get(collection).invalidateAll());
+        }
+    }
+
+    /**
+     * Least recently used cache of one collection.
+     */
+    private static final class CollectionCache {
+        private final CachePolicy policy;
+        private final LinkedHashMap<ByteBuffer, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long bytes;
+        private long hits;
+        private long misses;
+        private long evictions;
+        // Increased on every invalidation, a read only fills the cache when the version didn't change while it ran
+        private long version;
+
+        private CollectionCache(CachePolicy policy) {
+            this.policy = policy;
+        }
+
+        private synchronized byte[] get(ByteBuffer key) {
+            byte[] value = entries.get(key);
+            if (value == null) {
+                misses++;
+            } else {
+                hits++;
+            }
+            return value;
+        }
+
+        private synchronized long version() {
+            return version;
+        }
+
+        private synchronized void put(ByteBuffer key, byte[] value, long readVersion) {
+            long size = size(key, value);
+            if (readVersion != version || size > policy.getMaxBytes()) {
+                return;
+            }
+            byte[] previous = entries.put(key, value);
+            if (previous != null) {
+                bytes -= size(key, previous);
+            }
+            bytes += size;
+
+            Iterator<Map.Entry<ByteBuffer, byte[]>> eldest = entries.entrySet().iterator();
+            while (entries.size() > policy.getMaxEntries() || bytes > policy.getMaxBytes()) {
+                Map.Entry<ByteBuffer, byte[]> entry = eldest.next();
+                bytes -= size(entry.getKey(), entry.getValue());
+                eldest.remove();
+                evictions++;
+            }
+        }
+
+        private synchronized void invalidate(ByteBuffer key) {
+            version++;
+            byte[] previous = entries.remove(key);
+            if (previous != null) {
+                bytes -= size(key, previous);
+            }
+        }
+
+        private synchronized void invalidateAll() {
+            version++;
+            entries.clear();
+            bytes = 0;
+        }
+
+        private synchronized CacheStatistics statistics() {
+            return new CacheStatistics(hits, misses, evictions, entries.size(), bytes);
+        }
+
+        private static long size(ByteBuffer key, byte[] value) {
+            return key.capacity() + value.length;
+        }
+    }
+}
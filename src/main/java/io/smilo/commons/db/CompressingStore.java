@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.smilo.commons.db;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Store decorator encoding the values of selected collections, like compressing the large and repetitive blocks, while
+ * leaving latency sensitive collections like the accounts as they are.
+ * <p>
+ * An encoded value starts with a marker byte followed by the id of its codec. The marker is 0xC1, which MessagePack
+ * never uses and which can't start a UTF-8 string or a serialized Java object, so values written before a collection
+ * was encoded are recognised and read as they are. Values that happen to start with the marker anyway are stored
+ * behind the marker and codec id 0. Every value is decoded by the codec it names, so changing the configuration
+ * doesn't require rewriting the data.
+ */
+public class CompressingStore implements Store {
+
+    private static final byte MARKER = (byte) 0xC1;
+    private static final byte RAW = 0;
+
+    private final Store delegate;
+    private final Map<String, ValueCodec> codecs;
+    private final Map<Byte, ValueCodec> codecsById = new HashMap<>();
+
+    /**
+     * @param delegate store holding the data
+     * @param codecs codec per collection, collections without a codec are stored as they are
+     */
+    public CompressingStore(Store delegate, Map<String, ValueCodec> codecs) {
+        this.delegate = delegate;
+        this.codecs = new HashMap<>(codecs);
+        // Deflate is always known, so compressed values stay readable when the configuration no longer mentions it
+        ValueCodec deflate = new DeflateCodec();
+        codecsById.put(deflate.getId(), deflate);
+        codecs.values().forEach(codec -> {
+            if (codec.getId() == RAW) {
+                throw new IllegalArgumentException("Codec id " + RAW + " is reserved for values stored as they are");
+            }
+            codecsById.put(codec.getId(), codec);
+        });
+    }
+
+    /**
+     * @return the store holding the data
+     */
+    public Store getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void put(String collection, byte[] key, byte[] value) {
+        delegate.put(collection, key, encode(collection, value));
+    }
+
+    @Override
+    public void append(String collection, byte[] key, byte[] value) {
+        delegate.append(collection, key, encode(collection, value));
+    }
+
+    @Override
+    public byte[] get(String collection, byte[] key) {
+        return decode(delegate.get(collection, key));
+    }
+
+    @Override
+    public <T> T read(String collection, byte[] key, Function<ByteBuffer, T> reader) {
+        return delegate.read(collection, key, buffer -> reader.apply(decode(buffer)));
+    }
+
+    @Override
+    public boolean remove(String collection, byte[] key) {
+        return delegate.remove(collection, key);
+    }
+
+    @Override
+    public Stream<Map.Entry<byte[], byte[]>> scan(String collection, byte[] fromKey, byte[] toKey, boolean isDescending) {
+        return delegate.scan(collection, fromKey, toKey, isDescending).map(this::decode);
+    }
+
+    @Override
+    public Map.Entry<byte[], byte[]> last(String collection) {
+        return decode(delegate.last(collection));
+    }
+
+    @Override
+    public void initializeCollection(String collectionName) {
+        delegate.initializeCollection(collectionName);
+    }
+
+    @Override
+    public void clear(String collectionName) {
+        delegate.clear(collectionName);
+    }
+
+    @Override
+    public Long getEntries(String collectionName) {
+        return delegate.getEntries(collectionName);
+    }
+
+    @Override
+    public void batch(Runnable work) {
+        delegate.batch(work);
+    }
+
+    @Override
+    public StoreBatch beginBatch() {
+        return delegate.beginBatch();
+    }
+
+    @Override
+    public void sync() {
+        delegate.sync();
+    }
+
+    @Override
+    public StoreSnapshot snapshot() {
+        StoreSnapshot snapshot = delegate.snapshot();
+        return new StoreSnapshot() {
+            @Override
+            public byte[] get(String collection, byte[] key) {
+                return decode(snapshot.get(collection, key));
+            }
+
+            @Override
+            public <T> T read(String collection, byte[] key, Function<ByteBuffer, T> reader) {
+                return snapshot.read(collection, key, buffer -> reader.apply(decode(buffer)));
+            }
+
+            @Override
+            public Stream<Map.Entry<byte[], byte[]>> scan(String collection, byte[] fromKey, byte[] toKey, boolean isDescending) {
+                return snapshot.scan(collection, fromKey, toKey, isDescending).map(CompressingStore.this::decode);
+            }
+
+            @Override
+            public Map.Entry<byte[], byte[]> last(String collection) {
+                return decode(snapshot.last(collection));
+            }
+
+            @Override
+            public Long getEntries(String collectionName) {
+                return snapshot.getEntries(collectionName);
+            }
+
+            @Override
+            public void close() {
+                snapshot.close();
+            }
+        };
+    }
+
+    private byte[] encode(String collection, byte[] value) {
+        ValueCodec codec = codecs.get(collection);
+        if (codec != null) {
+            byte[] encoded = codec.encode(value);
+            // Values that don't get smaller are cheaper to keep as they are
+            if (encoded.length + 2 < value.length) {
+                return mark(codec.getId(), encoded);
+            }
+        }
+        return value.length > 0 && value[0] == MARKER ? mark(RAW, value) : value;
+    }
+
+    private static byte[] mark(byte codecId, byte[] encoded) {
+        byte[] marked = new byte[encoded.length + 2];
+        marked[0] = MARKER;
+        marked[1] = codecId;
+        System.arraycopy(encoded, 0, marked, 2, encoded.length);
+        return marked;
+    }
+
+    private byte[] decode(byte[] stored) {
+        if (stored == null || stored.length < 2 || stored[0] != MARKER) {
+            return stored;
+        }
+        return toArray(decode(ByteBuffer.wrap(stored)));
+    }
+
+    private Map.Entry<byte[], byte[]> decode(Map.Entry<byte[], byte[]> entry) {
+        if (entry == null) {
+            return null;
+        }
+        return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), decode(entry.getValue()));
+    }
+
+    /**
+     * Decodes a stored value into a read-only buffer. Values that aren't encoded are handed out as they are, so reading
+     * them stays free of copies.
+     */
+    private ByteBuffer decode(ByteBuffer stored) {
+        if (stored.remaining() < 2 || stored.get(stored.position()) != MARKER) {
+            return stored;
+        }
+        ByteBuffer encoded = stored.duplicate();
+        encoded.position(encoded.position() + 1);
+        byte codecId = encoded.get();
+        if (codecId == RAW) {
+            return encoded.slice().asReadOnlyBuffer();
+        }
+        ValueCodec codec = codecsById.get(codecId);
+        if (codec == null) {
+            throw new IllegalStateException("Value is encoded by unknown codec " + codecId);
+        }
+        return ByteBuffer.wrap(codec.decode(encoded)).asReadOnlyBuffer();
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.smilo.commons.db;
+
+import org.lmdbjava.Cursor;
+import org.lmdbjava.GetOp;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+import static java.nio.ByteBuffer.allocateDirect;
+
+/**
+ * Walks an LMDB cursor over a key range, copying every entry out of the memory map as it goes. Splitting hands out
+ * batches of already read entries, so only one thread at a time moves the cursor.
+ */
+class CursorSpliterator extends Spliterators.AbstractSpliterator<Map.Entry<byte[], byte[]>> {
+
+    private final Cursor<ByteBuffer> cursor;
+    private final byte[] fromKey;
+    private final byte[] toKey;
+    private final boolean isDescending;
+    private final boolean splittable;
+    private boolean started;
+    private boolean finished;
+
+    /**
+     * @param cursor cursor to walk, owned by the caller
+     * @param fromKey lowest key to include, or null to start at the first entry
+     * @param toKey key to stop before, or null to run to the last entry
+     * @param isDescending whether to walk from toKey down to fromKey
+     * @param splittable false when the cursor belongs to a write transaction, which must stay on its own thread
+     */
+    CursorSpliterator(Cursor<ByteBuffer> cursor, byte[] fromKey, byte[] toKey, boolean isDescending, boolean splittable) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL);
+        this.cursor = cursor;
+        this.fromKey = fromKey == null || fromKey.length == 0 ? null : fromKey;
+        this.toKey = toKey == null || toKey.length == 0 ? null : toKey;
+        this.isDescending = isDescending;
+        this.splittable = splittable;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Map.Entry<byte[], byte[]>> action) {
+        if (finished) {
+            return false;
+        }
+        boolean found = started ? (isDescending ? cursor.prev() : cursor.next()) : position();
+        started = true;
+        if (!found) {
+            finished = true;
+            return false;
+        }
+
+        byte[] key = LMDBStore.toByteArray(cursor.key());
+        if (!inRange(key)) {
+            finished = true;
+            return false;
+        }
+        action.accept(new AbstractMap.SimpleImmutableEntry<>(key, LMDBStore.toByteArray(cursor.val())));
+        return true;
+    }
+
+    @Override
+    public Spliterator<Map.Entry<byte[], byte[]>> trySplit() {
+        return splittable ? super.trySplit() : null;
+    }
+
+    /**
+     * Moves the cursor to the first entry of the walk.
+     */
+    private boolean position() {
+        if (!isDescending) {
+            return fromKey == null ? cursor.first() : cursor.get(toDirectBuffer(fromKey), GetOp.MDB_SET_RANGE);
+        }
+        if (toKey == null) {
+            return cursor.last();
+        }
+        // Find the first key at or after the upper bound, the walk starts right before it
+        return cursor.get(toDirectBuffer(toKey), GetOp.MDB_SET_RANGE) ? cursor.prev() : cursor.last();
+    }
+
+    private boolean inRange(byte[] key) {
+        return (fromKey == null || KeyUtility.compare(key, fromKey) >= 0)
+                && (toKey == null || KeyUtility.compare(key, toKey) < 0);
+    }
+
+    private static ByteBuffer toDirectBuffer(byte[] key) {
+        ByteBuffer buffer = allocateDirect(key.length);
+        buffer.put(key).flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.smilo.commons.db;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Keeps store measurements in memory: counters and a latency histogram per collection and operation type, and the
+ * registered gauges. Latencies go into power of two buckets, which keeps recording cheap and lock free.
+ */
+public class DefaultStoreMetrics implements StoreMetrics {
+
+    private final Map<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+    private final Map<String, Supplier<? extends Number>> gauges = new ConcurrentSkipListMap<>();
+
+    @Override
+    public void recordOperation(String collection, String operation, long durationNanos, long bytesRead, long bytesWritten) {
+        operations.computeIfAbsent(collection + " " + operation, k -> new OperationMetrics(collection, operation))
+                .record(durationNanos, bytesRead, bytesWritten);
+    }
+
+    @Override
+    public void registerGauge(String name, Supplier<? extends Number> gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * @return the measurements of every operation type, the ones taking the most time in total first
+     */
+    public List<OperationStatistics> getOperations() {
+        return operations.values().stream()
+                .map(OperationMetrics::statistics)
+                .sorted(Comparator.comparingLong(OperationStatistics::getTotalNanos).reversed())
+                .collect(toList());
+    }
+
+    /**
+     * @return the current value of every registered gauge
+     */
+    public Map<String, Number> getGauges() {
+        Map<String, Number> values = new LinkedHashMap<>();
+        gauges.forEach((name, gauge) -> values.put(name, gauge.get()));
+        return values;
+    }
+
+    /**
+     * Forgets every measurement, the gauges stay registered.
+     */
+    public void reset() {
+        operations.clear();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        getOperations().forEach(o -> report.append(o).append('\n'));
+        getGauges().forEach((name, value) -> report.append(name).append(": ").append(value).append('\n'));
+        return report.toString();
+    }
+
+    private static final class OperationMetrics {
+        private static final int BUCKETS = 64;
+
+        private final String collection;
+        private final String operation;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder bytesRead = new LongAdder();
+        private final LongAdder bytesWritten = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        // Bucket i counts the durations between 2^i and 2^(i+1) nanoseconds
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        private OperationMetrics(String collection, String operation) {
+            this.collection = collection;
+            this.operation = operation;
+        }
+
+        private void record(long durationNanos, long read, long written) {
+            long duration = Math.max(1, durationNanos);
+            count.increment();
+            bytesRead.add(read);
+            bytesWritten.add(written);
+            totalNanos.add(duration);
+            maxNanos.accumulate(duration);
+            histogram.incrementAndGet(63 - Long.numberOfLeadingZeros(duration));
+        }
+
+        private OperationStatistics statistics() {
+            long[] buckets = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = histogram.get(i);
+                total += buckets[i];
+            }
+            return new OperationStatistics(collection, operation, count.sum(), bytesRead.sum(), bytesWritten.sum(),
+                    totalNanos.sum(), maxNanos.get(), percentile(buckets, total, 0.5), percentile(buckets, total, 0.99));
+        }
+
+        /**
+         * Estimates a percentile as the middle of the bucket holding it.
+         */
+        private static long percentile(long[] buckets, long total, double percentile) {
+            long rank = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets[i];
+                if (seen >= rank && buckets[i] > 0) {
+                    return (1L << i) + ((1L << i) >> 1);
+                }
+            }
+            return 0;
+        }
+    }
+}
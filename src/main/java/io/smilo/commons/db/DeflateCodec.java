@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.smilo.commons.db;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses values with Deflate. The compressed value starts with the length of the original value as 4 bytes, so it
+ * can be inflated into an array of the right size at once.
+ */
+public class DeflateCodec implements ValueCodec {
+
+    public static final byte ID = 1;
+
+    // Deflaters hold native memory, every thread reuses its own
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+    public DeflateCodec() {
+        this(Deflater.BEST_SPEED);
+    }
+
+    /**
+     * @param level compression level from 0 to 9, see {@link Deflater}
+     */
+    public DeflateCodec(int level) {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9, got " + level);
+        }
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level));
+    }
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] encode(byte[] value) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(value);
+        deflater.finish();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(value.length / 2 + 16);
+        out.write(value.length >>> 24);
+        out.write(value.length >>> 16);
+        out.write(value.length >>> 8);
+        out.write(value.length);
+        byte[] chunk = new byte[4096];
+        while (!deflater.finished()) {
+            int length = deflater.deflate(chunk);
+            out.write(chunk, 0, length);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public byte[] decode(ByteBuffer encoded) {
+        byte[] value = new byte[encoded.getInt()];
+        byte[] input = new byte[encoded.remaining()];
+        encoded.get(input);
+
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(input);
+        try {
+            int offset = 0;
+            while (offset < value.length) {
+                int length = inflater.inflate(value, offset, value.length - offset);
+                if (length == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                offset += length;
+            }
+            if (offset != value.length) {
+                throw new IllegalStateException("Compressed value is truncated, expected " + value.length + " bytes but got " + offset);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Compressed value is corrupt", e);
+        }
+        return value;
+    }
+}
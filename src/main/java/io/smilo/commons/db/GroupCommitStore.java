@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.smilo.commons.db;
+
+import org.apache.log4j.Logger;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Store decorator committing asynchronous writes on a dedicated writer thread. The writer collects the writes queued by
+ * all callers into groups, runs every group as one batch and flushes it once, so callers share the cost of a commit
+ * instead of each paying for their own. A group is committed when it holds maxWrites writes, or maxDelayMillis after
+ * its first write arrived, whichever comes first. With a delay of 0 the writer commits whatever queued up while it was
+ * committing the previous group.
+ * <p>
+ * When a group fails, its writes are committed one by one, so a failing write doesn't fail the writes it was grouped
+ * with. Synchronous writes and reads go to the delegate right away, so they may overtake queued asynchronous writes.
+ */
+public class GroupCommitStore implements Store, AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(GroupCommitStore.class);
+    // Queued by close, the writer stops when it reaches it
+    private static final PendingWrite STOP = new PendingWrite(() -> { });
+
+    private final Store delegate;
+    private final int maxWrites;
+    private final long maxDelayNanos;
+    private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private boolean closed;
+
+    /**
+     * @param delegate store holding the data
+     * @param maxWrites most writes committed together
+     * @param maxDelayMillis longest time a write waits for others to join its group
+     */
+    public GroupCommitStore(Store delegate, int maxWrites, long maxDelayMillis) {
+        if (maxWrites < 1) {
+            throw new IllegalArgumentException("A group must hold at least one write, got " + maxWrites);
+        }
+        if (maxDelayMillis < 0) {
+            throw new IllegalArgumentException("Delay must not be negative, got " + maxDelayMillis);
+        }
+        this.delegate = delegate;
+        this.maxWrites = maxWrites;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.writer = new Thread(this::run, "store-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * @return the store holding the data
+     */
+    public Store getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public CompletableFuture<Void> batchAsync(Runnable work) {
+        PendingWrite write = new PendingWrite(work);
+        synchronized (this) {
+            if (closed) {
+                write.committed.completeExceptionally(new IllegalStateException("Store is closed"));
+                return write.committed;
+            }
+            queue.add(write);
+        }
+        return write.committed;
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(String collection, byte[] key, byte[] value) {
+        // The caller may reuse its arrays before the writer gets to the write
+        final byte[] storedKey = key.clone();
+        final byte[] storedValue = value.clone();
+        return batchAsync(() -> delegate.put(collection, storedKey, storedValue));
+    }
+
+    /**
+     * Commits the writes that are still queued and stops the writer thread.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            queue.add(STOP);
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<PendingWrite> group = new ArrayList<>();
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                PendingWrite first = queue.take();
+                if (first == STOP) {
+                    return;
+                }
+                group.add(first);
+                stopping = collect(group);
+                commit(group);
+            } catch (InterruptedException e) {
+                LOGGER.warn("Store writer was interrupted, " + queue.size() + " writes are left uncommitted");
+                return;
+            } catch (RuntimeException | Error e) {
+                // Keep the writer alive, the callers would otherwise wait for their writes forever
+                LOGGER.error("Store writer failed to commit a group of " + group.size() + " writes", e);
+                group.forEach(write -> write.committed.completeExceptionally(e));
+            } finally {
+                group.clear();
+            }
+        }
+    }
+
+    /**
+     * Adds queued writes to the group until it is full or its delay has passed.
+     * @return whether the writer has to stop after this group
+     */
+    private boolean collect(List<PendingWrite> group) throws InterruptedException {
+        long deadline = System.nanoTime() + maxDelayNanos;
+        while (group.size() < maxWrites) {
+            queue.drainTo(group, maxWrites - group.size());
+            if (group.get(group.size() - 1) == STOP) {
+                group.remove(group.size() - 1);
+                return true;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (group.size() >= maxWrites || remaining <= 0) {
+                break;
+            }
+            PendingWrite next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == STOP) {
+                return true;
+            }
+            if (next == null) {
+                break;
+            }
+            group.add(next);
+        }
+        return false;
+    }
+
+    private void commit(List<PendingWrite> group) {
+        try {
+            delegate.batch(() -> group.forEach(write -> write.work.run()));
+        } catch (RuntimeException e) {
+            if (group.size() == 1) {
+                group.get(0).committed.completeExceptionally(e);
+                return;
+            }
+            LOGGER.debug("Group of " + group.size() + " writes failed, committing them one by one", e);
+            group.forEach(write -> commit(Collections.singletonList(write)));
+            return;
+        }
+
+        try {
+            delegate.sync();
+            group.forEach(write -> write.committed.complete(null));
+        } catch (RuntimeException e) {
+            group.forEach(write -> write.committed.completeExceptionally(e));
+        }
+    }
+
+    @Override
+    public void put(String collection, byte[] key, byte[] value) {
+        delegate.put(collection, key, value);
+    }
+
+    @Override
+    public void append(String collection, byte[] key, byte[] value) {
+        delegate.append(collection, key, value);
+    }
+
+    @Override
+    public byte[] get(String collection, byte[] key) {
+        return delegate.get(collection, key);
+    }
+
+    @Override
+    public <T> T read(String collection, byte[] key, Function<ByteBuffer, T> reader) {
+        return delegate.read(collection, key, reader);
+    }
+
+    @Override
+    public boolean remove(String collection, byte[] key) {
+        return delegate.remove(collection, key);
+    }
+
+    @Override
+    public Stream<Map.Entry<byte[], byte[]>> scan(String collection, byte[] fromKey, byte[] toKey, boolean isDescending) {
+        return delegate.scan(collection, fromKey, toKey, isDescending);
+    }
+
+    @Override
+    public Map.Entry<byte[], byte[]> last(String collection) {
+        return delegate.last(collection);
+    }
+
+    @Override
+    public void initializeCollection(String collectionName) {
+        delegate.initializeCollection(collectionName);
+    }
+
+    @Override
+    public void clear(String collectionName) {
+        delegate.clear(collectionName);
+    }
+
+    @Override
+    public Long getEntries(String collectionName) {
+        return delegate.getEntries(collectionName);
+    }
+
+    @Override
+    public void batch(Runnable work) {
+        delegate.batch(work);
+    }
+
+    @Override
+    public StoreBatch beginBatch() {
+        return delegate.beginBatch();
+    }
+
+    @Override
+    public void sync() {
+        delegate.sync();
+    }
+
+    @Override
+    public StoreSnapshot snapshot() {
+        return delegate.snapshot();
+    }
+
+    /**
+     * Work queued for the writer together with the future of its caller.
+     */
+    private static final class PendingWrite {
+        private final Runnable work;
+        private final CompletableFuture<Void> committed = new CompletableFuture<>();
+
+        private PendingWrite(Runnable work) {
+            this.work = work;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.smilo.commons.db;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Store decorator measuring the count, bytes and latency of every operation per collection, and reporting them to a
+ * {@link StoreMetrics} registry. Decoding done by the reader of {@link #read(String, byte[], Function)} is reported
+ * separately as a decode operation, so slow decoding and slow storage can be told apart. A scan is reported when its
+ * stream is closed and includes the time spent consuming it, which is how long its transaction stayed open.
+ */
+public class InstrumentedStore implements Store {
+
+    private final Store delegate;
+    private final StoreMetrics metrics;
+    // Nested batches join the outer one, only the outermost is measured
+    private final ThreadLocal<Boolean> inBatch = ThreadLocal.withInitial(() -> false);
+
+    public InstrumentedStore(Store delegate, StoreMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the store holding the data
+     */
+    public Store getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void put(String collection, byte[] key, byte[] value) {
+        long start = System.nanoTime();
+        try {
+            delegate.put(collection, key, value);
+        } finally {
+            metrics.recordOperation(collection, "put", System.nanoTime() - start, 0, key.length + value.length);
+        }
+    }
+
+    @Override
+    public void append(String collection, byte[] key, byte[] value) {
+        long start = System.nanoTime();
+        try {
+            delegate.append(collection, key, value);
+        } finally {
+            metrics.recordOperation(collection, "append", System.nanoTime() - start, 0, key.length + value.length);
+        }
+    }
+
+    @Override
+    public byte[] get(String collection, byte[] key) {
+        long start = System.nanoTime();
+        byte[] value = null;
+        try {
+            value = delegate.get(collection, key);
+            return value;
+        } finally {
+            metrics.recordOperation(collection, "get", System.nanoTime() - start, value == null ? 0 : value.length, 0);
+        }
+    }
+
+    @Override
+    public <T> T read(String collection, byte[] key, Function<ByteBuffer, T> reader) {
+        long[] size = new long[1];
+        long[] decodeNanos = new long[1];
+        long start = System.nanoTime();
+        try {
+            return delegate.read(collection, key, buffer -> {
+                size[0] = buffer.remaining();
+                long decodeStart = System.nanoTime();
+                try {
+                    return reader.apply(buffer);
+                } finally {
+                    decodeNanos[0] = System.nanoTime() - decodeStart;
+                }
+            });
+        } finally {
+            metrics.recordOperation(collection, "read", System.nanoTime() - start - decodeNanos[0], size[0], 0);
+            if (size[0] > 0) {
+                metrics.recordOperation(collection, "decode", decodeNanos[0], 0, 0);
+            }
+        }
+    }
+
+    @Override
+    public boolean remove(String collection, byte[] key) {
+        long start = System.nanoTime();
+        try {
+            return delegate.remove(collection, key);
+        } finally {
+            metrics.recordOperation(collection, "remove", System.nanoTime() - start, 0, key.length);
+        }
+    }
+
+    @Override
+    public Stream<Map.Entry<byte[], byte[]>> scan(String collection, byte[] fromKey, byte[] toKey, boolean isDescending) {
+        long start = System.nanoTime();
+        LongAdder bytesRead = new LongAdder();
+        return delegate.scan(collection, fromKey, toKey, isDescending)
+                .peek(entry -> bytesRead.add(entry.getKey().length + entry.getValue().length))
+                .onClose(() -> metrics.recordOperation(collection, "scan", System.nanoTime() - start, bytesRead.sum(), 0));
+    }
+
+    @Override
+    public Map.Entry<byte[], byte[]> last(String collection) {
+        long start = System.nanoTime();
+        Map.Entry<byte[], byte[]> last = null;
+        try {
+            last = delegate.last(collection);
+            return last;
+        } finally {
+            long bytesRead = last == null ? 0 : last.getKey().length + last.getValue().length;
+            metrics.recordOperation(collection, "last", System.nanoTime() - start, bytesRead, 0);
+        }
+    }
+
+    @Override
+    public void initializeCollection(String collectionName) {
+        delegate.initializeCollection(collectionName);
+    }
+
+    @Override
+    public void clear(String collectionName) {
+        long start = System.nanoTime();
+        try {
+            delegate.clear(collectionName);
+        } finally {
+            metrics.recordOperation(collectionName, "clear", System.nanoTime() - start, 0, 0);
+        }
+    }
+
+    @Override
+    public Long getEntries(String collectionName) {
+        long start = System.nanoTime();
+        try {
+            return delegate.getEntries(collectionName);
+        } finally {
+            metrics.recordOperation(collectionName, "entries", System.nanoTime() - start, 0, 0);
+        }
+    }
+
+    @Override
+    public void batch(Runnable work) {
+        if (inBatch.get()) {
+            delegate.batch(work);
+            return;
+        }
+        inBatch.set(true);
+        long start = System.nanoTime();
+        try {
+            delegate.batch(work);
+        } finally {
+            inBatch.set(false);
+            // The duration of the outermost batch is how long its write transaction was open
+            metrics.recordOperation(StoreMetrics.ALL_COLLECTIONS, "batch", System.nanoTime() - start, 0, 0);
+        }
+    }
+
+    @Override
+    public StoreBatch beginBatch() {
+        if (inBatch.get()) {
+            return delegate.beginBatch();
+        }
+        long start = System.nanoTime();
+        StoreBatch batch = delegate.beginBatch();
+        inBatch.set(true);
+        return new StoreBatch() {
+            private boolean closed;
+
+            @Override
+            public void commit() {
+                batch.commit();
+            }
+
+            @Override
+            public void close() {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                try {
+                    batch.close();
+                } finally {
+                    inBatch.set(false);
+                    metrics.recordOperation(StoreMetrics.ALL_COLLECTIONS, "batch", System.nanoTime() - start, 0, 0);
+                }
+            }
+        };
+    }
+
+    @Override
+    public void sync() {
+        long start = System.nanoTime();
+        try {
+            delegate.sync();
+        } finally {
+            metrics.recordOperation(StoreMetrics.ALL_COLLECTIONS, "sync", System.nanoTime() - start, 0, 0);
+        }
+    }
+
+    @Override
+    public StoreSnapshot snapshot() {
+        long start = System.nanoTime();
+        StoreSnapshot snapshot = delegate.snapshot();
+        return new StoreSnapshot() {
+            private boolean closed;
+
+            @Override
+            public byte[] get(String collection, byte[] key) {
+                return snapshot.get(collection, key);
+            }
+
+            @Override
+            public <T> T read(String collection, byte[] key, Function<ByteBuffer, T> reader) {
+                return snapshot.read(collection, key, reader);
+            }
+
+            @Override
+            public Stream<Map.Entry<byte[], byte[]>> scan(String collection, byte[] fromKey, byte[] toKey, boolean isDescending) {
+                return snapshot.scan(collection, fromKey, toKey, isDescending);
+            }
+
+            @Override
+            public Map.Entry<byte[], byte[]> last(String collection) {
+                return snapshot.last(collection);
+            }
+
+            @Override
+            public Long getEntries(String collectionName) {
+                return snapshot.getEntries(collectionName);
+            }
+
+            @Override
+            public void close() {
+                snapshot.close();
+                if (!closed) {
+                    closed = true;
+                    // Like a batch, a snapshot is measured by how long it kept its transaction open
+                    metrics.recordOperation(StoreMetrics.ALL_COLLECTIONS, "snapshot", System.nanoTime() - start, 0, 0);
+                }
+            }
+        };
+    }
+}
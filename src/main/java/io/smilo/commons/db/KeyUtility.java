@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.smilo.commons.db;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Helpers for working with database keys. Keys are ordered the way LMDB orders them: byte by byte as unsigned values,
+ * with a shorter key sorting before every longer key it is a prefix of.
+ */
+public class KeyUtility {
+
+    /**
+     * Compares two keys in database order.
+     *
+     * @param a first key
+     * @param b second key
+     * @return a negative number, zero or a positive number when a sorts before, equal to or after b
+     */
+    public static int compare(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int result = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * Compares a key with the remaining bytes of a buffer in database order, without copying the buffer.
+     *
+     * @param a first key
+     * @param b buffer holding the second key
+     * @return a negative number, zero or a positive number when a sorts before, equal to or after b
+     */
+    public static int compare(byte[] a, ByteBuffer b) {
+        int length = Math.min(a.length, b.remaining());
+        for (int i = 0; i < length; i++) {
+            int result = (a[i] & 0xFF) - (b.get(b.position() + i) & 0xFF);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return a.length - b.remaining();
+    }
+
+    /**
+     * Returns the first key that sorts after every key starting with the given prefix, to be used as the exclusive
+     * upper bound of a prefix scan.
+     *
+     * @param prefix prefix of the keys
+     * @return the exclusive upper bound, or null when no such key exists and the scan has to run to the end
+     */
+    public static byte[] prefixEnd(byte[] prefix) {
+        for (int i = prefix.length - 1; i >= 0; i--) {
+            if (prefix[i] != (byte) 0xFF) {
+                byte[] end = Arrays.copyOf(prefix, i + 1);
+                end[i]++;
+                return end;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.smilo.commons.db;
+
+import io.smilo.commons.HashUtility;
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * Checkpoint of an LMDB database, used to bring up a new node without downloading the chain from genesis. A checkpoint
+ * is a directory holding a compacted copy of the data file, written by {@link LMDBStore#exportCheckpoint(File)}, and a
+ * manifest with the size and SHA-256 hash of that copy, which is verified before the checkpoint is restored.
+ */
+public class LMDBCheckpoint {
+
+    private static final Logger LOGGER = Logger.getLogger(LMDBCheckpoint.class);
+    static final String DATA_FILE = "data.mdb";
+    static final String MANIFEST_FILE = "checkpoint.properties";
+
+    private LMDBCheckpoint() {
+    }
+
+    /**
+     * Writes the manifest of a checkpoint whose data file has just been copied.
+     */
+    static void writeManifest(File checkpoint) throws IOException {
+        File data = new File(checkpoint, DATA_FILE);
+        Properties manifest = new Properties();
+        manifest.setProperty("size", Long.toString(data.length()));
+        manifest.setProperty("sha256", hash(data));
+        manifest.setProperty("created", Long.toString(System.currentTimeMillis()));
+        try (OutputStream out = new FileOutputStream(new File(checkpoint, MANIFEST_FILE))) {
+            manifest.store(out, "LMDB checkpoint");
+        }
+    }
+
+    /**
+     * Seeds a database folder from a checkpoint, unless the folder already holds a database. The data file is copied
+     * next to its destination first and only moved in place once its hash matches the manifest, so a failed or corrupt
+     * restore never leaves a database behind. Must run before a store opens the folder.
+     *
+     * @param checkpoint directory of the checkpoint
+     * @param dbFolder folder of the database to seed
+     * @return true when the checkpoint was restored, false when the folder already holds a database
+     * @throws IOException when the checkpoint can't be read or doesn't match its manifest
+     */
+    public static boolean restore(File checkpoint, File dbFolder) throws IOException {
+        File target = new File(dbFolder, DATA_FILE);
+        if (target.exists()) {
+            LOGGER.info("Database " + dbFolder + " already exists, not restoring checkpoint " + checkpoint);
+            return false;
+        }
+
+        Properties manifest = new Properties();
+        try (InputStream in = new FileInputStream(new File(checkpoint, MANIFEST_FILE))) {
+            manifest.load(in);
+        }
+        File source = new File(checkpoint, DATA_FILE);
+        long size = Long.parseLong(manifest.getProperty("size", "-1"));
+        if (source.length() != size) {
+            throw new IOException("Checkpoint " + checkpoint + " is incomplete, expected " + size + " bytes but found " + source.length());
+        }
+
+        if (!dbFolder.exists()) {
+            dbFolder.mkdirs();
+        }
+        File copy = new File(dbFolder, DATA_FILE + ".restore");
+        MessageDigest digest = sha256();
+        try (InputStream in = new DigestInputStream(new BufferedInputStream(new FileInputStream(source)), digest)) {
+            Files.copy(in, copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        String hash = HashUtility.toHEXString(digest.digest());
+        if (!hash.equalsIgnoreCase(manifest.getProperty("sha256"))) {
+            Files.delete(copy.toPath());
+            throw new IOException("Checkpoint " + checkpoint + " is corrupt, its hash " + hash + " doesn't match the manifest");
+        }
+        Files.move(copy.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        LOGGER.info("Restored checkpoint " + checkpoint + " of " + size + " bytes into " + dbFolder);
+        return true;
+    }
+
+    private static String hash(File file) throws IOException {
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HashUtility.toHEXString(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.smilo.commons.db;
+
+/**
+ * Snapshot of how much of the LMDB memory map is in use, so operators can see how much headroom is left before the
+ * store has to grow the map.
+ */
+public class LMDBStatistics {
+
+    private final long mapSize;
+    private final long usedBytes;
+    private final int pageSize;
+    private final int maxReaders;
+    private final int numReaders;
+    private final long branchPages;
+    private final long leafPages;
+    private final long overflowPages;
+
+    public LMDBStatistics(long mapSize, long usedBytes, int pageSize, int maxReaders, int numReaders,
+                          long branchPages, long leafPages, long overflowPages) {
+        this.mapSize = mapSize;
+        this.usedBytes = usedBytes;
+        this.pageSize = pageSize;
+        this.maxReaders = maxReaders;
+        this.numReaders = numReaders;
+        this.branchPages = branchPages;
+        this.leafPages = leafPages;
+        this.overflowPages = overflowPages;
+    }
+
+    /**
+     * @return current size of the memory map in bytes
+     */
+    public long getMapSize() {
+        return mapSize;
+    }
+
+    /**
+     * @return bytes of the memory map in use, including pages that are free for reuse inside the database
+     */
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * @return bytes left before the map has to grow
+     */
+    public long getHeadroom() {
+        return mapSize - usedBytes;
+    }
+
+    /**
+     * @return fraction of the memory map in use, between 0 and 1
+     */
+    public double getUtilisation() {
+        return mapSize == 0 ? 0 : (double) usedBytes / mapSize;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public int getMaxReaders() {
+        return maxReaders;
+    }
+
+    /**
+     * @return amount of reader slots in use
+     */
+    public int getNumReaders() {
+        return numReaders;
+    }
+
+    /**
+     * @return amount of internal B-tree pages of all open collections
+     */
+    public long getBranchPages() {
+        return branchPages;
+    }
+
+    /**
+     * @return amount of B-tree leaf pages of all open collections
+     */
+    public long getLeafPages() {
+        return leafPages;
+    }
+
+    /**
+     * @return amount of pages holding values too large for a leaf page, of all open collections
+     */
+    public long getOverflowPages() {
+        return overflowPages;
+    }
+
+    @Override
+    public String toString() {
+        return "mapSize: " + mapSize + ", usedBytes: " + usedBytes + ", utilisation: " + String.format("%.2f", getUtilisation())
+                + ", readers: " + numReaders + "/" + maxReaders + ", pages: " + branchPages + " branch, " + leafPages
+                + " leaf, " + overflowPages + " overflow";
+    }
+}
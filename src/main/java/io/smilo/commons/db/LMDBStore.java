@@ -21,8 +21,16 @@ import org.apache.log4j.Logger;
 import org.lmdbjava.*;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static java.nio.ByteBuffer.allocateDirect;
 import static org.lmdbjava.Env.create;
@@ -30,313 +38,586 @@ import static org.lmdbjava.Env.create;
 public class LMDBStore implements Store {
 
     private static final Logger LOGGER = Logger.getLogger(TransactionParser.class);
-    private final Map<String, Dbi<ByteBuffer>> dbs = new HashMap<>();
+    // Largest key LMDB accepts with its default compile options
+    private static final int MAX_KEY_SIZE = 511;
+    // Value buffers up to this size are kept around for reuse by the writing thread
+    private static final int MAX_CACHED_VALUE_SIZE = 1024 * 1024;
+    // Flags that let LMDB return from a commit before it is flushed to disk
+    private static final Set<EnvFlags> DEFERRED_SYNC_FLAGS = EnumSet.of(EnvFlags.MDB_NOSYNC, EnvFlags.MDB_NOMETASYNC, EnvFlags.MDB_MAPASYNC);
+    private final Map<String, Dbi<ByteBuffer>> dbs = new ConcurrentHashMap<>();
+    // Batch the current thread is running, if any
+    private final ThreadLocal<Batch> currentBatch = new ThreadLocal<>();
+    // Every transaction holds the read side for as long as it lives, growing the map takes the write side because LMDB
+    // can only resize the map while no transaction of this process is active
+    private final ReentrantReadWriteLock resizeGate = new ReentrantReadWriteLock();
+    // Held by the writer of this process from before its transaction starts until it ends. Growing the map aborts the
+    // transaction of a batch, which releases the writer lock of LMDB, so the gate keeps other writers from committing
+    // before the writes of the batch are replayed. Always taken before the resize gate.
+    private final ReentrantLock writerGate = new ReentrantLock();
+    // Direct buffers are expensive to allocate, every thread reuses its own for keys and values
+    private final ThreadLocal<ByteBuffer> keyBuffers = ThreadLocal.withInitial(() -> allocateDirect(MAX_KEY_SIZE));
+    private final ThreadLocal<ByteBuffer> valueBuffers = new ThreadLocal<>();
     private final Env<ByteBuffer> env;
-    private final long mapSize = 1_100_485_760;
-    private final int maxDBs = 15;
-    private final int maxReaders = 100;
+    private final LMDBStoreConfiguration configuration;
+    private volatile long mapSize;
 
     public LMDBStore(String folder) {
+        this(folder, new LMDBStoreConfiguration());
+    }
+
+    public LMDBStore(String folder, LMDBStoreConfiguration configuration) {
+        this.configuration = configuration;
 
         final File path = new File(folder);
-        LOGGER.info("Starting LMDBStore, folder: " + folder + ", mapSize: " + mapSize + ", maxDBs: " + maxDBs + ", maxReaders: " + maxReaders);
+        LOGGER.info("Starting LMDBStore, folder: " + folder + ", " + configuration);
         if (!path.exists()) {
             path.mkdirs();
         }
 
+        // Streams keep their read transaction open, MDB_NOTLS lets a thread hold more than one and lets
+        // parallel streams hand a transaction between threads
+        Set<EnvFlags> flags = EnumSet.of(EnvFlags.MDB_NOTLS);
+        flags.addAll(configuration.getEnvFlags());
+
         // We always need an Env. An Env owns a physical on-disk storage file. One
         // Env can store many different databases (ie sorted maps).
-        // TODO: review env settings
         this.env = create()
-                // LMDB also needs to know how large our DB might be. Over-estimating is OK.
-                .setMapSize(mapSize)
+                // Initial size of the map, it is grown when a write finds the database full
+                .setMapSize(configuration.getInitialMapSize())
                 // LMDB also needs to know how many DBs (Dbi) we want to store in this Env.
-                .setMaxDbs(maxDBs)
-                .setMaxReaders(maxReaders)
+                .setMaxDbs(configuration.getMaxDbs())
+                .setMaxReaders(configuration.getMaxReaders())
                 // Now let's open the Env. The same path can be concurrently opened and
                 // used in different processes, but do not open the same path twice in
                 // the same process at the same time.
-                .open(path);
+                .open(path, flags.toArray(new EnvFlags[0]));
+
+        // An existing database keeps the size it has grown to
+        this.mapSize = env.info().mapSize;
+    }
+
+    /**
+     * Retrieves how much of the memory map is in use.
+     *
+     * @return utilisation of the database
+     */
+    public LMDBStatistics getStatistics() {
+        return read(txn -> {
+            EnvInfo info = env.info();
+            Stat stat = env.stat();
+            long usedBytes = (info.lastPageNumber + 1) * stat.pageSize;
+            long branchPages = 0;
+            long leafPages = 0;
+            long overflowPages = 0;
+            for (Dbi<ByteBuffer> db : dbs.values()) {
+                Stat dbStat = db.stat(txn);
+                branchPages += dbStat.branchPages;
+                leafPages += dbStat.leafPages;
+                overflowPages += dbStat.overflowPages;
+            }
+            return new LMDBStatistics(info.mapSize, usedBytes, stat.pageSize, info.maxReaders, info.numReaders,
+                    branchPages, leafPages, overflowPages);
+        });
+    }
 
+    /**
+     * Registers the utilisation of the database as gauges, so it is published together with the store measurements.
+     *
+     * @param metrics registry to publish to
+     */
+    public void registerGauges(StoreMetrics metrics) {
+        registerGauges(metrics, "lmdb");
+    }
+
+    /**
+     * Registers the utilisation of the database as gauges named after the given prefix, which tells the gauges of
+     * several environments apart.
+     *
+     * @param metrics registry to publish to
+     * @param prefix prefix of the gauge names
+     */
+    public void registerGauges(StoreMetrics metrics, String prefix) {
+        metrics.registerGauge(prefix + ".map.size", () -> getStatistics().getMapSize());
+        metrics.registerGauge(prefix + ".map.used", () -> getStatistics().getUsedBytes());
+        metrics.registerGauge(prefix + ".map.utilisation", () -> getStatistics().getUtilisation());
+        metrics.registerGauge(prefix + ".pages.branch", () -> getStatistics().getBranchPages());
+        metrics.registerGauge(prefix + ".pages.leaf", () -> getStatistics().getLeafPages());
+        metrics.registerGauge(prefix + ".pages.overflow", () -> getStatistics().getOverflowPages());
+        metrics.registerGauge(prefix + ".readers.used", () -> getStatistics().getNumReaders());
+        metrics.registerGauge(prefix + ".readers.max", () -> getStatistics().getMaxReaders());
+    }
+
+    /**
+     * Writes a compacted copy of the database to an empty directory while the node keeps running, see
+     * {@link LMDBCheckpoint}. The copy is taken from a single read transaction, so it holds a consistent state and
+     * writers are not blocked while it is made, although the map can't grow until it is done.
+     *
+     * @param directory directory to write the checkpoint to, created when it doesn't exist
+     * @throws IOException when the checkpoint can't be written
+     */
+    public void exportCheckpoint(File directory) throws IOException {
+        if (currentBatch.get() != null) {
+            throw new IllegalStateException("A checkpoint can't be exported inside a batch");
+        }
+        String[] existing = directory.list();
+        if (existing != null && existing.length > 0) {
+            throw new IOException("Checkpoint directory " + directory + " must be empty");
+        }
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Unable to create checkpoint directory " + directory);
+        }
+
+        long start = System.currentTimeMillis();
+        resizeGate.readLock().lock();
+        try {
+            // Compacting leaves out free pages and writes the pages in order, which makes the copy smaller
+            env.copy(directory, CopyFlags.MDB_CP_COMPACT);
+        } finally {
+            resizeGate.readLock().unlock();
+        }
+        LMDBCheckpoint.writeManifest(directory);
+        LOGGER.info("Exported checkpoint to " + directory + " in " + (System.currentTimeMillis() - start) + " ms");
     }
 
     @Override
     public void clear(String collectionName) {
-        try (Txn<ByteBuffer> txn = env.txnWrite()) {
-            getDatabase(collectionName).drop(txn);
-            txn.commit();
-        }
+        final Dbi<ByteBuffer> db = getDatabase(collectionName);
+        write(txn -> db.drop(txn));
     }
 
     @Override
     public Long getEntries(String collectionName) {
-        try (Txn<ByteBuffer> txn = env.txnRead()) {
-            return getDatabase(collectionName).stat(txn).entries;
-        }
+        return read(txn -> getEntries(txn, collectionName));
+    }
+
+    private long getEntries(Txn<ByteBuffer> txn, String collectionName) {
+        return getDatabase(collectionName).stat(txn).entries;
     }
 
     private Dbi<ByteBuffer> getDatabase(String collectionName) {
-        if (!dbs.containsKey(collectionName)) {
+        Dbi<ByteBuffer> db = dbs.get(collectionName);
+        if (db == null) {
+            // Opening a Dbi starts its own write transaction, which would deadlock against the batch of this thread
+            if (currentBatch.get() != null) {
+                throw new IllegalStateException("Collection " + collectionName + " must be initialized before it is used inside a batch");
+            }
             // We need a Dbi for each DB. A Dbi roughly equates to a sorted map. The
             // MDB_CREATE flag causes the DB to be created if it doesn't already exist.
-            Dbi<ByteBuffer> db = env.openDbi(collectionName, DbiFlags.MDB_CREATE);
-            dbs.put(collectionName, db);
+            writerGate.lock();
+            resizeGate.readLock().lock();
+            try {
+                db = dbs.computeIfAbsent(collectionName, name -> env.openDbi(name, DbiFlags.MDB_CREATE));
+            } finally {
+                resizeGate.readLock().unlock();
+                writerGate.unlock();
+            }
         }
-
-        return dbs.get(collectionName);
+        return db;
     }
 
     @Override
-    public void put(String collection, byte[] key, byte[] value) {
-        final ByteBuffer keyBuffer = allocateDirect(key.length);
-        final ByteBuffer valBuffer = allocateDirect(value.length);
+    public void batch(Runnable work) {
+        try (StoreBatch batch = beginBatch()) {
+            work.run();
+            batch.commit();
+        }
+    }
 
-        keyBuffer.put(key).flip();
-        valBuffer.put(value).flip();
+    @Override
+    public StoreBatch beginBatch() {
+        if (currentBatch.get() != null) {
+            // Join the batch that is already running on this thread
+            return StoreBatch.JOINED;
+        }
 
-        try (Txn<ByteBuffer> txn = env.txnWrite()) {
-            getDatabase(collection).put(txn, keyBuffer, valBuffer);
-            txn.commit();
+        Batch batch = new Batch();
+        writerGate.lock();
+        resizeGate.readLock().lock();
+        try {
+            batch.begin();
+        } catch (RuntimeException e) {
+            resizeGate.readLock().unlock();
+            writerGate.unlock();
+            throw e;
         }
+        currentBatch.set(batch);
+        return batch;
     }
 
-    @Override
-    public byte[] get(String collection, byte[] key) {
-        final ByteBuffer keyBuffer = allocateDirect(key.length);
-        keyBuffer.put(key).flip();
+    /**
+     * Applies a write to the batch of the current thread, running it as a batch of its own when there is none. The
+     * write is recorded, so it can be replayed when the batch has to be restarted on a larger map.
+     */
+    private void write(Consumer<Txn<ByteBuffer>> op) {
+        batch(() -> {
+            Batch batch = currentBatch.get();
+            while (true) {
+                try {
+                    op.accept(batch.txn);
+                    break;
+                } catch (Env.MapFullException e) {
+                    grow(batch);
+                }
+            }
+            batch.writes.add(op);
+        });
+    }
 
-        final ByteBuffer fetchedVal;
-        try (Txn<ByteBuffer> txn = env.txnRead()) {
-            getDatabase(collection).get(txn, keyBuffer);
-            fetchedVal = txn.val();
+    /**
+     * Grows the memory map after the batch found the database full. LMDB can only resize the map while no transaction
+     * of this process is active, so the batch is aborted, every other transaction is waited for, and the writes of the
+     * batch are replayed on a new transaction afterwards. The batch keeps the writer gate all along, so no other batch
+     * commits in between and the replayed writes apply to the state they were computed from. A thread waiting for the
+     * writer gate while it holds a stream or snapshot open would block the growth, so streams and snapshots must be
+     * closed before a batch is started.
+     */
+    private void grow(Batch batch) {
+        batch.endTransaction();
+        if (resizeGate.getReadHoldCount() > 1) {
+            // A stream or snapshot opened by this thread still reads from the map, waiting for it would never end
+            throw new IllegalStateException("Database is full and can't grow while the current thread has an open stream or snapshot");
         }
-        if (fetchedVal == null || fetchedVal.remaining() == 0) return null;
-        byte[] bytes = new byte[fetchedVal.remaining()];
 
-        fetchedVal.get(bytes);
-        return bytes;
+        resizeGate.readLock().unlock();
+        resizeGate.writeLock().lock();
+        try {
+            // Another batch may have grown the map while this one was waiting
+            if (mapSize == batch.mapSize) {
+                long newSize = (long) (mapSize * configuration.getGrowthFactor());
+                LOGGER.info("Database is full, growing map from " + mapSize + " to " + newSize + " bytes");
+                env.setMapSize(newSize);
+                mapSize = newSize;
+            }
+        } finally {
+            // Downgrade to the read side again before other transactions get in
+            resizeGate.readLock().lock();
+            resizeGate.writeLock().unlock();
+        }
+
+        batch.begin();
+        try {
+            batch.writes.forEach(op -> op.accept(batch.txn));
+        } catch (Env.MapFullException e) {
+            grow(batch);
+        }
     }
 
     @Override
-    public boolean remove(String collection, byte[] key) {
-        final ByteBuffer keyBuffer = allocateDirect(key.length);
-        keyBuffer.put(key).flip();
-        return getDatabase(collection).delete(keyBuffer);
+    public void sync() {
+        if (Collections.disjoint(configuration.getEnvFlags(), DEFERRED_SYNC_FLAGS)) {
+            // Every commit has flushed itself already
+            return;
+        }
+        resizeGate.readLock().lock();
+        try {
+            env.sync(true);
+        } finally {
+            resizeGate.readLock().unlock();
+        }
     }
 
     @Override
-    public Map.Entry<byte[], byte[]> last(String collection) {
-        final ByteBuffer fetchedVal;
-        final ByteBuffer fetchedKey;
-        try (Txn<ByteBuffer> txn = env.txnRead()) {
+    public void put(String collection, byte[] key, byte[] value) {
+        final Dbi<ByteBuffer> db = getDatabase(collection);
+        write(txn -> db.put(txn, keyBuffer(key), valueBuffer(value)));
+    }
 
-            final Cursor<ByteBuffer> cursor = getDatabase(collection).openCursor(txn);
-            cursor.seek(SeekOp.MDB_LAST);
+    @Override
+    public void append(String collection, byte[] key, byte[] value) {
+        final Dbi<ByteBuffer> db = getDatabase(collection);
+        write(txn -> {
+            // MDB_APPEND skips searching for the insert position, LMDB refuses it without writing when the key doesn't
+            // sort last
             try {
-                getDatabase(collection).get(txn, cursor.key());
-                fetchedKey = txn.key();
-                fetchedVal = txn.val();
-            } catch (Exception e) {
-                return null;
+                db.put(txn, keyBuffer(key), valueBuffer(value), PutFlags.MDB_APPEND);
+            } catch (Dbi.KeyExistsException e) {
+                db.put(txn, keyBuffer(key), valueBuffer(value));
             }
+        });
+    }
+
+    /**
+     * Runs a read against the batch transaction of the current thread, or against a fresh read transaction when the
+     * thread is not running a batch. LMDB allows a thread one transaction at a time, so reads inside a batch reuse it.
+     */
+    private <T> T read(Function<Txn<ByteBuffer>, T> work) {
+        Batch batch = currentBatch.get();
+        if (batch != null) {
+            return work.apply(batch.txn);
         }
-        byte[] keyBytes = new byte[fetchedKey.remaining()];
-        fetchedKey.get(keyBytes);
+        resizeGate.readLock().lock();
+        try (Txn<ByteBuffer> readTxn = env.txnRead()) {
+            return work.apply(readTxn);
+        } finally {
+            resizeGate.readLock().unlock();
+        }
+    }
 
-        byte[] valueBytes = new byte[fetchedVal.remaining()];
-        fetchedVal.get(valueBytes);
+    @Override
+    public byte[] get(String collection, byte[] key) {
+        return read(txn -> get(txn, collection, key));
+    }
 
-        return new AbstractMap.SimpleEntry<byte[], byte[]>(keyBytes, valueBytes);
+    private byte[] get(Txn<ByteBuffer> txn, String collection, byte[] key) {
+        // The value points into the memory map, so it has to be copied before the transaction ends
+        return toNullableByteArray(getDatabase(collection).get(txn, keyBuffer(key)));
     }
 
     @Override
-    public Map<byte[], byte[]> getAll(String collection) {
-        try (Txn<ByteBuffer> txn = env.txnRead();
-             CursorIterator<ByteBuffer> cursor = getDatabase(collection).iterate(txn)) {
+    public <T> T read(String collection, byte[] key, Function<ByteBuffer, T> reader) {
+        return read(txn -> read(txn, collection, key, reader));
+    }
 
-            Map<byte[], byte[]> result = new HashMap<>();
-            cursor.forEachRemaining(x -> {
-                byte[] keyBytes = new byte[x.key().remaining()];
-                x.key().get(keyBytes);
+    private <T> T read(Txn<ByteBuffer> txn, String collection, byte[] key, Function<ByteBuffer, T> reader) {
+        ByteBuffer value = getDatabase(collection).get(txn, keyBuffer(key));
+        if (value == null || value.remaining() == 0) return null;
+        // The memory map is read-only, hand out a view that can't be written to
+        return reader.apply(value.asReadOnlyBuffer());
+    }
 
-                byte[] valueBytes = new byte[x.val().remaining()];
-                x.val().get(valueBytes);
+    @Override
+    public boolean remove(String collection, byte[] key) {
+        final Dbi<ByteBuffer> db = getDatabase(collection);
+        boolean[] removed = new boolean[1];
+        write(txn -> removed[0] = db.delete(txn, keyBuffer(key)));
+        return removed[0];
+    }
 
-                result.put(keyBytes, valueBytes);
-            });
+    /**
+     * Copies the key into the direct key buffer of the current thread. LMDB is done with a key as soon as the call
+     * using it returns, so the buffer is only valid until the next key of this thread is prepared.
+     */
+    private ByteBuffer keyBuffer(byte[] key) {
+        if (key.length > MAX_KEY_SIZE) {
+            // LMDB will refuse the key, let it report the error
+            ByteBuffer buffer = allocateDirect(key.length);
+            buffer.put(key).flip();
+            return buffer;
+        }
+        ByteBuffer buffer = keyBuffers.get();
+        buffer.clear();
+        buffer.put(key).flip();
+        return buffer;
+    }
 
-            return result;
+    /**
+     * Copies the value into a direct value buffer of the current thread, growing the buffer when needed. LMDB copies
+     * the value into the memory map on put, so the buffer can be reused afterwards.
+     */
+    private ByteBuffer valueBuffer(byte[] value) {
+        ByteBuffer buffer = valueBuffers.get();
+        if (buffer == null || buffer.capacity() < value.length) {
+            buffer = allocateDirect(value.length);
+            if (value.length <= MAX_CACHED_VALUE_SIZE) {
+                valueBuffers.set(buffer);
+            }
         }
+        buffer.clear();
+        buffer.put(value).flip();
+        return buffer;
     }
 
     @Override
-    public void initializeCollection(String collectionName) {
-        getDatabase(collectionName);
+    public Map.Entry<byte[], byte[]> last(String collection) {
+        return read(txn -> last(txn, collection));
     }
 
-
-    /**************** BEGIN ONLY USED BY API ************************/
-
+    private Map.Entry<byte[], byte[]> last(Txn<ByteBuffer> txn, String collection) {
+        try (Cursor<ByteBuffer> cursor = getDatabase(collection).openCursor(txn)) {
+            if (!cursor.seek(SeekOp.MDB_LAST)) {
+                return null;
+            }
+            // Key and value point into the memory map, copy them before the transaction ends
+            return new AbstractMap.SimpleEntry<>(toByteArray(cursor.key()), toByteArray(cursor.val()));
+        }
+    }
 
     @Override
-    public long getArrayLength(String collection, String key) {
-        try (Txn<ByteBuffer> txn = env.txnRead()) {
-            final Dbi<ByteBuffer> db = getDatabase(collection);
-
-            // First retrieve count
-            ByteBuffer countBuffer = db.get(txn, toByteBuffer(key));
-            if (countBuffer != null) {
-                // Key exists
-                long count = countBuffer.getLong();
-
-                return count;
-            } else {
-                return 0;
+    public Stream<Map.Entry<byte[], byte[]>> scan(String collection, byte[] fromKey, byte[] toKey, boolean isDescending) {
+        final Dbi<ByteBuffer> db = getDatabase(collection);
+        final Batch batch = currentBatch.get();
+        if (batch != null) {
+            return scan(batch.txn, db, fromKey, toKey, isDescending);
+        }
+
+        // Outside a batch the stream gets a read transaction of its own, which lives until the stream is closed. The
+        // stream holds the resize gate as well, so it has to be closed by the thread that opened it.
+        resizeGate.readLock().lock();
+        final Txn<ByteBuffer> txn;
+        final Cursor<ByteBuffer> cursor;
+        try {
+            txn = env.txnRead();
+            try {
+                cursor = db.openCursor(txn);
+            } catch (RuntimeException e) {
+                txn.close();
+                throw e;
             }
+        } catch (RuntimeException e) {
+            resizeGate.readLock().unlock();
+            throw e;
         }
+
+        CursorSpliterator entries = new CursorSpliterator(cursor, fromKey, toKey, isDescending, true);
+        return StreamSupport.stream(entries, false).onClose(() -> {
+            cursor.close();
+            txn.close();
+            resizeGate.readLock().unlock();
+        });
     }
 
+    /**
+     * Streams a range from a transaction that outlives the stream. Only the current thread may use the transaction, so
+     * the stream is not split for parallel processing.
+     */
+    private Stream<Map.Entry<byte[], byte[]>> scan(Txn<ByteBuffer> txn, Dbi<ByteBuffer> db, byte[] fromKey, byte[] toKey, boolean isDescending) {
+        final Cursor<ByteBuffer> cursor = db.openCursor(txn);
+        CursorSpliterator entries = new CursorSpliterator(cursor, fromKey, toKey, isDescending, false);
+        return StreamSupport.stream(entries, false).onClose(cursor::close);
+    }
 
     @Override
-    public List<byte[]> getArray(String collection, String key, long skip, long take, boolean isDescending) {
-        List<byte[]> result = new ArrayList<>();
-
-        try (Txn<ByteBuffer> txn = env.txnRead()) {
-            final Dbi<ByteBuffer> db = getDatabase(collection);
-
-            // First retrieve count
-            ByteBuffer countBuffer = db.get(txn, toByteBuffer(key));
-            if (countBuffer != null) {
-                // Key exists
-                long count = countBuffer.getLong();
-
-                long startIndex = isDescending ? (count - 1) - skip : skip;
-                long endIndex = isDescending ? startIndex - take : skip + take;
-                long indexIncrement = isDescending ? -1 : 1;
-                for (long i = startIndex; i != endIndex && i >= 0; i += indexIncrement) {
-                    String retrieveKey = key + i;
-
-                    ByteBuffer valueBuffer = db.get(txn, toByteBuffer(retrieveKey));
-
-                    if (valueBuffer != null) {
-                        result.add(toByteArray(valueBuffer));
-                    } else {
-                        // Value could not be found, it means we found the end of the array
-                        break;
-                    }
-                }
-            }
+    public StoreSnapshot snapshot() {
+        final Batch batch = currentBatch.get();
+        if (batch != null) {
+            return new Snapshot(batch, null);
         }
 
-        return result;
+        // Like a stream, the snapshot holds the resize gate for as long as its read transaction lives
+        resizeGate.readLock().lock();
+        try {
+            return new Snapshot(null, env.txnRead());
+        } catch (RuntimeException e) {
+            resizeGate.readLock().unlock();
+            throw e;
+        }
     }
 
     @Override
-    public void addToArray(String collection, String key, ByteBuffer value) {
-        try (Txn<ByteBuffer> readTxn = env.txnRead()) {
-            Dbi<ByteBuffer> db = getDatabase(collection);
+    public void initializeCollection(String collectionName) {
+        getDatabase(collectionName);
+    }
 
-            ByteBuffer arrayLengthBuffer = db.get(readTxn, toByteBuffer(key));
+    /**
+     * Snapshot reading from a read transaction of its own, which LMDB keeps at the state of the moment it started.
+     * Taken inside a batch, it reads through the write transaction of the batch instead, which is replaced when the
+     * batch is replayed on a larger map.
+     */
+    private final class Snapshot implements StoreSnapshot {
+        private final Batch batch;
+        private Txn<ByteBuffer> txn;
+
+        private Snapshot(Batch batch, Txn<ByteBuffer> txn) {
+            this.batch = batch;
+            this.txn = txn;
+        }
 
-            long arrayLength;
-            if (arrayLengthBuffer != null) {
-                arrayLength = arrayLengthBuffer.getLong();
-            } else {
-                // Array does not exist yet
-                arrayLength = 0;
+        private Txn<ByteBuffer> txn() {
+            Txn<ByteBuffer> current = batch != null ? batch.txn : txn;
+            if (current == null) {
+                throw new IllegalStateException("Snapshot is closed");
             }
+            return current;
+        }
 
-            long nextElementId = arrayLength;
-
-            // Update array count
-            ByteBuffer arrayHeaderBuffer = ByteBuffer.allocateDirect(64);
-            arrayHeaderBuffer.putLong(nextElementId + 1);
-            arrayHeaderBuffer.flip();
-
-            db.put(toByteBuffer(key), arrayHeaderBuffer);
+        @Override
+        public byte[] get(String collection, byte[] key) {
+            return LMDBStore.this.get(txn(), collection, key);
+        }
 
-            // Write element
-            db.put(toByteBuffer(key + arrayLength), value);
+        @Override
+        public <T> T read(String collection, byte[] key, Function<ByteBuffer, T> reader) {
+            return LMDBStore.this.read(txn(), collection, key, reader);
         }
-    }
 
+        @Override
+        public Stream<Map.Entry<byte[], byte[]>> scan(String collection, byte[] fromKey, byte[] toKey, boolean isDescending) {
+            return LMDBStore.this.scan(txn(), getDatabase(collection), fromKey, toKey, isDescending);
+        }
 
-    private byte[] toByteArray(ByteBuffer buffer) {
-        byte[] bytes = new byte[buffer.remaining()];
+        @Override
+        public Map.Entry<byte[], byte[]> last(String collection) {
+            return LMDBStore.this.last(txn(), collection);
+        }
 
-        buffer.get(bytes);
+        @Override
+        public Long getEntries(String collectionName) {
+            return LMDBStore.this.getEntries(txn(), collectionName);
+        }
 
-        return bytes;
+        @Override
+        public void close() {
+            if (txn != null) {
+                txn.close();
+                txn = null;
+                resizeGate.readLock().unlock();
+            }
+        }
     }
 
-    private ByteBuffer toByteBuffer(String value) {
-        byte[] bytes = value.getBytes();
-
-        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
-
-        buffer.put(bytes).flip();
-
-        return buffer;
-    }
+    /**
+     * Write transaction of a batch together with the writes applied to it so far. The batch holds the writer gate and
+     * the resize gate until it is closed.
+     */
+    private final class Batch implements StoreBatch {
+        private final List<Consumer<Txn<ByteBuffer>>> writes = new ArrayList<>();
+        private Txn<ByteBuffer> txn;
+        // Size of the map when the transaction started, the map can't change while the transaction is open
+        private long mapSize;
+        private boolean closed;
+
+        private void begin() {
+            mapSize = LMDBStore.this.mapSize;
+            txn = env.txnWrite();
+        }
 
-    @Override
-    public List<byte[]> getAllAPI(String collection, long skip, long take, boolean isDescending) {
-        List<byte[]> result = new ArrayList<>();
-
-        try (Txn<ByteBuffer> txn = env.txnRead()) {
-            Dbi<ByteBuffer> db = getDatabase(collection);
-
-            // Get the amount of elements
-            long count = db.stat(txn).entries;
-
-            // Do some quick checks to prevent reading 'out of bounds'.
-            long baseIndex = isDescending ? count - 1 : 0;
-            long startIndex = isDescending ? baseIndex - skip : baseIndex + skip;
-            long endIndex = isDescending ? startIndex - take : startIndex + take;
-
-            if (isDescending) {
-                if (startIndex < 0)
-                    return result; // Nothing to read
-                if (endIndex < 0) {
-                    // Adjust take
-                    take += endIndex + 1;
-                }
-            } else {
-                if (startIndex >= count)
-                    return result; // Nothing to read
-                if (endIndex >= count) {
-                    // Adjust take
-                    take -= (endIndex - count);
+        @Override
+        public void commit() {
+            if (closed || txn == null) {
+                throw new IllegalStateException("Batch has ended");
+            }
+            while (true) {
+                try {
+                    txn.commit();
+                    break;
+                } catch (Env.MapFullException e) {
+                    grow(this);
                 }
             }
+            endTransaction();
+        }
 
-            Cursor<ByteBuffer> cursor = getDatabase(collection).openCursor(txn);
-
-            // Move to back if reading in descending order
-            cursor.seek(isDescending ? SeekOp.MDB_LAST : SeekOp.MDB_FIRST);
-
-            // Skip
-            for (long i = 0; i < skip; i++) {
-                if (isDescending)
-                    cursor.prev();
-                else
-                    cursor.next();
+        @Override
+        public void close() {
+            if (closed) {
+                return;
             }
+            closed = true;
+            currentBatch.remove();
+            // Closing a write transaction that has not been committed aborts it, discarding the writes of a failed batch
+            endTransaction();
+            resizeGate.readLock().unlock();
+            writerGate.unlock();
+        }
 
-            // Take
-            for (long i = 0; i < take; i++) {
-                result.add(toByteArray(cursor.val()));
-
-                if (isDescending)
-                    cursor.prev();
-                else
-                    cursor.next();
+        private void endTransaction() {
+            if (txn != null) {
+                txn.close();
+                txn = null;
             }
         }
+    }
 
-        return result;
+    private byte[] toNullableByteArray(ByteBuffer buffer) {
+        if (buffer == null || buffer.remaining() == 0) return null;
+        return toByteArray(buffer);
     }
 
+    static byte[] toByteArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
 
-    /**************** END ONLY USED BY API ************************/
+        buffer.get(bytes);
+
+        return bytes;
+    }
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.smilo.commons.db;
+
+import org.lmdbjava.EnvFlags;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Deployment specific settings of an {@link LMDBStore}. The defaults match the settings the store used to hard-code.
+ */
+public class LMDBStoreConfiguration {
+
+    private long initialMapSize = 1_100_485_760;
+    private double growthFactor = 2.0;
+    private int maxDbs = 15;
+    private int maxReaders = 100;
+    private Set<EnvFlags> envFlags = EnumSet.noneOf(EnvFlags.class);
+
+    public long getInitialMapSize() {
+        return initialMapSize;
+    }
+
+    /**
+     * @param initialMapSize size of the memory map when a new database is created. An existing database keeps the
+     *                       size it has grown to when it is larger.
+     */
+    public LMDBStoreConfiguration setInitialMapSize(long initialMapSize) {
+        if (initialMapSize <= 0) {
+            throw new IllegalArgumentException("Initial map size must be positive");
+        }
+        this.initialMapSize = initialMapSize;
+        return this;
+    }
+
+    public double getGrowthFactor() {
+        return growthFactor;
+    }
+
+    /**
+     * @param growthFactor factor the memory map is multiplied with every time the database is full
+     */
+    public LMDBStoreConfiguration setGrowthFactor(double growthFactor) {
+        if (growthFactor <= 1.0) {
+            throw new IllegalArgumentException("Growth factor must be larger than 1");
+        }
+        this.growthFactor = growthFactor;
+        return this;
+    }
+
+    public int getMaxDbs() {
+        return maxDbs;
+    }
+
+    /**
+     * @param maxDbs maximum amount of collections in the database
+     */
+    public LMDBStoreConfiguration setMaxDbs(int maxDbs) {
+        this.maxDbs = maxDbs;
+        return this;
+    }
+
+    public int getMaxReaders() {
+        return maxReaders;
+    }
+
+    /**
+     * @param maxReaders maximum amount of read transactions that can be open at the same time, open streams included
+     */
+    public LMDBStoreConfiguration setMaxReaders(int maxReaders) {
+        this.maxReaders = maxReaders;
+        return this;
+    }
+
+    public Set<EnvFlags> getEnvFlags() {
+        return envFlags;
+    }
+
+    /**
+     * @param envFlags extra flags to open the environment with, for example MDB_NOSYNC, MDB_NOMETASYNC or MDB_WRITEMAP.
+     *                 MDB_NOTLS is always set by the store.
+     */
+    public LMDBStoreConfiguration setEnvFlags(EnvFlags... envFlags) {
+        this.envFlags = envFlags.length == 0 ? EnumSet.noneOf(EnvFlags.class) : EnumSet.copyOf(Arrays.asList(envFlags));
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "initialMapSize: " + initialMapSize + ", growthFactor: " + growthFactor + ", maxDbs: " + maxDbs
+                + ", maxReaders: " + maxReaders + ", envFlags: " + envFlags;
+    }
+}
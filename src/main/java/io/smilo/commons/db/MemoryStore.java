@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.smilo.commons.db;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Store keeping every collection in memory, for tests, benchmarks and nodes that don't need to survive a restart.
+ * Keys are ordered exactly like LMDB orders them, so scans, pagination and {@link #last(String)} behave the same.
+ * <p>
+ * A batch holds the write lock for as long as it runs and keeps an undo log, which is played back when the batch fails.
+ * Reads hold the read lock, so other threads never see the writes of a batch before it completes.
+ * <p>
+ * A snapshot shares the maps of the collections instead of copying them. A collection shared with a snapshot is copied
+ * by the first write to it afterwards, so only collections that are written while snapshots are open are copied, once
+ * per snapshot at most.
+ */
+public class MemoryStore implements Store {
+
+    private static final Comparator<byte[]> KEY_ORDER = KeyUtility::compare;
+
+    private final Map<String, CollectionMap> collections = new ConcurrentHashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Undo log of the batch the current thread is running, if any
+    private final ThreadLocal<Deque<Runnable>> currentBatch = new ThreadLocal<>();
+
+    @Override
+    public void put(String collection, byte[] key, byte[] value) {
+        final byte[] storedKey = key.clone();
+        final byte[] storedValue = value.clone();
+        write(collection, map -> {
+            byte[] previous = map.put(storedKey, storedValue);
+            return () -> restore(collection, storedKey, previous);
+        });
+    }
+
+    @Override
+    public byte[] get(String collection, byte[] key) {
+        byte[] value = readLocked(() -> getCollection(collection).get(key));
+        return value == null ? null : value.clone();
+    }
+
+    @Override
+    public <T> T read(String collection, byte[] key, Function<ByteBuffer, T> reader) {
+        // Stored values are never changed in place, so the reader can run without holding the lock
+        byte[] value = readLocked(() -> getCollection(collection).get(key));
+        return value == null ? null : reader.apply(ByteBuffer.wrap(value).asReadOnlyBuffer());
+    }
+
+    @Override
+    public boolean remove(String collection, byte[] key) {
+        boolean[] removed = new boolean[1];
+        write(collection, map -> {
+            byte[] previous = map.remove(key);
+            removed[0] = previous != null;
+            final byte[] storedKey = key.clone();
+            return () -> restore(collection, storedKey, previous);
+        });
+        return removed[0];
+    }
+
+    @Override
+    public Stream<Map.Entry<byte[], byte[]>> scan(String collection, byte[] fromKey, byte[] toKey, boolean isDescending) {
+        // The range is copied while holding the lock, the stream can then be used like any other collection stream
+        List<Map.Entry<byte[], byte[]>> entries = readLocked(() ->
+                new ArrayList<>(range(getCollection(collection), fromKey, toKey, isDescending).entrySet()));
+        return entries.stream().map(MemoryStore::copy);
+    }
+
+    private static NavigableMap<byte[], byte[]> range(NavigableMap<byte[], byte[]> map, byte[] fromKey, byte[] toKey, boolean isDescending) {
+        NavigableMap<byte[], byte[]> range = map;
+        boolean hasFrom = fromKey != null && fromKey.length > 0;
+        boolean hasTo = toKey != null && toKey.length > 0;
+        if (hasFrom && hasTo) {
+            range = KeyUtility.compare(fromKey, toKey) < 0 ? range.subMap(fromKey, true, toKey, false) : Collections.emptyNavigableMap();
+        } else if (hasFrom) {
+            range = range.tailMap(fromKey, true);
+        } else if (hasTo) {
+            range = range.headMap(toKey, false);
+        }
+        return isDescending ? range.descendingMap() : range;
+    }
+
+    @Override
+    public Map.Entry<byte[], byte[]> last(String collection) {
+        Map.Entry<byte[], byte[]> last = readLocked(() -> getCollection(collection).lastEntry());
+        return last == null ? null : copy(last);
+    }
+
+    @Override
+    public void initializeCollection(String collectionName) {
+        getCollection(collectionName);
+    }
+
+    @Override
+    public void clear(String collectionName) {
+        batch(() -> {
+            CollectionMap previous = collections.put(collectionName, new CollectionMap(new TreeMap<>(KEY_ORDER)));
+            currentBatch.get().push(() -> collections.put(collectionName, previous));
+        });
+    }
+
+    @Override
+    public Long getEntries(String collectionName) {
+        return readLocked(() -> (long) getCollection(collectionName).size());
+    }
+
+    @Override
+    public void batch(Runnable work) {
+        try (StoreBatch batch = beginBatch()) {
+            work.run();
+            batch.commit();
+        }
+    }
+
+    @Override
+    public StoreBatch beginBatch() {
+        if (currentBatch.get() != null) {
+            // Join the batch that is already running on this thread
+            return StoreBatch.JOINED;
+        }
+
+        Deque<Runnable> undo = new ArrayDeque<>();
+        lock.writeLock().lock();
+        currentBatch.set(undo);
+        return new StoreBatch() {
+            private boolean committed;
+            private boolean closed;
+
+            @Override
+            public void commit() {
+                committed = true;
+            }
+
+            @Override
+            public void close() {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                try {
+                    if (!committed) {
+                        // Undo the writes of the batch, latest first
+                        undo.forEach(Runnable::run);
+                    }
+                } finally {
+                    currentBatch.remove();
+                    lock.writeLock().unlock();
+                }
+            }
+        };
+    }
+
+    /**
+     * Takes a snapshot by sharing the map of every collection with it, which only takes as long as there are
+     * collections. Writes copy a shared map before they change it, so the snapshot keeps the maps as they are now.
+     */
+    @Override
+    public StoreSnapshot snapshot() {
+        Map<String, NavigableMap<byte[], byte[]>> maps = readLocked(() -> {
+            Map<String, NavigableMap<byte[], byte[]>> shared = new HashMap<>();
+            collections.forEach((name, collection) -> {
+                collection.shared = true;
+                shared.put(name, collection.map);
+            });
+            return shared;
+        });
+        return new Snapshot(maps);
+    }
+
+    /**
+     * Applies a write to a collection inside the batch of the current thread, starting a batch of its own when there
+     * is none. The write returns how to undo it.
+     */
+    private void write(String collection, Function<NavigableMap<byte[], byte[]>, Runnable> op) {
+        batch(() -> currentBatch.get().push(op.apply(getWritableCollection(collection))));
+    }
+
+    private void restore(String collection, byte[] key, byte[] previous) {
+        if (previous == null) {
+            getWritableCollection(collection).remove(key);
+        } else {
+            getWritableCollection(collection).put(key, previous);
+        }
+    }
+
+    private NavigableMap<byte[], byte[]> getCollection(String collectionName) {
+        return collections.computeIfAbsent(collectionName, name -> new CollectionMap(new TreeMap<>(KEY_ORDER))).map;
+    }
+
+    /**
+     * Returns the map of a collection for a write, which holds the write lock. A map shared with a snapshot is replaced
+     * by a copy first.
+     */
+    private NavigableMap<byte[], byte[]> getWritableCollection(String collectionName) {
+        CollectionMap collection = collections.computeIfAbsent(collectionName, name -> new CollectionMap(new TreeMap<>(KEY_ORDER)));
+        if (collection.shared) {
+            collection = new CollectionMap(new TreeMap<>(collection.map));
+            collections.put(collectionName, collection);
+        }
+        return collection.map;
+    }
+
+    private <T> T readLocked(Supplier<T> read) {
+        lock.readLock().lock();
+        try {
+            return read.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Map of a collection, which is never written to again once it is shared with a snapshot.
+     */
+    private static final class CollectionMap {
+        private final NavigableMap<byte[], byte[]> map;
+        // Set by snapshots while holding the read lock, read by writes while holding the write lock
+        private volatile boolean shared;
+
+        private CollectionMap(NavigableMap<byte[], byte[]> map) {
+            this.map = map;
+        }
+    }
+
+    /**
+     * Snapshot over the maps the collections had when it was taken, which no batch writes to anymore.
+     */
+    private static final class Snapshot implements StoreSnapshot {
+        private final Map<String, NavigableMap<byte[], byte[]>> collections;
+
+        private Snapshot(Map<String, NavigableMap<byte[], byte[]>> collections) {
+            this.collections = collections;
+        }
+
+        private NavigableMap<byte[], byte[]> getCollection(String collectionName) {
+            return collections.getOrDefault(collectionName, Collections.emptyNavigableMap());
+        }
+
+        @Override
+        public byte[] get(String collection, byte[] key) {
+            byte[] value = getCollection(collection).get(key);
+            return value == null ? null : value.clone();
+        }
+
+        @Override
+        public <T> T read(String collection, byte[] key, Function<ByteBuffer, T> reader) {
+            byte[] value = getCollection(collection).get(key);
+            return value == null ? null : reader.apply(ByteBuffer.wrap(value).asReadOnlyBuffer());
+        }
+
+        @Override
+        public Stream<Map.Entry<byte[], byte[]>> scan(String collection, byte[] fromKey, byte[] toKey, boolean isDescending) {
+            return range(getCollection(collection), fromKey, toKey, isDescending).entrySet().stream().map(MemoryStore::copy);
+        }
+
+        @Override
+        public Map.Entry<byte[], byte[]> last(String collection) {
+            Map.Entry<byte[], byte[]> last = getCollection(collection).lastEntry();
+            return last == null ? null : copy(last);
+        }
+
+        @Override
+        public Long getEntries(String collectionName) {
+            return (long) getCollection(collectionName).size();
+        }
+
+        @Override
+        public void close() {
+            // Nothing is held, the maps are left to the garbage collector
+        }
+    }
+
+    private static Map.Entry<byte[], byte[]> copy(Map.Entry<byte[], byte[]> entry) {
+        return new AbstractMap.SimpleImmutableEntry<>(entry.getKey().clone(), entry.getValue().clone());
+    }
+}
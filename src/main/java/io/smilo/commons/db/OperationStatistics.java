@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.smilo.commons.db;
+
+/**
+ * Snapshot of the measurements of one operation type on one collection, kept by {@link DefaultStoreMetrics}.
+ * Percentiles are approximations, accurate to a factor of two.
+ */
+public class OperationStatistics {
+
+    private final String collection;
+    private final String operation;
+    private final long count;
+    private final long bytesRead;
+    private final long bytesWritten;
+    private final long totalNanos;
+    private final long maxNanos;
+    private final long medianNanos;
+    private final long p99Nanos;
+
+    public OperationStatistics(String collection, String operation, long count, long bytesRead, long bytesWritten,
+                               long totalNanos, long maxNanos, long medianNanos, long p99Nanos) {
+        this.collection = collection;
+        this.operation = operation;
+        this.count = count;
+        this.bytesRead = bytesRead;
+        this.bytesWritten = bytesWritten;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+        this.medianNanos = medianNanos;
+        this.p99Nanos = p99Nanos;
+    }
+
+    public String getCollection() {
+        return collection;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    public long getMedianNanos() {
+        return medianNanos;
+    }
+
+    public long getP99Nanos() {
+        return p99Nanos;
+    }
+
+    @Override
+    public String toString() {
+        return collection + " " + operation + ": count " + count + ", read " + bytesRead + " B, written " + bytesWritten
+                + " B, total " + totalNanos / 1_000_000 + " ms, median " + medianNanos / 1000 + " us, p99 "
+                + p99Nanos / 1000 + " us, max " + maxNanos / 1000 + " us";
+    }
+}
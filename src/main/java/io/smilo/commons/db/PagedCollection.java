@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.smilo.commons.db;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * A list stored in a collection under dense, big-endian index keys. Because the keys sort in index order, a page is
+ * read by positioning a cursor directly at its first index and walking it once, instead of stepping over every
+ * skipped entry.
+ * <p>
+ * A paged collection either spans a whole collection, keyed by the 8 byte index alone (like the block collection,
+ * keyed by block number), or is one of many arrays inside a collection. Array elements are keyed by the length of the
+ * array id, the array id and the index, so the elements of an array are stored next to each other. The length of an
+ * array is kept under a header key holding just the length and the array id, which sorts right before its elements.
+ */
+public class PagedCollection {
+
+    private static final int INDEX_LENGTH = Long.BYTES;
+
+    private final Store store;
+    private final String collection;
+    private final byte[] prefix;
+
+    /**
+     * Creates a paged view of a whole collection, which must only contain entries keyed by their index.
+     *
+     * @param store store holding the collection
+     * @param collection collection keyed by index
+     */
+    public PagedCollection(Store store, String collection) {
+        this.store = store;
+        this.collection = collection;
+        this.prefix = null;
+    }
+
+    /**
+     * Creates a paged view of one array inside a collection.
+     *
+     * @param store store holding the collection
+     * @param collection collection holding the array
+     * @param arrayId identifier of the array inside the collection
+     */
+    public PagedCollection(Store store, String collection, String arrayId) {
+        this.store = store;
+        this.collection = collection;
+        byte[] id = arrayId.getBytes(UTF_8);
+        if (id.length == 0 || id.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid array id: " + arrayId);
+        }
+        this.prefix = ByteBuffer.allocate(Short.BYTES + id.length).putShort((short) id.length).put(id).array();
+    }
+
+    /**
+     * @return the amount of elements
+     */
+    public long size() {
+        if (prefix == null) {
+            return store.getEntries(collection);
+        }
+        byte[] header = store.get(collection, prefix);
+        return header == null ? 0 : ByteBuffer.wrap(header).getLong();
+    }
+
+    /**
+     * @param snapshot snapshot of the store holding the collection
+     * @return the amount of elements in the snapshot
+     */
+    public long size(StoreSnapshot snapshot) {
+        if (prefix == null) {
+            return snapshot.getEntries(collection);
+        }
+        byte[] header = snapshot.get(collection, prefix);
+        return header == null ? 0 : ByteBuffer.wrap(header).getLong();
+    }
+
+    /**
+     * @param index index of the element
+     * @return the element, or null when the index is out of range
+     */
+    public byte[] get(long index) {
+        if (index < 0) {
+            return null;
+        }
+        return store.get(collection, key(index));
+    }
+
+    /**
+     * Appends an element to the end of the list.
+     *
+     * @param value the element to append
+     * @return the index of the element
+     */
+    public long append(byte[] value) {
+        return appendAll(Collections.singletonList(value));
+    }
+
+    /**
+     * Appends elements to the end of the list, updating the length once for all of them.
+     *
+     * @param values the elements to append, in order
+     * @return the index of the first element
+     */
+    public long appendAll(List<byte[]> values) {
+        long[] first = new long[1];
+        // Length and elements are read and written in one batch, so concurrent appends can't race
+        store.batch(() -> {
+            first[0] = size();
+            long index = first[0];
+            for (byte[] value : values) {
+                if (prefix == null) {
+                    // Indexes only grow and the array owns the collection, so the element sorts last
+                    store.append(collection, key(index++), value);
+                } else {
+                    // Other arrays usually follow this one in the collection
+                    store.put(collection, key(index++), value);
+                }
+            }
+            if (prefix != null && !values.isEmpty()) {
+                store.put(collection, prefix, ByteBuffer.allocate(Long.BYTES).putLong(index).array());
+            }
+        });
+        return first[0];
+    }
+
+    /**
+     * Removes the elements from the given index to the end of the list.
+     *
+     * @param size the amount of elements to keep
+     */
+    public void truncate(long size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Size must not be negative, got " + size);
+        }
+        store.batch(() -> {
+            long current = size();
+            if (size >= current) {
+                return;
+            }
+            for (long index = size; index < current; index++) {
+                store.remove(collection, key(index));
+            }
+            if (prefix != null) {
+                store.put(collection, prefix, ByteBuffer.allocate(Long.BYTES).putLong(size).array());
+            }
+        });
+    }
+
+    /**
+     * Reads a page of elements.
+     *
+     * @param skip amount of elements to skip, counted from the end when reading in descending order
+     * @param take maximum amount of elements to return
+     * @param isDescending whether to read from the last element down
+     * @return the elements on the page, in the requested order
+     */
+    public List<byte[]> page(long skip, long take, boolean isDescending) {
+        // The size and the elements are read from one snapshot, so the page can't shift in between
+        try (StoreSnapshot snapshot = store.snapshot()) {
+            return page(snapshot, skip, take, isDescending);
+        }
+    }
+
+    /**
+     * Reads a page of elements from a snapshot, for callers reading more data that has to match the page.
+     *
+     * @param snapshot snapshot of the store holding the collection
+     * @param skip amount of elements to skip, counted from the end when reading in descending order
+     * @param take maximum amount of elements to return
+     * @param isDescending whether to read from the last element down
+     * @return the elements on the page, in the requested order
+     */
+    public List<byte[]> page(StoreSnapshot snapshot, long skip, long take, boolean isDescending) {
+        long size = size(snapshot);
+        if (skip < 0 || take <= 0 || skip >= size) {
+            return new ArrayList<>();
+        }
+
+        // Range of indexes on the page, from inclusive to exclusive
+        long from;
+        long to;
+        if (isDescending) {
+            to = size - skip;
+            from = Math.max(0, to - take);
+        } else {
+            from = skip;
+            to = skip + Math.min(take, size - skip);
+        }
+
+        try (Stream<Map.Entry<byte[], byte[]>> entries = snapshot.scan(collection, key(from), key(to), isDescending)) {
+            return entries.map(Map.Entry::getValue).collect(toList());
+        }
+    }
+
+    private byte[] key(long index) {
+        int prefixLength = prefix == null ? 0 : prefix.length;
+        ByteBuffer key = ByteBuffer.allocate(prefixLength + INDEX_LENGTH);
+        if (prefix != null) {
+            key.put(prefix);
+        }
+        return key.putLong(index).array();
+    }
+}
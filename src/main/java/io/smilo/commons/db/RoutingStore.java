@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.smilo.commons.db;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Store routing collections to separate stores, like LMDB environments of their own. LMDB allows one writer per
+ * environment, so writes to collections in different environments commit in parallel, and every environment can have
+ * its own folder, map size and sync flags.
+ * <p>
+ * A batch can't know up front which collections its work uses, so it starts the batch of a store only once the work
+ * first reads or writes one of the collections of that store, and a batch that only uses one store leaves the writers
+ * of the others alone. The batches of the stores are committed in the order they were started, every store commits its
+ * part by itself, so a batch is only atomic per store. Single writes outside a batch only involve the store of their
+ * collection.
+ * <p>
+ * Batches join stores in whatever order their work uses them, so two batches could each wait for a store the other one
+ * holds. The batch that would close such a cycle fails instead of waiting, and all its writes are discarded.
+ */
+public class RoutingStore implements Store {
+
+    private final Store defaultStore;
+    private final Map<String, Store> routes = new HashMap<>();
+    // Every store once, the default store first
+    private final List<Store> stores = new ArrayList<>();
+    // Batches of the stores joined by the batch the current thread is running, if any, in the order they were started
+    private final ThreadLocal<Map<Store, StoreBatch>> currentBatch = new ThreadLocal<>();
+    // Thread running the batch of a store, and the store a thread waits for, guarded by the lock of this store
+    private final Map<Store, Thread> owners = new IdentityHashMap<>();
+    private final Map<Thread, Store> waiting = new HashMap<>();
+
+    /**
+     * @param defaultStore store of the collections without a route
+     */
+    public RoutingStore(Store defaultStore) {
+        this.defaultStore = defaultStore;
+        this.stores.add(defaultStore);
+    }
+
+    /**
+     * Routes a collection to a store. Routes must be set up before the store is used.
+     *
+     * @param collection collection to route
+     * @param store store holding the collection
+     * @return this store
+     */
+    public RoutingStore route(String collection, Store store) {
+        routes.put(collection, store);
+        if (stores.stream().noneMatch(s -> s == store)) {
+            stores.add(store);
+        }
+        return this;
+    }
+
+    /**
+     * @param collection collection to look up
+     * @return the store holding the collection
+     */
+    public Store getStore(String collection) {
+        return routes.getOrDefault(collection, defaultStore);
+    }
+
+    /**
+     * Looks up the store of a collection, joining its batch first when the current thread runs a batch.
+     */
+    private Store join(String collection) {
+        Store store = getStore(collection);
+        Map<Store, StoreBatch> batches = currentBatch.get();
+        if (batches != null && !batches.containsKey(store)) {
+            acquire(store);
+            try {
+                batches.put(store, store.beginBatch());
+            } catch (RuntimeException e) {
+                release(store);
+                throw e;
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Waits until no other batch of this store runs a batch of the given store, failing when the thread running it
+     * waits, directly or through other batches, for a store the current thread holds.
+     */
+    private synchronized void acquire(Store store) {
+        Thread current = Thread.currentThread();
+        while (owners.containsKey(store)) {
+            for (Thread owner = owners.get(store); owner != null; owner = owners.get(waiting.get(owner))) {
+                if (owner == current) {
+                    throw new IllegalStateException("Batch would deadlock waiting for a store held by another batch");
+                }
+                if (!waiting.containsKey(owner)) {
+                    break;
+                }
+            }
+            waiting.put(current, store);
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for a store", e);
+            } finally {
+                waiting.remove(current);
+            }
+        }
+        owners.put(store, current);
+    }
+
+    private synchronized void release(Store store) {
+        owners.remove(store);
+        notifyAll();
+    }
+
+    @Override
+    public void put(String collection, byte[] key, byte[] value) {
+        join(collection).put(collection, key, value);
+    }
+
+    @Override
+    public void append(String collection, byte[] key, byte[] value) {
+        join(collection).append(collection, key, value);
+    }
+
+    @Override
+    public byte[] get(String collection, byte[] key) {
+        return join(collection).get(collection, key);
+    }
+
+    @Override
+    public <T> T read(String collection, byte[] key, Function<ByteBuffer, T> reader) {
+        return join(collection).read(collection, key, reader);
+    }
+
+    @Override
+    public boolean remove(String collection, byte[] key) {
+        return join(collection).remove(collection, key);
+    }
+
+    @Override
+    public Stream<Map.Entry<byte[], byte[]>> scan(String collection, byte[] fromKey, byte[] toKey, boolean isDescending) {
+        return join(collection).scan(collection, fromKey, toKey, isDescending);
+    }
+
+    @Override
+    public Map.Entry<byte[], byte[]> last(String collection) {
+        return join(collection).last(collection);
+    }
+
+    @Override
+    public void initializeCollection(String collectionName) {
+        getStore(collectionName).initializeCollection(collectionName);
+    }
+
+    @Override
+    public void clear(String collectionName) {
+        join(collectionName).clear(collectionName);
+    }
+
+    @Override
+    public Long getEntries(String collectionName) {
+        return join(collectionName).getEntries(collectionName);
+    }
+
+    @Override
+    public void batch(Runnable work) {
+        try (StoreBatch batch = beginBatch()) {
+            work.run();
+            batch.commit();
+        }
+    }
+
+    @Override
+    public StoreBatch beginBatch() {
+        if (currentBatch.get() != null) {
+            return StoreBatch.JOINED;
+        }
+
+        Map<Store, StoreBatch> batches = new LinkedHashMap<>();
+        currentBatch.set(batches);
+        return new StoreBatch() {
+            private boolean closed;
+
+            @Override
+            public void commit() {
+                batches.values().forEach(StoreBatch::commit);
+            }
+
+            @Override
+            public void close() {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                currentBatch.remove();
+                // Closing a batch that was not committed discards its writes, the latest batch is closed first
+                List<Store> joined = new ArrayList<>(batches.keySet());
+                Collections.reverse(joined);
+                RuntimeException failure = null;
+                for (Store store : joined) {
+                    try {
+                        batches.get(store).close();
+                    } catch (RuntimeException e) {
+                        if (failure == null) {
+                            failure = e;
+                        } else {
+                            failure.addSuppressed(e);
+                        }
+                    } finally {
+                        release(store);
+                    }
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+        };
+    }
+
+    @Override
+    public void sync() {
+        stores.forEach(Store::sync);
+    }
+
+    /**
+     * Takes a snapshot of every store. The snapshots are taken one after the other, so they are only consistent per
+     * store.
+     */
+    @Override
+    public StoreSnapshot snapshot() {
+        Map<Store, StoreSnapshot> snapshots = new IdentityHashMap<>();
+        try {
+            stores.forEach(store -> snapshots.put(store, store.snapshot()));
+        } catch (RuntimeException e) {
+            snapshots.values().forEach(StoreSnapshot::close);
+            throw e;
+        }
+        return new StoreSnapshot() {
+            private StoreSnapshot of(String collection) {
+                return snapshots.get(getStore(collection));
+            }
+
+            @Override
+            public byte[] get(String collection, byte[] key) {
+                return of(collection).get(collection, key);
+            }
+
+            @Override
+            public <T> T read(String collection, byte[] key, Function<ByteBuffer, T> reader) {
+                return of(collection).read(collection, key, reader);
+            }
+
+            @Override
+            public Stream<Map.Entry<byte[], byte[]>> scan(String collection, byte[] fromKey, byte[] toKey, boolean isDescending) {
+                return of(collection).scan(collection, fromKey, toKey, isDescending);
+            }
+
+            @Override
+            public Map.Entry<byte[], byte[]> last(String collection) {
+                return of(collection).last(collection);
+            }
+
+            @Override
+            public Long getEntries(String collectionName) {
+                return of(collectionName).getEntries(collectionName);
+            }
+
+            @Override
+            public void close() {
+                snapshots.values().forEach(StoreSnapshot::close);
+            }
+        };
+    }
+}
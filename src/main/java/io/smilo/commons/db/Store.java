@@ -19,6 +19,9 @@ package io.smilo.commons.db;
 import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 /**
  * Generic Store interface, which could be implemented by different databases. Used to separate database specific logic
@@ -34,6 +37,18 @@ public interface Store {
      */
     void put(String collection, byte[] key, byte[] value);
 
+    /**
+     * Stores a value whose key is expected to sort after every key in the collection, like the next element of a list.
+     * Implementations may use this to skip searching for the insert position, but must fall back to a regular put when
+     * the key does not sort last. The fallback may cost a failed attempt first, so only use this where keys keep growing.
+     * @param collection collection to save to
+     * @param key identifier of the entity
+     * @param value the entity to store
+     */
+    default void append(String collection, byte[] key, byte[] value) {
+        put(collection, key, value);
+    }
+
     /**
      * Retrieves an entity from the database by key
      * @param collection collection to retrieve from
@@ -42,6 +57,17 @@ public interface Store {
      */
     byte[] get(String collection, byte[] key);
 
+    /**
+     * Retrieves an entity from the database by key without copying it. The reader receives a read-only view of the
+     * stored value, which is only valid while the reader runs, so the reader must not keep a reference to it.
+     * @param collection collection to retrieve from
+     * @param key key to query for
+     * @param reader function decoding the stored value
+     * @param <T> type of the decoded entity
+     * @return the decoded entity, or null when the key does not exist
+     */
+    <T> T read(String collection, byte[] key, Function<ByteBuffer, T> reader);
+
     /**
      * Removes an entity from the database by key
      * @param collection collection to remove from
@@ -51,11 +77,38 @@ public interface Store {
     boolean remove(String collection, byte[] key);
 
     /**
-     * Retrieves all entities from the specified collection
-     * @param collection collection to retrieve from
-     * @return A list of entities
+     * Streams the entries of a collection in key order, from fromKey (inclusive) up to toKey (exclusive). Keys are
+     * compared as unsigned bytes. The stream holds database resources until it is closed, so always use it in a
+     * try-with-resources block. A stream opened inside a batch sees the pending writes of the batch and must be consumed
+     * by the current thread before the batch ends.
+     * @param collection collection to scan
+     * @param fromKey lowest key to include, or null to start at the first entry
+     * @param toKey key to stop before, or null to run to the last entry
+     * @param isDescending whether to walk the range from the highest key down
+     * @return the entries in the range
+     */
+    Stream<Map.Entry<byte[], byte[]>> scan(String collection, byte[] fromKey, byte[] toKey, boolean isDescending);
+
+    /**
+     * Streams all entries of a collection in key order. See {@link #scan(String, byte[], byte[], boolean)}.
+     * @param collection collection to scan
+     * @return all entries of the collection
+     */
+    default Stream<Map.Entry<byte[], byte[]>> scan(String collection) {
+        return scan(collection, null, null, false);
+    }
+
+    /**
+     * Streams the entries of a collection whose key starts with the given prefix. See
+     * {@link #scan(String, byte[], byte[], boolean)}.
+     * @param collection collection to scan
+     * @param prefix prefix of the keys to include
+     * @param isDescending whether to walk the range from the highest key down
+     * @return the entries with the prefix
      */
-    Map<byte[], byte[]> getAll(String collection);
+    default Stream<Map.Entry<byte[], byte[]>> scanPrefix(String collection, byte[] prefix, boolean isDescending) {
+        return scan(collection, prefix, KeyUtility.prefixEnd(prefix), isDescending);
+    }
 
     /**
      * Retrieves last entity of the specified collection
@@ -83,16 +136,65 @@ public interface Store {
      */
     Long getEntries(String collectionName);
 
+    /**
+     * Runs the given work as one atomic write batch. Every put, remove and clear issued by the current thread while the
+     * work runs is committed together when the outermost batch finishes, or discarded when the work throws.
+     * Reads issued by the current thread inside the batch see its pending writes. Nested calls join the enclosing batch.
+     * Collections used inside a batch must have been initialized beforehand.
+     * @param work the work to run inside the batch
+     */
+    void batch(Runnable work);
 
+    /**
+     * Starts a write batch on the current thread without taking its work, see {@link #batch(Runnable)}. Meant for stores
+     * combining other stores, which join the batch of a store only once their work touches it. When the current thread
+     * already runs a batch of this store, the returned batch joins it.
+     * @return the started batch, which must be ended on the current thread
+     */
+    StoreBatch beginBatch();
 
+    /**
+     * Runs the given work as a write batch without waiting for it. Implementations may queue the work and commit the
+     * work of many callers together, which saves a commit per caller, so the work should only write to the store and
+     * must not wait for other asynchronous writes. Queued work is committed in the order it was submitted. The default
+     * implementation commits the work right away.
+     * @param work the work to run inside the batch
+     * @return future completing once the writes are committed durably, or completing exceptionally when the work fails
+     */
+    default CompletableFuture<Void> batchAsync(Runnable work) {
+        CompletableFuture<Void> committed = new CompletableFuture<>();
+        try {
+            batch(work);
+            sync();
+            committed.complete(null);
+        } catch (RuntimeException e) {
+            committed.completeExceptionally(e);
+        }
+        return committed;
+    }
 
-    /**************** BEGIN ONLY USED BY API ************************/
-    long getArrayLength(String collection, String key);
-    void addToArray(String collection, String key, ByteBuffer value);
-    List<byte[]> getArray(String collection, String key, long skip, long take, boolean isDescending);
-    List<byte[]> getAllAPI(String collection, long skip, long take, boolean isDescending);
-
-    /**************** END ONLY USED BY API ************************/
+    /**
+     * Stores a value without waiting for it. See {@link #batchAsync(Runnable)}.
+     * @param collection collection to save to
+     * @param key identifier of the entity
+     * @param value the entity to store
+     * @return future completing once the value is committed durably
+     */
+    default CompletableFuture<Void> putAsync(String collection, byte[] key, byte[] value) {
+        return batchAsync(() -> put(collection, key, value));
+    }
 
+    /**
+     * Flushes committed writes to disk. Does nothing when every commit is already flushed by itself.
+     */
+    default void sync() {
+    }
 
+    /**
+     * Takes a read-only snapshot of the store, so several reads see one consistent state. A snapshot taken inside a
+     * batch reads through the batch and sees its pending writes, like any other read inside the batch. Long-lived
+     * snapshots hold back maintenance of the store, like growing its storage, so close them as soon as possible.
+     * @return a snapshot of the current state, which must be closed
+     */
+    StoreSnapshot snapshot();
 }
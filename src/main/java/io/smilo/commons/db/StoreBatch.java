@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.smilo.commons.db;
+
+/**
+ * Write batch of a {@link Store} started by {@link Store#beginBatch()}, for callers that can't hand over their work as
+ * a whole. Every write of the thread that started the batch joins it until the batch ends, so it must be committed and
+ * closed on that thread. Always use it in a try-with-resources block, closing a batch that was not committed discards
+ * its writes.
+ */
+public interface StoreBatch extends AutoCloseable {
+
+    /**
+     * Batch handed out when the current thread already runs a batch of the store. It joins that batch, which is ended
+     * by whoever started it, so ending this one has no effect.
+     */
+    StoreBatch JOINED = new StoreBatch() {
+        @Override
+        public void commit() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    /**
+     * Commits the writes of the batch.
+     */
+    void commit();
+
+    /**
+     * Ends the batch, discarding its writes unless it was committed. Closing a batch twice has no effect.
+     */
+    @Override
+    void close();
+}
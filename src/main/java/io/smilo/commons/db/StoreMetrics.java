@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.smilo.commons.db;
+
+import java.util.function.Supplier;
+
+/**
+ * Registry receiving the measurements of an {@link InstrumentedStore}. Implement it to publish the measurements to a
+ * monitoring system, or use {@link DefaultStoreMetrics} to keep them in memory.
+ */
+public interface StoreMetrics {
+
+    /**
+     * Collection name used for operations that span collections, like batches.
+     */
+    String ALL_COLLECTIONS = "*";
+
+    /**
+     * Records one store operation.
+     * @param collection collection the operation ran on
+     * @param operation type of the operation, like get, put or scan
+     * @param durationNanos time the operation took
+     * @param bytesRead size of the keys and values read
+     * @param bytesWritten size of the keys and values written
+     */
+    void recordOperation(String collection, String operation, long durationNanos, long bytesRead, long bytesWritten);
+
+    /**
+     * Registers a value that is sampled whenever the metrics are published, like the utilisation of the database.
+     * @param name name of the value
+     * @param gauge supplies the current value
+     */
+    void registerGauge(String name, Supplier<? extends Number> gauge);
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.smilo.commons.db;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Read-only view of a {@link Store} as it was when the snapshot was taken. Every read against the snapshot sees the
+ * same state, no matter what is written to the store in the meantime, so a series of lookups can't observe half of a
+ * batch. A snapshot pins database resources until it is closed, so always use it in a try-with-resources block, and
+ * use and close it on the thread that took it.
+ */
+public interface StoreSnapshot extends AutoCloseable {
+
+    /**
+     * Retrieves an entity from the snapshot by key. See {@link Store#get(String, byte[])}.
+     * @param collection collection to retrieve from
+     * @param key key to query for
+     * @return the entity, or null when the key does not exist
+     */
+    byte[] get(String collection, byte[] key);
+
+    /**
+     * Retrieves an entity from the snapshot by key without copying it. See {@link Store#read(String, byte[], Function)}.
+     * @param collection collection to retrieve from
+     * @param key key to query for
+     * @param reader function decoding the stored value
+     * @param <T> type of the decoded entity
+     * @return the decoded entity, or null when the key does not exist
+     */
+    <T> T read(String collection, byte[] key, Function<ByteBuffer, T> reader);
+
+    /**
+     * Streams the entries of a collection in key order. See {@link Store#scan(String, byte[], byte[], boolean)}. The
+     * stream must be closed before the snapshot is.
+     * @param collection collection to scan
+     * @param fromKey lowest key to include, or null to start at the first entry
+     * @param toKey key to stop before, or null to run to the last entry
+     * @param isDescending whether to walk the range from the highest key down
+     * @return the entries in the range
+     */
+    Stream<Map.Entry<byte[], byte[]>> scan(String collection, byte[] fromKey, byte[] toKey, boolean isDescending);
+
+    /**
+     * Streams all entries of a collection in key order. See {@link #scan(String, byte[], byte[], boolean)}.
+     * @param collection collection to scan
+     * @return all entries of the collection
+     */
+    default Stream<Map.Entry<byte[], byte[]>> scan(String collection) {
+        return scan(collection, null, null, false);
+    }
+
+    /**
+     * Streams the entries of a collection whose key starts with the given prefix. See
+     * {@link #scan(String, byte[], byte[], boolean)}.
+     * @param collection collection to scan
+     * @param prefix prefix of the keys to include
+     * @param isDescending whether to walk the range from the highest key down
+     * @return the entries with the prefix
+     */
+    default Stream<Map.Entry<byte[], byte[]>> scanPrefix(String collection, byte[] prefix, boolean isDescending) {
+        return scan(collection, prefix, KeyUtility.prefixEnd(prefix), isDescending);
+    }
+
+    /**
+     * Retrieves last entity of the specified collection
+     * @param collection collection to retrieve from
+     * @return the last entity of the collection
+     */
+    Map.Entry<byte[], byte[]> last(String collection);
+
+    /**
+     * Retrieves the amount of entities in a collection
+     * @param collectionName collection to query
+     * @return amount of entities
+     */
+    Long getEntries(String collectionName);
+
+    /**
+     * Releases the snapshot. Closing a snapshot twice has no effect.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.smilo.commons.db;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encoding applied to the values of a collection before they are stored, like compression. See
+ * {@link CompressingStore}.
+ */
+public interface ValueCodec {
+
+    /**
+     * Identifies the codec in the stored values, so they can still be decoded after the configuration changes. Ids are
+     * stored as a single byte and 0 is reserved for values that are stored as they are.
+     * @return id of the codec
+     */
+    byte getId();
+
+    /**
+     * Encodes a value before it is stored
+     * @param value the value to encode
+     * @return the encoded value
+     */
+    byte[] encode(byte[] value);
+
+    /**
+     * Decodes a stored value
+     * @param encoded the encoded value, positioned after the codec id
+     * @return the original value
+     */
+    byte[] decode(ByteBuffer encoded);
+}
@@ -12,6 +12,7 @@ import org.springframework.stereotype.Component;
 
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 //private String address;
 //private BigInteger balance;
 //private int signatureCount;
@@ -26,7 +27,18 @@ public class AccountParser implements Parser<Account> {
     public Account deserialize(byte[] raw) {
         if (raw.length == 0) return null;
         MessageBufferInput data = new ArrayBufferInput(raw);
-        MessageUnpacker msgpack = MessagePack.newDefaultUnpacker(data);
+        return deserialize(MessagePack.newDefaultUnpacker(data));
+    }
+
+    @Override
+    public Account deserialize(ByteBuffer raw) {
+        if (!raw.hasRemaining()) return null;
+        // msgpack reads direct and array backed buffers in place, anything else has to be copied first
+        if (!raw.isDirect() && !raw.hasArray()) return Parser.super.deserialize(raw);
+        return deserialize(MessagePack.newDefaultUnpacker(raw));
+    }
+
+    private Account deserialize(MessageUnpacker msgpack) {
         try {
             msgpack.unpackByte(); // Skip version number
             String address = msgpack.unpackString();
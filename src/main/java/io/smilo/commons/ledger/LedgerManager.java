@@ -18,17 +18,19 @@ package io.smilo.commons.ledger;
 
 import io.smilo.commons.HashUtility;
 import io.smilo.commons.block.data.transaction.Transaction;
+import io.smilo.commons.db.StoreSnapshot;
 import org.apache.log4j.Logger;
 import org.springframework.stereotype.Component;
 
 import java.math.BigInteger;
-import java.util.Comparator;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
+import java.util.stream.Stream;
 import org.spongycastle.util.encoders.Hex;
 
-import static java.util.stream.Collectors.joining;
-
 @Component
 public class LedgerManager {
 
@@ -51,8 +53,34 @@ public class LedgerManager {
      * @return HEX SHA256 hash of the ledger
      */
     public String getLedgerHash() {
-        String fulllLedgerAsString = ledgerStore.getAccounts().stream().sorted(Comparator.naturalOrder()).map(t -> Hex.toHexString(accountParser.serialize(t))).collect(joining("\n"));
-        return HashUtility.digestSHA256ToHEX(fulllLedgerAsString);
+        try (StoreSnapshot snapshot = ledgerStore.snapshot()) {
+            return getLedgerHash(snapshot);
+        }
+    }
+
+    /**
+     * Hashes the entire ledger as it was when the snapshot was taken.
+     *
+     * @param snapshot snapshot to read from
+     * @return HEX SHA256 hash of the ledger
+     */
+    public String getLedgerHash(StoreSnapshot snapshot) {
+        // The accounts are hashed as the newline separated hex of every account sorted by address. The store already
+        // returns them ordered by address, so they are streamed into the digest without holding the ledger in memory.
+        try (Stream<Account> accounts = ledgerStore.streamAccounts(snapshot)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            Iterator<Account> iterator = accounts.iterator();
+            while (iterator.hasNext()) {
+                digest.update(Hex.encode(accountParser.serialize(iterator.next())));
+                if (iterator.hasNext()) {
+                    digest.update((byte) '\n');
+                }
+            }
+            return HashUtility.toHEXString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            LOGGER.error("Unable to hash the ledger", e);
+            return null;
+        }
     }
 
     /**
@@ -133,6 +161,17 @@ public class LedgerManager {
         return ledgerStore.getByAddress(address).map(Account::getSignatureCount).orElse(-1);
     }
 
+    /**
+     * Returns the signature count of an address as it was when the snapshot was taken.
+     *
+     * @param snapshot snapshot to read from
+     * @param address Address to get the signature count of
+     * @return int Signature count of the address, or -1 when the address is unknown
+     */
+    public int getAddressSignatureCount(StoreSnapshot snapshot, String address) {
+        return ledgerStore.getByAddress(snapshot, address).map(Account::getSignatureCount).orElse(-1);
+    }
+
     /**
      * Adjusts an address's signature count.
      *
@@ -178,6 +217,26 @@ public class LedgerManager {
         return ledgerStore.getByAddress(address).map(Account::getBalance).orElse(BigInteger.ZERO);
     }
 
+    /**
+     * Returns the balance of an address as it was when the snapshot was taken.
+     *
+     * @param snapshot snapshot to read from
+     * @param address Account to check balance of
+     * @return Balance of address
+     */
+    public BigInteger getAddressBalance(StoreSnapshot snapshot, String address) {
+        return ledgerStore.getByAddress(snapshot, address).map(Account::getBalance).orElse(BigInteger.ZERO);
+    }
+
+    /**
+     * Takes a snapshot of the ledger, so several lookups see it in one consistent state.
+     *
+     * @return a snapshot of the ledger, which must be closed
+     */
+    public StoreSnapshot snapshot() {
+        return ledgerStore.snapshot();
+    }
+
     /**
      * Adjusts the balance of an address by a given adjustment, which can be positive or negative.
      *
@@ -17,15 +17,15 @@
 package io.smilo.commons.ledger;
 
 import io.smilo.commons.db.Store;
+import io.smilo.commons.db.StoreSnapshot;
 import org.apache.log4j.Logger;
 import org.springframework.stereotype.Component;
 
 import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
-import java.util.Collection;
-import java.util.LinkedList;
-import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 @Component
 public class LedgerStore {
@@ -43,12 +43,29 @@ public class LedgerStore {
         this.accountParser = new AccountParser();
     }
 
-    Collection<Account> getAccounts() {
-        Collection<Account> ret = new LinkedList<>();
-        for(Map.Entry<byte[], byte[]> entry : store.getAll(COLLECTION_NAME).entrySet()){
-            ret.add(accountParser.deserialize(entry.getValue()));
-        }
-        return ret;
+    /**
+     * Streams all accounts ordered by address. The stream holds database resources and must be closed.
+     * @return all accounts in the ledger
+     */
+    Stream<Account> streamAccounts() {
+        return store.scan(COLLECTION_NAME).map(entry -> accountParser.deserialize(entry.getValue()));
+    }
+
+    /**
+     * Streams all accounts of a snapshot ordered by address. The stream must be closed before the snapshot.
+     * @param snapshot snapshot to read from
+     * @return all accounts in the ledger when the snapshot was taken
+     */
+    Stream<Account> streamAccounts(StoreSnapshot snapshot) {
+        return snapshot.scan(COLLECTION_NAME).map(entry -> accountParser.deserialize(entry.getValue()));
+    }
+
+    /**
+     * Takes a snapshot of the store, so several lookups see the ledger in one consistent state.
+     * @return a snapshot of the ledger, which must be closed
+     */
+    public StoreSnapshot snapshot() {
+        return store.snapshot();
     }
 
     public void clearAccounts() {
@@ -76,15 +93,28 @@ public class LedgerStore {
     }
 
     public Optional<Account> getByAddress(String address) {
+        return getByAddress(address, key -> store.read(COLLECTION_NAME, key, accountParser::deserialize));
+    }
+
+    /**
+     * Looks up an account in a snapshot of the ledger.
+     * @param snapshot snapshot to read from
+     * @param address address of the account
+     * @return the account as it was when the snapshot was taken
+     */
+    public Optional<Account> getByAddress(StoreSnapshot snapshot, String address) {
+        return getByAddress(address, key -> snapshot.read(COLLECTION_NAME, key, accountParser::deserialize));
+    }
+
+    private Optional<Account> getByAddress(String address, Function<byte[], Account> lookup) {
         Optional<Account> ret = Optional.empty();
         if(address != null) {
             try {
-                byte[] bytesAcc = store.get(COLLECTION_NAME, address.getBytes(StandardCharsets.UTF_8));
-                if(bytesAcc == null || bytesAcc.length < 1){
+                Account acc = lookup.apply(address.getBytes(StandardCharsets.UTF_8));
+                if(acc == null){
                     LOGGER.debug("ADDRESS "+ address +" UNKNOWN BALANCE $0 ADDED.");
                     return ret;
                 }
-                Account acc = accountParser.deserialize(bytesAcc);
                 ret = Optional.of(acc);
             } catch (NullPointerException | IndexOutOfBoundsException ex) {
                 LOGGER.debug("ADDRESS "+ address +" UNKNOWN BALANCE $0 ADDED.");
@@ -93,6 +123,28 @@ public class LedgerStore {
         return ret;
     }
 
+    /**
+     * Reads an account as it is stored, without decoding it.
+     * @param address address of the account
+     * @return the serialized account, or null when the address is unknown
+     */
+    byte[] getSerialized(String address) {
+        return store.get(COLLECTION_NAME, address.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Puts back an account read by {@link #getSerialized(String)}.
+     * @param address address of the account
+     * @param serialized the serialized account, or null to remove the account
+     */
+    void restoreSerialized(String address, byte[] serialized) {
+        if (serialized == null) {
+            remove(address);
+        } else {
+            store.put(COLLECTION_NAME, address.getBytes(StandardCharsets.UTF_8), serialized);
+        }
+    }
+
     public void remove(String address) {
         store.remove(COLLECTION_NAME, address.getBytes(StandardCharsets.UTF_8));
     }
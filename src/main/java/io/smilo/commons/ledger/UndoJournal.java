@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.smilo.commons.ledger;
+
+import io.smilo.commons.Hash32;
+import io.smilo.commons.db.Store;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Journal of the accounts every applied block touched, as they were stored before the block was applied. Undoing a
+ * block puts these pre-images back as they are, so a rollback restores balances, signature counts and state exactly
+ * and doesn't have to verify any signatures.
+ * <p>
+ * Journals are keyed by the blockNum followed by the hash of their block, so a block of every fork at the same height
+ * has its own journal, and journals of blocks that are final can be pruned by walking the oldest keys. A block is final
+ * once the chain is finalityDepth blocks longer, forks that deep are never resolved.
+ */
+@Component
+public class UndoJournal {
+
+    static final String COLLECTION_NAME = "undojournal";
+    // Marks an account that didn't exist before the block
+    private static final int ABSENT = -1;
+
+    private final Store store;
+    private final LedgerStore ledgerStore;
+    private final int finalityDepth;
+
+    public UndoJournal(Store store, LedgerStore ledgerStore, @Value("${UNDO_FINALITY_DEPTH:1000}") int finalityDepth) {
+        if (finalityDepth < 1) {
+            throw new IllegalArgumentException("Finality depth must be at least one block, got " + finalityDepth);
+        }
+        this.store = store;
+        this.ledgerStore = ledgerStore;
+        this.finalityDepth = finalityDepth;
+        store.initializeCollection(COLLECTION_NAME);
+    }
+
+    /**
+     * Records the accounts a block is about to change, must be called before the block is applied. Prunes the journals
+     * of the blocks that become final.
+     *
+     * @param blockNum blockNum of the block
+     * @param blockHash hash of the block
+     * @param addresses addresses of the accounts the block changes
+     */
+    public void record(long blockNum, Hash32 blockHash, Collection<String> addresses) {
+        Map<String, byte[]> preImages = new LinkedHashMap<>();
+        for (String address : addresses) {
+            // An account that doesn't exist yet is recorded as absent, so a rollback removes it again
+            if (!preImages.containsKey(address)) {
+                preImages.put(address, ledgerStore.getSerialized(address));
+            }
+        }
+
+        int length = Integer.BYTES;
+        for (Map.Entry<String, byte[]> preImage : preImages.entrySet()) {
+            byte[] account = preImage.getValue();
+            length += Short.BYTES + preImage.getKey().getBytes(UTF_8).length + Integer.BYTES + (account == null ? 0 : account.length);
+        }
+        ByteBuffer journal = ByteBuffer.allocate(length).putInt(preImages.size());
+        preImages.forEach((address, account) -> {
+            byte[] key = address.getBytes(UTF_8);
+            journal.putShort((short) key.length).put(key);
+            if (account == null) {
+                journal.putInt(ABSENT);
+            } else {
+                journal.putInt(account.length).put(account);
+            }
+        });
+
+        store.batch(() -> {
+            store.put(COLLECTION_NAME, key(blockNum, blockHash), journal.array());
+            prune(blockNum - finalityDepth);
+        });
+    }
+
+    /**
+     * Restores the accounts of a block to how they were before it was applied. Blocks must be rolled back latest
+     * first, in the reverse order they were applied in.
+     *
+     * @param blockNum blockNum of the block
+     * @param blockHash hash of the block
+     * @return true when the accounts were restored, false when the block has no journal
+     */
+    public boolean rollback(long blockNum, Hash32 blockHash) {
+        byte[] key = key(blockNum, blockHash);
+        boolean[] restored = new boolean[1];
+        store.batch(() -> {
+            Map<String, byte[]> preImages = store.read(COLLECTION_NAME, key, UndoJournal::decode);
+            restored[0] = preImages != null;
+            if (preImages != null) {
+                preImages.forEach(ledgerStore::restoreSerialized);
+                store.remove(COLLECTION_NAME, key);
+            }
+        });
+        return restored[0];
+    }
+
+    /**
+     * @param blockNum blockNum of the block
+     * @param blockHash hash of the block
+     * @return true when the block has a journal
+     */
+    public boolean contains(long blockNum, Hash32 blockHash) {
+        return store.read(COLLECTION_NAME, key(blockNum, blockHash), buffer -> Boolean.TRUE) != null;
+    }
+
+    /**
+     * Removes the journals of the blocks up to and including a blockNum.
+     *
+     * @param blockNum last blockNum to remove the journals of
+     */
+    public void prune(long blockNum) {
+        if (blockNum < 0) {
+            return;
+        }
+        store.batch(() -> {
+            List<byte[]> finalized;
+            try (Stream<Map.Entry<byte[], byte[]>> journals = store.scan(COLLECTION_NAME, null, ByteBuffer.allocate(Long.BYTES).putLong(blockNum + 1).array(), false)) {
+                finalized = journals.map(Map.Entry::getKey).collect(Collectors.toList());
+            }
+            finalized.forEach(key -> store.remove(COLLECTION_NAME, key));
+        });
+    }
+
+    /**
+     * Removes all journals.
+     */
+    public void clear() {
+        store.clear(COLLECTION_NAME);
+    }
+
+    private static byte[] key(long blockNum, Hash32 blockHash) {
+        return blockHash.writeTo(ByteBuffer.allocate(Long.BYTES + Hash32.LENGTH).putLong(blockNum)).array();
+    }
+
+    private static Map<String, byte[]> decode(ByteBuffer buffer) {
+        int size = buffer.getInt();
+        Map<String, byte[]> preImages = new LinkedHashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            byte[] address = new byte[buffer.getShort()];
+            buffer.get(address);
+            int length = buffer.getInt();
+            byte[] account = null;
+            if (length != ABSENT) {
+                account = new byte[length];
+                buffer.get(account);
+            }
+            preImages.put(new String(address, UTF_8), account);
+        }
+        return preImages;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.smilo.commons.peer;
+
+import io.smilo.commons.Hash32;
+import io.smilo.commons.block.OrphanBlockPool;
+import io.smilo.commons.peer.payloadhandler.PayloadType;
+import org.apache.log4j.Logger;
+import org.springframework.stereotype.Component;
+
+/**
+ * Requests the blocks that queued blocks are waiting for from the peers. Blocks are requested by blockNum, as peers
+ * serve GET_BLOCK requests by blockNum.
+ */
+@Component
+public class OrphanParentRequester implements OrphanBlockPool.Listener {
+
+    private static final Logger LOGGER = Logger.getLogger(OrphanParentRequester.class);
+
+    private final PeerSender peerSender;
+
+    public OrphanParentRequester(OrphanBlockPool orphanPool, PeerSender peerSender) {
+        this.peerSender = peerSender;
+        orphanPool.addListener(this);
+    }
+
+    @Override
+    public void onMissingParent(Hash32 parentHash, long parentBlockNum) {
+        LOGGER.info("Requesting block " + parentBlockNum + " with hash " + parentHash.toHex().substring(0, 20) + "...");
+        peerSender.broadcast(PayloadType.GET_BLOCK, Long.toString(parentBlockNum));
+    }
+}
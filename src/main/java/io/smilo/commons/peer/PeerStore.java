@@ -1,9 +1,11 @@
 package io.smilo.commons.peer;
 
 import io.smilo.commons.db.Store;
+import org.apache.log4j.Logger;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
+import java.util.stream.Stream;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.stream.Collectors.toSet;
@@ -11,6 +13,7 @@ import static java.util.stream.Collectors.toSet;
 @Component
 public class PeerStore {
 
+    private static final Logger LOGGER = Logger.getLogger(PeerStore.class);
     private final static String COLLECTION_NAME = "peer";
 
     private final Store store;
@@ -24,26 +27,35 @@ public class PeerStore {
         store.initializeCollection(COLLECTION_NAME);
     }
 
+    // Peers are served from memory once loaded, so the peer handler threads don't wait for the database to commit
     public void save(IPeer peer) {
-        store.put(COLLECTION_NAME, peer.getIdentifier().getBytes(UTF_8), peerEncoder.encode(peer));
+        store.putAsync(COLLECTION_NAME, peer.getIdentifier().getBytes(UTF_8), peerEncoder.encode(peer))
+                .exceptionally(e -> {
+                    LOGGER.error("Unable to save peer " + peer.getIdentifier(), e);
+                    return null;
+                });
         peers.put(peer.getIdentifier(), peer);
     }
 
     public void remove(IPeer peer) {
-        boolean result = store.remove(COLLECTION_NAME, peer.getIdentifier().getBytes(UTF_8));
-        if (result) {
-            peers.remove(peer.getIdentifier());
-        }
+        // Queued behind any pending save of the same peer
+        store.batchAsync(() -> store.remove(COLLECTION_NAME, peer.getIdentifier().getBytes(UTF_8)))
+                .exceptionally(e -> {
+                    LOGGER.error("Unable to remove peer " + peer.getIdentifier(), e);
+                    return null;
+                });
+        peers.remove(peer.getIdentifier());
     }
 
     public Collection<IPeer> getPeers() {
         if (peers.isEmpty()) {
-            Set<IPeer> peers =  store.getAll(COLLECTION_NAME).entrySet()
-                    .stream()
-                    .map(entry -> peerEncoder.decode(entry.getValue()))
-                    .filter(Objects::nonNull)
-                    .collect(toSet());
-            peers.forEach(p -> this.peers.put(p.getIdentifier(), p));
+            try (Stream<Map.Entry<byte[], byte[]>> entries = store.scan(COLLECTION_NAME)) {
+                Set<IPeer> peers = entries
+                        .map(entry -> peerEncoder.decode(entry.getValue()))
+                        .filter(Objects::nonNull)
+                        .collect(toSet());
+                peers.forEach(p -> this.peers.put(p.getIdentifier(), p));
+            }
 
         }
         return this.peers.values();
@@ -57,7 +69,8 @@ public class PeerStore {
     }
 
     public void clear() {
-        store.clear(COLLECTION_NAME);
+        // Waits for the pending saves, so none of them brings a peer back afterwards
+        store.batchAsync(() -> store.clear(COLLECTION_NAME)).join();
         peers.clear();
     }
 
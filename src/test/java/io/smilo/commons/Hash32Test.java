@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.smilo.commons;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+@Category({StableTests.class})
+public class Hash32Test {
+
+    private final String hex = HashUtility.digestSHA256ToHEX("block");
+
+    @Test
+    public void testHexRoundTrip() {
+        Hash32 hash = Hash32.fromHex(hex);
+        assertEquals(hex, hash.toHex());
+        assertEquals(hash, Hash32.fromHex(hex.toLowerCase()));
+        assertArrayEquals(HashUtility.digestSHA256("block"), hash.toBytes());
+    }
+
+    @Test
+    public void testInvalidHex() {
+        assertNull(Hash32.tryParse(null));
+        assertNull(Hash32.tryParse("XXXXXXXXXXXXXXX"));
+        assertNull(Hash32.tryParse(hex.substring(2) + "XX"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFromHexRejectsInvalidHex() {
+        Hash32.fromHex("unknownHash");
+    }
+
+    @Test
+    public void testReadAndWrite() {
+        Hash32 hash = Hash32.fromHex(hex);
+        ByteBuffer buffer = hash.writeTo(ByteBuffer.allocate(Hash32.LENGTH + 1).put((byte) 1));
+        buffer.position(1);
+        assertEquals(hash, Hash32.read(buffer));
+    }
+
+    @Test
+    public void testEqualsAndOrder() {
+        Hash32 hash = Hash32.fromHex(hex);
+        Set<Hash32> hashes = new HashSet<>();
+        hashes.add(hash);
+        assertTrue(hashes.contains(Hash32.of(hash.toBytes())));
+        assertFalse(hashes.contains(Hash32.of(HashUtility.digestSHA256("other"))));
+
+        Hash32 low = Hash32.fromHex("00" + hex.substring(2));
+        Hash32 high = Hash32.fromHex("FF" + hex.substring(2));
+        assertTrue(low.compareTo(high) < 0);
+        assertEquals(0, hash.compareTo(Hash32.fromHex(hex)));
+    }
+}
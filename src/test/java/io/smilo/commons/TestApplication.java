@@ -1,14 +1,35 @@
 package io.smilo.commons;
 
+import io.smilo.commons.db.CachePolicy;
+import io.smilo.commons.db.CachingStore;
+import io.smilo.commons.db.CompressingStore;
+import io.smilo.commons.db.DeflateCodec;
+import io.smilo.commons.db.DefaultStoreMetrics;
+import io.smilo.commons.db.GroupCommitStore;
+import io.smilo.commons.db.InstrumentedStore;
+import io.smilo.commons.db.LMDBCheckpoint;
 import io.smilo.commons.db.LMDBStore;
+import io.smilo.commons.db.LMDBStoreConfiguration;
+import io.smilo.commons.db.MemoryStore;
+import io.smilo.commons.db.RoutingStore;
 import io.smilo.commons.db.Store;
+import io.smilo.commons.db.StoreMetrics;
+import io.smilo.commons.db.ValueCodec;
+import org.lmdbjava.EnvFlags;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
 @SpringBootApplication
 public class TestApplication {
 
@@ -19,14 +40,117 @@ public class TestApplication {
     @Value("${DB_FOLDER:database}")
     private String dbFolder;
 
+    @Value("${DB_CHECKPOINT:}")
+    private String dbCheckpoint;
+
+    @Value("${DB_MAP_SIZE:1100485760}")
+    private long dbMapSize;
+
+    @Value("${DB_MAP_GROWTH_FACTOR:2.0}")
+    private double dbMapGrowthFactor;
+
+    @Value("${DB_MAX_READERS:100}")
+    private int dbMaxReaders;
+
+    @Value("${DB_ENV_FLAGS:}")
+    private EnvFlags[] dbEnvFlags;
+
+    @Value("${DB_ENVIRONMENTS:merkel}")
+    private String[] dbEnvironments;
+
+    @Value("${DB_CACHE_BLOCK_ENTRIES:100}")
+    private int dbCacheBlockEntries;
+
+    @Value("${DB_CACHE_ACCOUNT_ENTRIES:10000}")
+    private int dbCacheAccountEntries;
+
+    @Value("${DB_CACHE_PEER_ENTRIES:1000}")
+    private int dbCachePeerEntries;
+
+    @Value("${DB_COMPRESSED_COLLECTIONS:blocktree,merkel}")
+    private String[] dbCompressedCollections;
+
+    @Value("${DB_COMPRESSION_LEVEL:1}")
+    private int dbCompressionLevel;
+
+    @Value("${DB_GROUP_COMMIT_MAX_WRITES:1000}")
+    private int dbGroupCommitMaxWrites;
+
+    @Value("${DB_GROUP_COMMIT_MAX_DELAY_MS:0}")
+    private long dbGroupCommitMaxDelayMs;
+
+    /**
+     * Registry receiving the measurements of the store, replace it to publish them to a monitoring system
+     * @return metrics registry of the store
+     */
+    @Bean
+    public StoreMetrics storeMetrics() {
+        return new DefaultStoreMetrics();
+    }
+
     /**
      * Replace the Store bean by a different implementation to switch database implementation for the entire application
      * Note: You really shouldn't do it unless you thought it through.
      * @return store implementation used in the application
      */
     @Bean
-    public Store store() {
-        return new LMDBStore(dbFolder);
+    @Profile("!memoryStore")
+    public Store store(StoreMetrics storeMetrics, Environment environment) throws IOException {
+        // A new node starts from a checkpoint instead of downloading the chain from genesis
+        if (!dbCheckpoint.isEmpty()) {
+            LMDBCheckpoint.restore(new File(dbCheckpoint), new File(dbFolder));
+        }
+        LMDBStoreConfiguration configuration = new LMDBStoreConfiguration()
+                .setInitialMapSize(dbMapSize)
+                .setGrowthFactor(dbMapGrowthFactor)
+                .setMaxReaders(dbMaxReaders)
+                .setEnvFlags(dbEnvFlags);
+        // Hot keys of the block, account and peer collections are served from memory
+        Map<String, CachePolicy> cachePolicies = new HashMap<>();
+        cachePolicies.put("blocktree", new CachePolicy(dbCacheBlockEntries, 64 * 1024 * 1024));
+        cachePolicies.put("block", new CachePolicy(dbCacheBlockEntries, 1024 * 1024));
+        cachePolicies.put("account", new CachePolicy(dbCacheAccountEntries, 16 * 1024 * 1024));
+        cachePolicies.put("peer", new CachePolicy(dbCachePeerEntries, 1024 * 1024));
+        // Large values like blocks and merkle trees are compressed, accounts are read too often to pay for it
+        ValueCodec codec = new DeflateCodec(dbCompressionLevel);
+        Map<String, ValueCodec> codecs = new HashMap<>();
+        for (String collection : dbCompressedCollections) {
+            codecs.put(collection.trim(), codec);
+        }
+        LMDBStore lmdbStore = new LMDBStore(dbFolder, configuration);
+        lmdbStore.registerGauges(storeMetrics);
+        // Collections listed in DB_ENVIRONMENTS get an environment of their own, so their writers don't wait for the
+        // others. Their folder, map size and flags can be set with DB_ENV_<COLLECTION>_FOLDER, _MAP_SIZE and _FLAGS.
+        RoutingStore routingStore = new RoutingStore(lmdbStore);
+        for (String collection : dbEnvironments) {
+            String name = collection.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            String prefix = "DB_ENV_" + name.toUpperCase() + "_";
+            LMDBStoreConfiguration environmentConfiguration = new LMDBStoreConfiguration()
+                    .setInitialMapSize(environment.getProperty(prefix + "MAP_SIZE", Long.class, dbMapSize))
+                    .setGrowthFactor(dbMapGrowthFactor)
+                    .setMaxReaders(dbMaxReaders)
+                    .setEnvFlags(environment.getProperty(prefix + "FLAGS", EnvFlags[].class, dbEnvFlags));
+            LMDBStore environmentStore = new LMDBStore(environment.getProperty(prefix + "FOLDER", dbFolder + "-" + name), environmentConfiguration);
+            environmentStore.registerGauges(storeMetrics, "lmdb." + name);
+            routingStore.route(name, environmentStore);
+        }
+        // Measured below the cache, so the measurements show the database itself
+        Store store = new CachingStore(new InstrumentedStore(new CompressingStore(routingStore, codecs), storeMetrics), cachePolicies);
+        // Asynchronous writes of all threads are committed together by a single writer
+        return new GroupCommitStore(store, dbGroupCommitMaxWrites, dbGroupCommitMaxDelayMs);
+    }
+
+    /**
+     * Keeps the entire database in memory instead, activate profile memoryStore to run nodes without disk I/O
+     * @return in-memory store used in the application
+     */
+    @Bean(name = "store")
+    @Profile("memoryStore")
+    public Store memoryStore(StoreMetrics storeMetrics) {
+        return new InstrumentedStore(new MemoryStore(), storeMetrics);
     }
 
     @Bean
@@ -67,6 +67,9 @@ public class TestUtility {
     @Autowired
     private Store store;
 
+    @Autowired
+    private UndoJournal undoJournal;
+
     private String address;
     private String privateKey;
 
@@ -118,6 +121,9 @@ public class TestUtility {
         ledgerStore.clearAccounts();
         ReflectionTestUtils.setField(peerClient, "pendingPeers", new HashSet<>());
         store.clear("block");
+        blockStore.getTree().clear();
+        blockStore.getAddressHistory().clear();
+        undoJournal.clear();
         store.initializeCollection("block");
         store.initializeCollection("account");
     }
@@ -27,6 +27,7 @@ import org.junit.Test;
 import org.junit.experimental.categories.Category;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 
@@ -80,6 +81,50 @@ public class BlockParsingTest extends AbstractSpringTest {
         assertEquals(0L, result.getNodeSignatureIndex());
     }
 
+    @Test
+    public void testDeserializeFromDirectBuffer() {
+        Block block = new Block(1527514557052L, 3, "abdcedfg", "myRedeemAddress", "myLedgerHash", new ArrayList<>(), "nodeSignature", 2);
+        block.setBlockHash("XXXXXXXXXXXXXXX");
+        byte[] serialized = blockParser.serialize(block);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(serialized.length);
+        buffer.put(serialized).flip();
+
+        Block result = blockParser.deserialize(buffer.asReadOnlyBuffer());
+        assertEquals(3L, result.getBlockNum());
+        assertEquals("abdcedfg", result.getPreviousBlockHash());
+        assertEquals("XXXXXXXXXXXXXXX", result.getBlockHash());
+        assertEquals("nodeSignature", result.getNodeSignature());
+        assertEquals(2L, result.getNodeSignatureIndex());
+    }
+
+    @Test
+    public void testDeserializeHeaderDecodesTransactionsLazily() {
+        Transaction transaction = transactionBuilder.elkan_shares_wealth().construct();
+        ArrayList<Transaction> txs = new ArrayList<>();
+        txs.add(transaction);
+        Block block = new Block(1527514557052L, 3, "abdcedfg", "myRedeemAddress", "myLedgerHash", txs, "nodeSignature", 2);
+        block.setBlockHash("XXXXXXXXXXXXXXX");
+        byte[] serialized = blockParser.serialize(block);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(serialized.length + 4);
+        buffer.putInt(42).put(serialized).flip();
+        buffer.getInt();
+
+        Block result = blockParser.deserializeHeader(buffer.asReadOnlyBuffer());
+        // Clear the buffer, the transactions must not be decoded from it later on
+        buffer.clear();
+        buffer.put(new byte[buffer.capacity()]);
+        assertEquals(3L, result.getBlockNum());
+        assertEquals("XXXXXXXXXXXXXXX", result.getBlockHash());
+        assertEquals("nodeSignature", result.getNodeSignature());
+        assertEquals(2L, result.getNodeSignatureIndex());
+        Assert.assertFalse(result.isTransactionsLoaded());
+
+        assertEquals(1, result.getTransactions().size());
+        assertEquals(transaction, result.getTransactions().get(0));
+        Assert.assertTrue(result.isTransactionsLoaded());
+        assertEquals(block.getRawBlockData(), result.getRawBlockData());
+    }
+
     @Test
     public void testHash() throws NoSuchAlgorithmException {
         Block block = new Block(1527514557052L, 0, "", "myRedeemAddress", "myLedgerHash", new ArrayList<>(), "nodeSignature", 0);
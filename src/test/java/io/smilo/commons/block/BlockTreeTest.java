@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.smilo.commons.block;
+
+import io.smilo.commons.Hash32;
+import io.smilo.commons.HashUtility;
+import io.smilo.commons.StableTests;
+import io.smilo.commons.db.DefaultStoreMetrics;
+import io.smilo.commons.db.InstrumentedStore;
+import io.smilo.commons.db.MemoryStore;
+import io.smilo.commons.db.OperationStatistics;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+@Category({StableTests.class})
+public class BlockTreeTest {
+
+    private final BlockTree tree = new BlockTree(new MemoryStore());
+
+    private static Hash32 hash(String name) {
+        return Hash32.of(HashUtility.digestSHA256(name));
+    }
+
+    private BlockTree.Node insert(String name, String parent, long height) {
+        return tree.insert(hash(name), hash(parent), height, name.getBytes(UTF_8));
+    }
+
+    private String readBlock(String name) {
+        return tree.readBlock(hash(name), buffer -> {
+            byte[] block = new byte[buffer.remaining()];
+            buffer.get(block);
+            return new String(block, UTF_8);
+        });
+    }
+
+    @Test
+    public void testInsertChain() {
+        insert("a", "0", 0);
+        insert("b", "a", 1);
+        BlockTree.Node c = insert("c", "b", 2);
+
+        assertEquals(hash("b"), c.getParentHash());
+        assertEquals(2, c.getHeight());
+        assertEquals(3, c.getWork());
+        assertEquals(hash("c"), tree.getBestTip().getBlockHash());
+        assertEquals(1, tree.getTips().size());
+        assertEquals("b", readBlock("b"));
+        assertTrue(tree.contains(hash("a")));
+        assertFalse(tree.contains(hash("d")));
+        assertNull(readBlock("d"));
+    }
+
+    @Test
+    public void testForkWithMoreWorkBecomesBestTip() {
+        insert("a", "0", 0);
+        insert("b", "a", 1);
+        insert("c", "b", 2);
+        insert("b2", "a", 1);
+        insert("c2", "b2", 2);
+        assertEquals(2, tree.getTips().size());
+
+        insert("d2", "c2", 3);
+        assertEquals(hash("d2"), tree.getBestTip().getBlockHash());
+        List<BlockTree.Node> tips = tree.getTips();
+        assertEquals(hash("c"), tips.get(0).getBlockHash());
+        assertEquals(hash("d2"), tips.get(1).getBlockHash());
+    }
+
+    @Test
+    public void testRootWithoutParentStartsAtItsHeight() {
+        BlockTree.Node root = insert("x", "unknown", 41);
+        assertEquals(42, root.getWork());
+        assertEquals(43, insert("y", "x", 42).getWork());
+    }
+
+    @Test
+    public void testInsertIsIdempotent() {
+        insert("a", "0", 0);
+        insert("b", "a", 1);
+        BlockTree.Node again = tree.insert(hash("b"), hash("a"), 1, ByteBuffer.allocate(4).array());
+        assertEquals(2, again.getWork());
+        assertEquals("b", readBlock("b"));
+        assertEquals(1, tree.getTips().size());
+    }
+
+    @Test
+    public void testPruneTips() {
+        insert("a", "0", 0);
+        insert("b", "a", 1);
+        insert("c", "b", 2);
+        insert("b2", "a", 1);
+
+        tree.pruneTips(3);
+        List<BlockTree.Node> tips = tree.getTips();
+        assertEquals(1, tips.size());
+        assertEquals(hash("c"), tips.get(0).getBlockHash());
+        // The block of the pruned tip stays in the tree
+        assertTrue(tree.contains(hash("b2")));
+    }
+
+    @Test
+    public void testPruneTipsWithoutAbandonedTipsDoesNotStartBatch() {
+        DefaultStoreMetrics metrics = new DefaultStoreMetrics();
+        BlockTree measured = new BlockTree(new InstrumentedStore(new MemoryStore(), metrics));
+        measured.insert(hash("a"), hash("0"), 0, "a".getBytes(UTF_8));
+        measured.insert(hash("b"), hash("a"), 1, "b".getBytes(UTF_8));
+        long batches = countBatches(metrics);
+
+        measured.pruneTips(2);
+        assertEquals(1, measured.getTips().size());
+        assertEquals(batches, countBatches(metrics));
+    }
+
+    private static long countBatches(DefaultStoreMetrics metrics) {
+        return metrics.getOperations().stream()
+                .filter(o -> o.getOperation().equals("batch"))
+                .mapToLong(OperationStatistics::getCount)
+                .sum();
+    }
+}
@@ -22,6 +22,7 @@ import io.smilo.commons.db.Store;
 import io.smilo.commons.ledger.AccountBuilder;
 import io.smilo.commons.ledger.LedgerManager;
 import io.smilo.commons.ledger.LedgerStore;
+import io.smilo.commons.ledger.UndoJournal;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -49,11 +50,17 @@ public class GenesisTest extends AbstractSpringTest {
     @Autowired
     private Store store;
 
+    @Autowired
+    private UndoJournal undoJournal;
+
     private static final String COLLECTION_NAME = "block";
 
     @Before
     public void BlockDataStoreBefore() {
         store.clear(COLLECTION_NAME);
+        blockStore.getTree().clear();
+        blockStore.getAddressHistory().clear();
+        undoJournal.clear();
         ledgerStore.clearAccounts();
         ReflectionTestUtils.setField(blockStore, "chains", new ArrayList<>());
     }
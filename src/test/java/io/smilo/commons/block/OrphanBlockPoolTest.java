@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.smilo.commons.block;
+
+import io.smilo.commons.Hash32;
+import io.smilo.commons.HashUtility;
+import io.smilo.commons.StableTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+@Category({StableTests.class})
+public class OrphanBlockPoolTest {
+
+    private static String hash(String name) {
+        return HashUtility.digestSHA256ToHEX(name);
+    }
+
+    private static Block block(long blockNum, String name, String parent) {
+        Block block = new Block(0L, blockNum, hash(parent), "redeemAddress", "ledgerHash", new ArrayList<>(), "nodeSignature", 0);
+        block.setBlockHash(hash(name));
+        return block;
+    }
+
+    @Test
+    public void testRemoveChildrenOfParent() {
+        OrphanBlockPool pool = new OrphanBlockPool(10, Long.MAX_VALUE);
+        Block child = block(11, "child", "parent");
+        Block sibling = block(11, "sibling", "parent");
+        Block grandChild = block(12, "grandChild", "child");
+        assertTrue(pool.add(child, 100, 5));
+        assertTrue(pool.add(sibling, 100, 5));
+        assertTrue(pool.add(grandChild, 100, 5));
+
+        assertEquals(asList(child, sibling), pool.removeChildren(Hash32.fromHex(hash("parent"))));
+        assertFalse(pool.contains(child.getHash()));
+        assertTrue(pool.contains(grandChild.getHash()));
+        assertEquals(1, pool.size());
+        assertEquals(100, pool.getBytes());
+        assertTrue(pool.removeChildren(Hash32.fromHex(hash("parent"))).isEmpty());
+    }
+
+    @Test
+    public void testEvictsBlocksFurthestFromTip() {
+        OrphanBlockPool pool = new OrphanBlockPool(2, Long.MAX_VALUE);
+        Block near = block(12, "near", "a");
+        Block far = block(500, "far", "b");
+        pool.add(near, 100, 10);
+        pool.add(far, 100, 10);
+        assertTrue(pool.add(block(13, "next", "near"), 100, 10));
+
+        assertFalse(pool.contains(far.getHash()));
+        assertTrue(pool.contains(near.getHash()));
+        assertFalse(pool.add(block(1000, "further", "c"), 100, 10));
+        assertEquals(2, pool.size());
+    }
+
+    @Test
+    public void testEvictsWhenBytesExceeded() {
+        OrphanBlockPool pool = new OrphanBlockPool(10, 250);
+        pool.add(block(12, "a", "x"), 100, 10);
+        pool.add(block(14, "b", "y"), 100, 10);
+        pool.add(block(13, "c", "z"), 100, 10);
+
+        assertEquals(2, pool.size());
+        assertEquals(200, pool.getBytes());
+        assertFalse(pool.contains(Hash32.fromHex(hash("b"))));
+    }
+
+    @Test
+    public void testRequestsMissingParentOnce() {
+        OrphanBlockPool pool = new OrphanBlockPool(10, Long.MAX_VALUE);
+        List<Long> requested = new ArrayList<>();
+        pool.addListener((parentHash, parentBlockNum) -> requested.add(parentBlockNum));
+        pool.add(block(11, "child", "parent"), 100, 5);
+        pool.add(block(11, "sibling", "parent"), 100, 5);
+        pool.add(block(11, "child", "parent"), 100, 5);
+
+        assertEquals(asList(10L), requested);
+    }
+
+    @Test
+    public void testDoesNotRequestQueuedParent() {
+        OrphanBlockPool pool = new OrphanBlockPool(10, Long.MAX_VALUE);
+        List<Long> requested = new ArrayList<>();
+        pool.addListener((parentHash, parentBlockNum) -> requested.add(parentBlockNum));
+        pool.add(block(11, "b11", "b10"), 100, 5);
+        pool.add(block(12, "b12", "b11"), 100, 5);
+
+        assertEquals(asList(10L), requested);
+    }
+}
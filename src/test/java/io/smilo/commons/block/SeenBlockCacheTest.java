@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.smilo.commons.block;
+
+import io.smilo.commons.Hash32;
+import io.smilo.commons.HashUtility;
+import io.smilo.commons.StableTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+@Category({StableTests.class})
+public class SeenBlockCacheTest {
+
+    private final Set<Hash32> stored = new HashSet<>();
+    private final AtomicLong now = new AtomicLong();
+
+    private static Hash32 hash(int i) {
+        return Hash32.of(HashUtility.digestSHA256("block" + i));
+    }
+
+    private SeenBlockCache cache(int hashesPerGeneration, double falsePositiveRate) {
+        return new SeenBlockCache(hashesPerGeneration, falsePositiveRate, 1000, stored::contains, now::get);
+    }
+
+    @Test
+    public void testSeenHashesAreConfirmedByTheExactCheck() {
+        SeenBlockCache cache = cache(100, 0.01);
+        cache.add(hash(1));
+        // The filter holds the hash, but the block was never stored
+        assertFalse(cache.contains(hash(1)));
+
+        stored.add(hash(1));
+        assertTrue(cache.contains(hash(1)));
+        // Stored blocks that were never seen don't pass the filter
+        stored.add(hash(2));
+        assertFalse(cache.contains(hash(2)));
+    }
+
+    @Test
+    public void testPinnedHashesAreRememberedWithoutExactCheck() {
+        SeenBlockCache cache = cache(100, 0.01);
+        cache.pin(hash(1));
+        assertTrue(cache.contains(hash(1)));
+        assertFalse(cache.contains(hash(2)));
+    }
+
+    @Test
+    public void testFullGenerationsAreForgotten() {
+        SeenBlockCache cache = cache(10, 0.01);
+        cache.pin(hash(0));
+        for (int i = 1; i < 10; i++) {
+            cache.add(hash(i));
+        }
+        // The first generation is full and becomes the previous generation
+        cache.add(hash(10));
+        assertTrue(cache.contains(hash(0)));
+        for (int i = 11; i < 21; i++) {
+            cache.add(hash(i));
+        }
+        assertFalse(cache.contains(hash(0)));
+        assertTrue(cache.size() <= 20);
+    }
+
+    @Test
+    public void testOldGenerationsAreForgotten() {
+        SeenBlockCache cache = cache(100, 0.01);
+        cache.pin(hash(1));
+        now.set(1000);
+        assertTrue(cache.contains(hash(1)));
+        now.set(2000);
+        assertFalse(cache.contains(hash(1)));
+    }
+
+    @Test
+    public void testExpectedFalsePositiveRate() {
+        SeenBlockCache cache = cache(1000, 0.01);
+        assertEquals(0, cache.getExpectedFalsePositiveRate(), 0);
+        for (int i = 0; i < 1000; i++) {
+            cache.add(hash(i));
+        }
+        assertEquals(0.01, cache.getExpectedFalsePositiveRate(), 0.002);
+
+        int falsePositives = 0;
+        for (int i = 1000; i < 11000; i++) {
+            stored.add(hash(i));
+            if (cache.contains(hash(i))) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 200);
+    }
+}
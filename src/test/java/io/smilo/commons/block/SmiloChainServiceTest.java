@@ -20,6 +20,7 @@ import io.smilo.commons.AbstractSpringTest;
 import io.smilo.commons.StableTests;
 import io.smilo.commons.block.data.transaction.Transaction;
 import io.smilo.commons.block.data.transaction.TransactionBuilder;
+import io.smilo.commons.db.StoreSnapshot;
 import io.smilo.commons.ledger.AccountBuilder;
 import io.smilo.commons.ledger.AddressManager;
 import org.junit.After;
@@ -30,9 +31,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static java.util.Arrays.asList;
 import static org.junit.Assert.*;
@@ -57,20 +58,21 @@ public class SmiloChainServiceTest extends AbstractSpringTest {
 
     @Autowired
     private AddressManager addressManager;
+
+    @Autowired
+    private OrphanBlockPool orphanPool;
     
     @After
     public void cleanUp() {
-        ReflectionTestUtils.setField(smiloChainService, "allBroadcastBlockHashes", new HashSet<>());
-        ReflectionTestUtils.setField(smiloChainService, "blockQueue", new ArrayList<>());
+        ((SeenBlockCache) ReflectionTestUtils.getField(smiloChainService, "seenBlocks")).clear();
+        orphanPool.clear();
     }
     
     @Test
     public void testAddBlockToSmiloChainSeenBefore() {
-        Set<String> blockHashes = new HashSet<>();
         Block block = blockBuilder.blank("redeemAddress", "ledgerHash", new ArrayList<>(), "nodeSignature", 0).construct();
-        blockHashes.add(block.getBlockHash());
-        
-        ReflectionTestUtils.setField(smiloChainService, "allBroadcastBlockHashes", blockHashes);
+        smiloChainService.addBlockhashToSeenBeforeList(block.getBlockHash());
+        assertTrue(smiloChainService.hasSeenBefore(block.getBlockHash()));
         
         smiloChainService.addBlockToSmiloChain(block);
         assertFalse(blockStore.getLastBlock().equals(block));
@@ -91,9 +93,11 @@ public class SmiloChainServiceTest extends AbstractSpringTest {
         AddBlockResult result = smiloChainService.addBlockToSmiloChain(block2);
         assertFalse(blockStore.getLastBlock().equals(block2));
         assertEquals(AddResultType.QUEUED, result.getType());
+        assertTrue(orphanPool.contains(block2.getHash()));
         
         AddBlockResult r = smiloChainService.addBlockToSmiloChain(block1);
         assertTrue(blockStore.getLastBlock().getBlockHash().equals(block2.getBlockHash()));
+        assertEquals(0, orphanPool.size());
     }
     
     @Test
@@ -131,6 +135,16 @@ public class SmiloChainServiceTest extends AbstractSpringTest {
         assertEquals(AddResultType.FORK_ERROR, result.getType());
     }
 
+    @Test
+    public void testRelayedRejectedBlockIsDuplicate() {
+        String address = addressManager.getDefaultAddress();
+        Block block = blockBuilder.blank(blockStore.getBlockchainLength(), "asdas", address, "ledgerHash", new ArrayList<>(), "nodeSignature", 0).construct();
+        blockParser.hash(block);
+        blockParser.sign(block, addressManager.getAddressPrivateKey(address), 0);
+        assertEquals(AddResultType.FORK_ERROR, smiloChainService.addBlockToSmiloChain(block).getType());
+        assertEquals(AddResultType.DUPLICATE, smiloChainService.addBlockToSmiloChain(block).getType());
+    }
+
     @Test
     public void testAddBlockToSmiloChain() {
         String address = addressManager.getDefaultAddress();
@@ -170,6 +184,7 @@ public class SmiloChainServiceTest extends AbstractSpringTest {
         Block block = blockBuilder.blank("redeemAddress", "ledgerHash", asList(t1, t2), "nodeSignature", 0).withBlockNum(1L).construct();
 
         blockStore.getLargestChain().addBlock(block);
+        blockStore.writeBlockToFile(block);
         
         List<String> transactions = smiloChainService.getAllTransactionsInvolvingAddress(t2.getInputAddress());
         assertEquals(2, transactions.size());
@@ -179,6 +194,53 @@ public class SmiloChainServiceTest extends AbstractSpringTest {
         assertTrue(transactions.stream().anyMatch(t -> t.contains(AccountBuilder.ROBERT + ":1"))); // 100 from elkan to kelly
     }
 
+    @Test
+    public void testAddressHistoryIsPagedAndReverted() {
+        Transaction t1 = transactionBuilder.elkan_shares_wealth().construct();
+        Transaction t2 = transactionBuilder.kelly_funds_robert_incorrect_hash().construct();
+        String kelly = t2.getInputAddress();
+        long size = blockStore.getAddressHistory().size(kelly);
+
+        Block first = blockBuilder.blank("redeemAddress", "ledgerHash", asList(t1), "nodeSignature", 0).construct();
+        blockStore.writeBlockToFile(first);
+        Block second = blockBuilder.blank(first, "redeemAddress", "ledgerHash", asList(t2), "nodeSignature", 0).construct();
+        blockStore.writeBlockToFile(second);
+        // Writing a canonical block again doesn't index it twice
+        blockStore.writeBlockToFile(second);
+        assertEquals(size + 2, blockStore.getAddressHistory().size(kelly));
+
+        List<String> latest = blockStore.getTransactionsInvolvingAddress(kelly, 0, 1, true);
+        assertEquals(1, latest.size());
+        assertTrue(latest.get(0).startsWith(second.getBlockNum() + ":"));
+        assertTrue(latest.get(0).contains(AccountBuilder.ROBERT + ":1"));
+
+        assertEquals(second.getBlockHash(), blockStore.revertLastBlock().getBlockHash());
+        assertEquals(size + 1, blockStore.getAddressHistory().size(kelly));
+        List<String> remaining = blockStore.getTransactionsInvolvingAddress(kelly, 0, 1, true);
+        assertTrue(remaining.get(0).startsWith(first.getBlockNum() + ":"));
+        assertTrue(remaining.get(0).contains(AccountBuilder.KELLY + ":100"));
+    }
+
+    @Test
+    public void testAddressHistoryPageMatchesSnapshotBlocks() {
+        Transaction t2 = transactionBuilder.kelly_funds_robert_incorrect_hash().construct();
+        String kelly = t2.getInputAddress();
+        Block block = blockBuilder.blank("redeemAddress", "ledgerHash", asList(t2), "nodeSignature", 0).construct();
+        blockStore.writeBlockToFile(block);
+
+        try (StoreSnapshot snapshot = blockStore.snapshot()) {
+            // The block is replaced by one without transactions after the snapshot was taken
+            blockStore.revertLastBlock();
+            blockStore.writeBlockToFile(blockBuilder.blank("redeemAddress", "otherLedgerHash", new ArrayList<>(), "nodeSignature", 0).construct());
+
+            List<AddressHistory.Location> locations = blockStore.getAddressHistory().page(snapshot, kelly, 0, 1, true);
+            assertEquals(1, locations.size());
+            Block stored = blockStore.getBlock(snapshot, locations.get(0).getBlockNum());
+            assertEquals(block.getBlockHash(), stored.getBlockHash());
+            assertEquals(t2, stored.getTransactions().get(locations.get(0).getTransactionIndex()));
+        }
+    }
+
     @Test
     public void testGetBlock() {
         Block block = blockBuilder.blank(addressManager.getDefaultAddress(), "myLedgerHash", new ArrayList<>(), "nodeSignature", 0).save();
@@ -188,6 +250,120 @@ public class SmiloChainServiceTest extends AbstractSpringTest {
         Assert.assertEquals(block.getBlockNum(), dto.getBlockNum());
     }
 
+    @Test
+    public void testGetBlockByHash() {
+        Block block = blockBuilder.blank(addressManager.getDefaultAddress(), "myLedgerHash", new ArrayList<>(), "nodeSignature", 0).save();
+        assertEquals(block, blockStore.getBlockByHash(block.getBlockHash()));
+
+        // Without the chains in memory, the block is found in the block tree
+        ReflectionTestUtils.setField(blockStore, "chains", new ArrayList<>());
+        assertTrue(blockStore.containsHash(block.getBlockHash()));
+        Block stored = blockStore.getBlockByHash(block.getBlockHash());
+        assertEquals(block.getBlockNum(), stored.getBlockNum());
+        assertEquals("myLedgerHash", stored.getLedgerHash());
+        assertNull(blockStore.getBlockByHash("unknownHash"));
+    }
+
+    @Test
+    public void testOverwrittenBlockStaysInTree() {
+        Block block = blockBuilder.blank(addressManager.getDefaultAddress(), "myLedgerHash", new ArrayList<>(), "nodeSignature", 0).construct();
+        Block fork = blockBuilder.blank(addressManager.getDefaultAddress(), "otherLedgerHash", new ArrayList<>(), "nodeSignature", 0).construct();
+        blockStore.writeBlockToFile(block);
+        blockStore.writeBlockToFile(fork);
+
+        ReflectionTestUtils.setField(blockStore, "chains", new ArrayList<>());
+        assertEquals("otherLedgerHash", blockStore.getBlock(fork.getBlockNum()).getLedgerHash());
+        assertTrue(blockStore.containsHash(block.getBlockHash()));
+        assertEquals("myLedgerHash", blockStore.getBlockByHash(block.getBlockHash()).getLedgerHash());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBlockBelowTheTipIsNotOverwritten() {
+        Block first = blockBuilder.blank(addressManager.getDefaultAddress(), "myLedgerHash", new ArrayList<>(), "nodeSignature", 0).construct();
+        blockStore.writeBlockToFile(first);
+        Block second = blockBuilder.blank(first, addressManager.getDefaultAddress(), "ledgerHash", new ArrayList<>(), "nodeSignature", 0).construct();
+        blockStore.writeBlockToFile(second);
+
+        Block fork = blockBuilder.blank(addressManager.getDefaultAddress(), "otherLedgerHash", new ArrayList<>(), "nodeSignature", 0).withBlockNum(first.getBlockNum()).construct();
+        blockStore.writeBlockToFile(fork);
+    }
+
+    @Test
+    public void testForkIsStoredInTree() {
+        String address = addressManager.getDefaultAddress();
+        Block parent = blockStore.getLastBlock();
+        Block block = blockBuilder.blank(parent, address, "ledgerHash", new ArrayList<>(), "nodeSignature", 0).construct();
+        blockParser.hash(block);
+        blockParser.sign(block, addressManager.getAddressPrivateKey(address), 0);
+        assertEquals(AddResultType.ADDED, smiloChainService.addBlockToSmiloChain(block).getType());
+
+        // A second block on the same parent doesn't fit on the chain, but forks off a block in the tree
+        Block fork = blockBuilder.blank(parent, address, "otherLedgerHash", new ArrayList<>(), "nodeSignature", 0).construct();
+        blockParser.hash(fork);
+        blockParser.sign(fork, addressManager.getAddressPrivateKey(address), 0);
+        smiloChainService.addBlockToSmiloChain(fork);
+
+        assertEquals(block.getBlockHash(), blockStore.getLastBlock().getBlockHash());
+        assertEquals(block.getBlockHash(), blockStore.getBlock(block.getBlockNum()).getBlockHash());
+        BlockTree.Node node = blockStore.getTree().getNode(fork.getHash());
+        assertEquals(parent.getHash(), node.getParentHash());
+        assertEquals(block.getBlockNum(), node.getHeight());
+    }
+
+    @Test
+    public void testForkWithMoreWorkBecomesCanonical() {
+        String address = addressManager.getDefaultAddress();
+        String privateKey = addressManager.getAddressPrivateKey(address);
+        Block parent = blockStore.getLastBlock();
+        int length = blockStore.getBlockchainLength();
+        Block block = blockBuilder.blank(parent, address, "ledgerHash", new ArrayList<>(), "nodeSignature", 0).construct();
+        blockParser.hash(block);
+        blockParser.sign(block, privateKey, 0);
+        assertEquals(AddResultType.ADDED, smiloChainService.addBlockToSmiloChain(block).getType());
+
+        Block fork = blockBuilder.blank(parent, address, "otherLedgerHash", new ArrayList<>(), "nodeSignature", 0).construct();
+        blockParser.hash(fork);
+        blockParser.sign(fork, privateKey, 0);
+        assertEquals(AddResultType.FORKED, smiloChainService.addBlockToSmiloChain(fork).getType());
+        assertEquals(block.getBlockHash(), blockStore.getLastBlock().getBlockHash());
+
+        // The next block of the fork gives it more work, so the canonical chain switches over at the parent
+        Block next = blockBuilder.blank(fork, address, "nextLedgerHash", new ArrayList<>(), "nodeSignature", 1).construct();
+        blockParser.hash(next);
+        blockParser.sign(next, privateKey, 1);
+        assertEquals(AddResultType.REORGANIZED, smiloChainService.addBlockToSmiloChain(next).getType());
+
+        assertEquals(next.getBlockHash(), blockStore.getLastBlock().getBlockHash());
+        assertEquals(length + 2, blockStore.getBlockchainLength());
+        assertEquals(fork.getHash(), blockStore.getCanonicalHash(fork.getBlockNum()));
+        assertEquals(next.getHash(), blockStore.getCanonicalHash(next.getBlockNum()));
+        assertEquals(parent.getHash(), blockStore.getCanonicalHash(parent.getBlockNum()));
+        assertEquals(fork.getBlockHash(), blockStore.getLargestChain().getBlockByIndex(blockStore.getBlockchainLength() - 2).getBlockHash());
+        // The replaced block stays in the tree
+        assertTrue(blockStore.getTree().contains(block.getHash()));
+    }
+
+    @Test
+    public void testStreamBlocks() {
+        String address = addressManager.getDefaultAddress();
+        for (int i = 0; i < 5; i++) {
+            blockBuilder.blank(address, "ledgerHash" + i, new ArrayList<>(), "nodeSignature", 0).save();
+        }
+        long last = blockStore.getLastBlock().getBlockNum();
+
+        try (Stream<Block> blocks = blockStore.streamBlocks(last - 3, last)) {
+            assertEquals(asList(last - 3, last - 2, last - 1), blocks.map(Block::getBlockNum).collect(Collectors.toList()));
+        }
+        try (Stream<byte[]> blocks = blockStore.streamRawBlocks(last, last + 10)) {
+            List<Block> decoded = blocks.map(blockParser::deserialize).collect(Collectors.toList());
+            assertEquals(1, decoded.size());
+            assertEquals("ledgerHash4", decoded.get(0).getLedgerHash());
+        }
+        try (Stream<Block> blocks = blockStore.streamBlocks(last + 1, last + 10)) {
+            assertEquals(0, blocks.count());
+        }
+    }
+
     @Test
     public void testCreateInitialChain(){
         Block block = blockBuilder.blank("myRedeemAddress", "myLedgerHash", new ArrayList<>(), "nodeSignature", 0).save();
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.smilo.commons.block;
+
+import io.smilo.commons.HashUtility;
+import io.smilo.commons.StableTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@Category({StableTests.class})
+public class SmiloChainTest {
+
+    private final Map<Long, Block> stored = new HashMap<>();
+
+    private static String hash(long blockNum) {
+        return HashUtility.digestSHA256ToHEX("block" + blockNum);
+    }
+
+    private Block block(long blockNum) {
+        Block block = new Block(0L, blockNum, hash(blockNum - 1), "redeemAddress", "ledgerHash", new ArrayList<>(), "nodeSignature", 0);
+        block.setBlockHash(hash(blockNum));
+        stored.put(blockNum, block);
+        return block;
+    }
+
+    @Test
+    public void testOldBlocksLeaveMemory() {
+        SmiloChain chain = new SmiloChain(3, stored::get);
+        for (long i = 10; i < 20; i++) {
+            chain.addBlock(block(i));
+        }
+
+        assertEquals(10, chain.getLength());
+        assertEquals(3, chain.getBlocks().size());
+        assertEquals(19, chain.getLastBlock().getBlockNum());
+        assertTrue(chain.containsHash(hash(17)));
+        assertFalse(chain.containsHash(hash(16)));
+        assertFalse(chain.getBlockByHash(hash(16)).isPresent());
+    }
+
+    @Test
+    public void testOldBlocksAreReadFromHistory() {
+        SmiloChain chain = new SmiloChain(3, stored::get);
+        for (long i = 10; i < 20; i++) {
+            chain.addBlock(block(i));
+        }
+
+        for (int i = 0; i < chain.getLength(); i++) {
+            assertEquals(10 + i, chain.getBlockByIndex(i).getBlockNum());
+        }
+    }
+
+    @Test
+    public void testRemoveLastBlockReadsBackFromHistory() {
+        SmiloChain chain = new SmiloChain(2, stored::get);
+        for (long i = 10; i < 15; i++) {
+            chain.addBlock(block(i));
+        }
+
+        assertEquals(14, chain.removeLastBlock().getBlockNum());
+        assertFalse(chain.containsHash(hash(14)));
+        assertEquals(13, chain.removeLastBlock().getBlockNum());
+        // The window is refilled from history, so the chain keeps a last block
+        assertEquals(12, chain.getLastBlock().getBlockNum());
+        assertTrue(chain.containsHash(hash(12)));
+        assertEquals(3, chain.getLength());
+
+        chain.addBlock(block(13));
+        assertEquals(4, chain.getLength());
+        assertEquals(12, chain.getBlockByIndex(2).getBlockNum());
+        assertEquals(13, chain.getBlockByIndex(3).getBlockNum());
+    }
+
+    @Test
+    public void testUnboundedChainKeepsAllBlocks() {
+        SmiloChain chain = new SmiloChain();
+        for (long i = 0; i < 10; i++) {
+            chain.addBlock(block(i));
+        }
+
+        assertEquals(10, chain.getBlocks().size());
+        assertTrue(chain.containsHash(hash(0)));
+    }
+}
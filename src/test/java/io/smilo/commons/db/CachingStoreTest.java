@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.smilo.commons.db;
+
+import io.smilo.commons.StableTests;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+import static io.smilo.commons.db.StoreTestUtility.bytes;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+@Category({StableTests.class})
+public class CachingStoreTest {
+
+    private static final String CACHED = "cached";
+    private static final String UNCACHED = "uncached";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Store delegate;
+    private CachingStore store;
+
+    @Before
+    public void createStore() throws IOException {
+        delegate = new LMDBStore(folder.newFolder().getAbsolutePath());
+        store = new CachingStore(delegate, Collections.singletonMap(CACHED, new CachePolicy(2, 1024)));
+        store.initializeCollection(CACHED);
+        store.initializeCollection(UNCACHED);
+    }
+
+    @Test
+    public void testRepeatedReadsAreServedFromCache() {
+        store.put(CACHED, bytes("a"), bytes("1"));
+
+        assertArrayEquals(bytes("1"), store.get(CACHED, bytes("a")));
+        assertArrayEquals(bytes("1"), store.get(CACHED, bytes("a")));
+        assertEquals("1", store.read(CACHED, bytes("a"), buffer -> UTF_8.decode(buffer).toString()));
+
+        CacheStatistics statistics = store.getStatistics().get(CACHED);
+        assertEquals(1, statistics.getMisses());
+        assertEquals(2, statistics.getHits());
+        assertEquals(1, statistics.getEntries());
+    }
+
+    @Test
+    public void testWritesInvalidate() {
+        store.put(CACHED, bytes("a"), bytes("1"));
+        store.get(CACHED, bytes("a"));
+
+        store.put(CACHED, bytes("a"), bytes("2"));
+        assertArrayEquals(bytes("2"), store.get(CACHED, bytes("a")));
+
+        store.remove(CACHED, bytes("a"));
+        assertNull(store.get(CACHED, bytes("a")));
+
+        store.put(CACHED, bytes("b"), bytes("1"));
+        store.get(CACHED, bytes("b"));
+        store.clear(CACHED);
+        assertNull(store.get(CACHED, bytes("b")));
+    }
+
+    @Test
+    public void testBatchReadsSeePendingWritesAndRollbackIsNotCached() {
+        store.put(CACHED, bytes("a"), bytes("1"));
+        store.get(CACHED, bytes("a"));
+
+        try {
+            store.batch(() -> {
+                store.put(CACHED, bytes("a"), bytes("2"));
+                assertArrayEquals(bytes("2"), store.get(CACHED, bytes("a")));
+                throw new IllegalStateException("abort");
+            });
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        assertArrayEquals(bytes("1"), store.get(CACHED, bytes("a")));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        store.put(CACHED, bytes("a"), bytes("1"));
+        store.put(CACHED, bytes("b"), bytes("2"));
+        store.put(CACHED, bytes("c"), bytes("3"));
+        store.get(CACHED, bytes("a"));
+        store.get(CACHED, bytes("b"));
+        store.get(CACHED, bytes("a"));
+        store.get(CACHED, bytes("c"));
+
+        CacheStatistics statistics = store.getStatistics().get(CACHED);
+        assertEquals(2, statistics.getEntries());
+        assertEquals(1, statistics.getEvictions());
+
+        // b was used least recently, a is still cached
+        store.get(CACHED, bytes("a"));
+        assertEquals(statistics.getHits() + 1, store.getStatistics().get(CACHED).getHits());
+    }
+
+    @Test
+    public void testCachedValuesCanNotBeChangedByCallers() {
+        store.put(CACHED, bytes("a"), bytes("1"));
+        store.get(CACHED, bytes("a"))[0] = 'x';
+        store.get(CACHED, bytes("a"))[0] = 'x';
+
+        assertArrayEquals(bytes("1"), store.get(CACHED, bytes("a")));
+    }
+
+    @Test
+    public void testUncachedCollectionsGoToTheDelegate() {
+        store.put(UNCACHED, bytes("a"), bytes("1"));
+
+        assertArrayEquals(bytes("1"), store.get(UNCACHED, bytes("a")));
+        assertEquals(Integer.valueOf(1), store.read(UNCACHED, bytes("a"), ByteBuffer::remaining));
+        assertNull(store.getStatistics().get(UNCACHED));
+    }
+}
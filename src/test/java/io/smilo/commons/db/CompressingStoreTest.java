@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.smilo.commons.db;
+
+import io.smilo.commons.StableTests;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static io.smilo.commons.db.StoreTestUtility.bytes;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+@Category({StableTests.class})
+public class CompressingStoreTest {
+
+    private static final String COMPRESSED = "compressed";
+    private static final String RAW = "raw";
+
+    private Store delegate;
+    private CompressingStore store;
+
+    @Before
+    public void createStore() {
+        delegate = new MemoryStore();
+        store = new CompressingStore(delegate, Collections.singletonMap(COMPRESSED, new DeflateCodec()));
+        store.initializeCollection(COMPRESSED);
+        store.initializeCollection(RAW);
+    }
+
+    @Test
+    public void testCompressedValuesRoundTrip() {
+        byte[] value = repetitive(10000);
+        store.put(COMPRESSED, bytes("a"), value);
+
+        assertTrue(delegate.get(COMPRESSED, bytes("a")).length < value.length / 10);
+        assertArrayEquals(value, store.get(COMPRESSED, bytes("a")));
+        assertEquals(Integer.valueOf(value.length), store.read(COMPRESSED, bytes("a"), ByteBuffer::remaining));
+        assertArrayEquals(value, store.last(COMPRESSED).getValue());
+        try (Stream<Map.Entry<byte[], byte[]>> entries = store.scan(COMPRESSED)) {
+            assertArrayEquals(value, entries.findFirst().get().getValue());
+        }
+        try (StoreSnapshot snapshot = store.snapshot()) {
+            assertArrayEquals(value, snapshot.get(COMPRESSED, bytes("a")));
+        }
+    }
+
+    @Test
+    public void testCollectionsWithoutCodecAreStoredAsTheyAre() {
+        byte[] value = repetitive(10000);
+        store.put(RAW, bytes("a"), value);
+
+        assertArrayEquals(value, delegate.get(RAW, bytes("a")));
+        assertArrayEquals(value, store.get(RAW, bytes("a")));
+    }
+
+    @Test
+    public void testValuesThatDontShrinkAreStoredAsTheyAre() {
+        store.put(COMPRESSED, bytes("a"), bytes("short"));
+
+        assertArrayEquals(bytes("short"), delegate.get(COMPRESSED, bytes("a")));
+        assertArrayEquals(bytes("short"), store.get(COMPRESSED, bytes("a")));
+    }
+
+    @Test
+    public void testValuesStartingWithMarkerRoundTrip() {
+        byte[] value = {(byte) 0xC1, 1, 2};
+        store.put(RAW, bytes("a"), value);
+        store.put(COMPRESSED, bytes("a"), value);
+
+        assertArrayEquals(value, store.get(RAW, bytes("a")));
+        assertArrayEquals(value, store.get(COMPRESSED, bytes("a")));
+        assertEquals(Integer.valueOf(3), store.read(RAW, bytes("a"), ByteBuffer::remaining));
+    }
+
+    @Test
+    public void testValuesWrittenBeforeCompressionAreReadAsTheyAre() {
+        byte[] value = repetitive(10000);
+        delegate.put(COMPRESSED, bytes("legacy"), value);
+        store.put(COMPRESSED, bytes("new"), value);
+
+        try (Stream<Map.Entry<byte[], byte[]>> entries = store.scan(COMPRESSED)) {
+            assertTrue(entries.allMatch(e -> Arrays.equals(value, e.getValue())));
+        }
+    }
+
+    @Test
+    public void testCompressedValuesStayReadableWithoutConfiguration() {
+        byte[] value = repetitive(10000);
+        store.put(COMPRESSED, bytes("a"), value);
+
+        CompressingStore unconfigured = new CompressingStore(delegate, Collections.emptyMap());
+        assertArrayEquals(value, unconfigured.get(COMPRESSED, bytes("a")));
+    }
+
+    @Test(expected = ReadOnlyBufferException.class)
+    public void testReadHandsOutReadOnlyView() {
+        store.put(COMPRESSED, bytes("a"), repetitive(10000));
+
+        store.read(COMPRESSED, bytes("a"), buffer -> buffer.put((byte) 0));
+    }
+
+    @Test
+    public void testDeflateCodecRoundTrip() {
+        DeflateCodec codec = new DeflateCodec(9);
+        for (byte[] value : Arrays.asList(new byte[0], bytes("x"), repetitive(100000))) {
+            assertArrayEquals(value, codec.decode(ByteBuffer.wrap(codec.encode(value))));
+        }
+    }
+
+    private static byte[] repetitive(int length) {
+        return String.join("", Collections.nCopies(length / 10, "0123456789")).getBytes(UTF_8);
+    }
+}
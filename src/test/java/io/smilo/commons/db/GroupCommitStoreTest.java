@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.smilo.commons.db;
+
+import io.smilo.commons.StableTests;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+
+import static io.smilo.commons.db.StoreTestUtility.bytes;
+import static org.junit.Assert.*;
+
+@Category({StableTests.class})
+public class GroupCommitStoreTest {
+
+    private static final String COLLECTION_NAME = "groupcommittest";
+
+    private DefaultStoreMetrics metrics;
+    private GroupCommitStore store;
+
+    @Before
+    public void createStore() {
+        metrics = new DefaultStoreMetrics();
+        store = new GroupCommitStore(new InstrumentedStore(new MemoryStore(), metrics), 100, 50);
+        store.initializeCollection(COLLECTION_NAME);
+    }
+
+    @After
+    public void closeStore() {
+        store.close();
+    }
+
+    @Test
+    public void testAsyncWritesAreCommittedTogether() throws InterruptedException {
+        // Holds up the writer, so the writes below queue up behind it
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> blocker = store.batchAsync(() -> awaitQuietly(release));
+
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            writes.add(store.putAsync(COLLECTION_NAME, bytes("key" + i), bytes("value" + i)));
+        }
+        release.countDown();
+        blocker.join();
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).join();
+
+        assertEquals(Long.valueOf(50), store.getEntries(COLLECTION_NAME));
+        assertTrue("Expected the writes to share batches but got " + batches(), batches() < 10);
+    }
+
+    @Test
+    public void testFailingWriteDoesNotFailItsGroup() {
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> blocker = store.batchAsync(() -> awaitQuietly(release));
+
+        CompletableFuture<Void> before = store.putAsync(COLLECTION_NAME, bytes("a"), bytes("1"));
+        CompletableFuture<Void> failing = store.batchAsync(() -> {
+            store.put(COLLECTION_NAME, bytes("b"), bytes("2"));
+            throw new IllegalStateException("abort");
+        });
+        CompletableFuture<Void> after = store.putAsync(COLLECTION_NAME, bytes("c"), bytes("3"));
+        release.countDown();
+        blocker.join();
+
+        before.join();
+        after.join();
+        try {
+            failing.join();
+            fail("Exception expected");
+        } catch (CompletionException e) {
+            assertEquals("abort", e.getCause().getMessage());
+        }
+        assertArrayEquals(bytes("1"), store.get(COLLECTION_NAME, bytes("a")));
+        assertNull(store.get(COLLECTION_NAME, bytes("b")));
+        assertArrayEquals(bytes("3"), store.get(COLLECTION_NAME, bytes("c")));
+    }
+
+    @Test
+    public void testAsyncWritesAreCommittedInOrder() {
+        store.putAsync(COLLECTION_NAME, bytes("a"), bytes("1"));
+        store.batchAsync(() -> store.remove(COLLECTION_NAME, bytes("a")));
+        store.putAsync(COLLECTION_NAME, bytes("a"), bytes("2")).join();
+
+        assertArrayEquals(bytes("2"), store.get(COLLECTION_NAME, bytes("a")));
+    }
+
+    @Test
+    public void testCloseCommitsQueuedWrites() {
+        CompletableFuture<Void> write = store.putAsync(COLLECTION_NAME, bytes("a"), bytes("1"));
+        store.close();
+
+        assertTrue(write.isDone());
+        assertArrayEquals(bytes("1"), store.get(COLLECTION_NAME, bytes("a")));
+        assertTrue(store.putAsync(COLLECTION_NAME, bytes("b"), bytes("2")).isCompletedExceptionally());
+    }
+
+    private long batches() {
+        return metrics.getOperations().stream()
+                .filter(o -> o.getOperation().equals("batch"))
+                .mapToLong(OperationStatistics::getCount)
+                .sum();
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
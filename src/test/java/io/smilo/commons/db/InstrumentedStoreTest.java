@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.smilo.commons.db;
+
+import io.smilo.commons.StableTests;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static io.smilo.commons.db.StoreTestUtility.bytes;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+@Category({StableTests.class})
+public class InstrumentedStoreTest {
+
+    private static final String COLLECTION_NAME = "metricstest";
+
+    private DefaultStoreMetrics metrics;
+    private InstrumentedStore store;
+
+    @Before
+    public void createStore() {
+        metrics = new DefaultStoreMetrics();
+        store = new InstrumentedStore(new MemoryStore(), metrics);
+        store.initializeCollection(COLLECTION_NAME);
+    }
+
+    @Test
+    public void testOperationsAreMeasuredPerCollection() {
+        store.put(COLLECTION_NAME, bytes("a"), bytes("12345"));
+        store.put(COLLECTION_NAME, bytes("b"), bytes("123"));
+        store.get(COLLECTION_NAME, bytes("a"));
+        store.get(COLLECTION_NAME, bytes("missing"));
+        store.read(COLLECTION_NAME, bytes("b"), ByteBuffer::remaining);
+        try (Stream<Map.Entry<byte[], byte[]>> entries = store.scan(COLLECTION_NAME)) {
+            assertEquals(2, entries.count());
+        }
+
+        OperationStatistics put = find("put");
+        assertEquals(2, put.getCount());
+        assertEquals(10, put.getBytesWritten());
+        assertTrue(put.getTotalNanos() > 0);
+        assertTrue(put.getMedianNanos() <= put.getP99Nanos());
+
+        OperationStatistics get = find("get");
+        assertEquals(2, get.getCount());
+        assertEquals(5, get.getBytesRead());
+
+        assertEquals(3, find("read").getBytesRead());
+        assertEquals(1, find("decode").getCount());
+        assertEquals(10, find("scan").getBytesRead());
+    }
+
+    @Test
+    public void testCacheMissesAreMeasuredBelowCachingStore() {
+        Store cached = new CachingStore(store, Collections.singletonMap(COLLECTION_NAME, new CachePolicy(10, 1024)));
+        cached.put(COLLECTION_NAME, bytes("a"), bytes("12345"));
+
+        assertEquals("12345", cached.read(COLLECTION_NAME, bytes("a"), buffer -> UTF_8.decode(buffer).toString()));
+        assertEquals("12345", cached.read(COLLECTION_NAME, bytes("a"), buffer -> UTF_8.decode(buffer).toString()));
+
+        // Only the miss reaches the store, the hit is served from the cache
+        assertEquals(1, find("read").getCount());
+        assertEquals(5, find("read").getBytesRead());
+        assertEquals(1, find("decode").getCount());
+    }
+
+    @Test
+    public void testOnlyOutermostBatchIsMeasured() {
+        store.batch(() -> store.batch(() -> store.put(COLLECTION_NAME, bytes("a"), bytes("1"))));
+
+        OperationStatistics batch = metrics.getOperations().stream()
+                .filter(o -> o.getOperation().equals("batch"))
+                .findFirst().orElseThrow(IllegalStateException::new);
+        assertEquals(StoreMetrics.ALL_COLLECTIONS, batch.getCollection());
+        assertEquals(1, batch.getCount());
+    }
+
+    @Test
+    public void testGaugesAreSampled() {
+        metrics.registerGauge("entries", () -> store.getEntries(COLLECTION_NAME));
+        store.put(COLLECTION_NAME, bytes("a"), bytes("1"));
+
+        assertEquals(1L, metrics.getGauges().get("entries"));
+    }
+
+    private OperationStatistics find(String operation) {
+        return metrics.getOperations().stream()
+                .filter(o -> o.getCollection().equals(COLLECTION_NAME) && o.getOperation().equals(operation))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("No measurements for " + operation));
+    }
+}
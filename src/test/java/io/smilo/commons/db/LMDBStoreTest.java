@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.smilo.commons.db;
+
+import io.smilo.commons.StableTests;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+
+import static org.ethereum.util.ByteUtil.longToBytes;
+import static org.junit.Assert.*;
+
+@Category({StableTests.class})
+public class LMDBStoreTest {
+
+    private static final String COLLECTION_NAME = "growtest";
+    private static final long INITIAL_MAP_SIZE = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LMDBStore store;
+
+    @Before
+    public void createStore() throws IOException {
+        LMDBStoreConfiguration configuration = new LMDBStoreConfiguration()
+                .setInitialMapSize(INITIAL_MAP_SIZE)
+                .setGrowthFactor(1.5);
+        store = new LMDBStore(folder.newFolder().getAbsolutePath(), configuration);
+        store.initializeCollection(COLLECTION_NAME);
+    }
+
+    @Test
+    public void testMapGrowsWhenFull() {
+        byte[] value = new byte[16 * 1024];
+        for (int i = 0; i < 200; i++) {
+            store.put(COLLECTION_NAME, longToBytes(i), value);
+        }
+
+        assertEquals(Long.valueOf(200), store.getEntries(COLLECTION_NAME));
+        assertTrue(store.getStatistics().getMapSize() > INITIAL_MAP_SIZE);
+    }
+
+    @Test
+    public void testBatchIsReplayedWhenMapGrows() {
+        byte[] value = new byte[16 * 1024];
+        store.batch(() -> {
+            for (int i = 0; i < 200; i++) {
+                value[0] = (byte) i;
+                store.put(COLLECTION_NAME, longToBytes(i), value.clone());
+            }
+        });
+
+        assertEquals(Long.valueOf(200), store.getEntries(COLLECTION_NAME));
+        for (int i = 0; i < 200; i++) {
+            assertEquals((byte) i, store.get(COLLECTION_NAME, longToBytes(i))[0]);
+        }
+    }
+
+    @Test
+    public void testWaitingBatchDoesNotCommitWhileMapGrows() throws InterruptedException {
+        byte[] counter = "counter".getBytes();
+        store.put(COLLECTION_NAME, counter, longToBytes(0));
+        CountDownLatch firstIncremented = new CountDownLatch(1);
+        CountDownLatch secondStarting = new CountDownLatch(1);
+        Thread second = new Thread(() -> {
+            await(firstIncremented);
+            secondStarting.countDown();
+            store.batch(() -> increment(counter));
+        });
+        second.start();
+
+        store.batch(() -> {
+            increment(counter);
+            firstIncremented.countDown();
+            await(secondStarting);
+            // Let the second batch queue up for the writer before this batch fills the map
+            sleep(100);
+            byte[] value = new byte[16 * 1024];
+            for (int i = 0; i < 200; i++) {
+                store.put(COLLECTION_NAME, longToBytes(i), value);
+            }
+        });
+        second.join();
+
+        assertTrue(store.getStatistics().getMapSize() > INITIAL_MAP_SIZE);
+        assertEquals(2, ByteBuffer.wrap(store.get(COLLECTION_NAME, counter)).getLong());
+    }
+
+    @Test
+    public void testStatisticsReportUtilisation() {
+        LMDBStatistics before = store.getStatistics();
+        store.put(COLLECTION_NAME, longToBytes(1), new byte[64 * 1024]);
+        LMDBStatistics after = store.getStatistics();
+
+        assertEquals(INITIAL_MAP_SIZE, after.getMapSize());
+        assertTrue(after.getUsedBytes() > before.getUsedBytes());
+        assertEquals(after.getMapSize() - after.getUsedBytes(), after.getHeadroom());
+        assertTrue(after.getUtilisation() > 0 && after.getUtilisation() < 1);
+    }
+
+    @Test
+    public void testCheckpointRestoresIntoNewFolder() throws IOException {
+        for (int i = 0; i < 100; i++) {
+            store.put(COLLECTION_NAME, longToBytes(i), longToBytes(i * 2));
+        }
+        File checkpoint = new File(folder.getRoot(), "checkpoint");
+        store.exportCheckpoint(checkpoint);
+        // Writes after the export are not part of the checkpoint
+        store.put(COLLECTION_NAME, longToBytes(100), longToBytes(200));
+
+        File restored = new File(folder.getRoot(), "restored");
+        assertTrue(LMDBCheckpoint.restore(checkpoint, restored));
+        assertFalse(LMDBCheckpoint.restore(checkpoint, restored));
+
+        LMDBStore replica = new LMDBStore(restored.getAbsolutePath());
+        replica.initializeCollection(COLLECTION_NAME);
+        assertEquals(Long.valueOf(100), replica.getEntries(COLLECTION_NAME));
+        assertArrayEquals(longToBytes(198), replica.get(COLLECTION_NAME, longToBytes(99)));
+    }
+
+    @Test
+    public void testCorruptCheckpointIsNotRestored() throws IOException {
+        store.put(COLLECTION_NAME, longToBytes(1), longToBytes(1));
+        File checkpoint = new File(folder.getRoot(), "checkpoint");
+        store.exportCheckpoint(checkpoint);
+        try (RandomAccessFile data = new RandomAccessFile(new File(checkpoint, "data.mdb"), "rw")) {
+            long position = data.length() / 2;
+            data.seek(position);
+            int original = data.read();
+            data.seek(position);
+            data.write(original ^ 0xFF);
+        }
+
+        File restored = new File(folder.getRoot(), "restored");
+        try {
+            LMDBCheckpoint.restore(checkpoint, restored);
+            fail("Exception expected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("corrupt"));
+        }
+        assertFalse(new File(restored, "data.mdb").exists());
+    }
+
+    private void increment(byte[] key) {
+        long value = ByteBuffer.wrap(store.get(COLLECTION_NAME, key)).getLong();
+        store.put(COLLECTION_NAME, key, longToBytes(value + 1));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
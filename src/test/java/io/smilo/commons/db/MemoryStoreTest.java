@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.smilo.commons.db;
+
+import io.smilo.commons.StableTests;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+import static io.smilo.commons.db.StoreTestUtility.bytes;
+import static io.smilo.commons.db.StoreTestUtility.strings;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.*;
+
+@Category({StableTests.class})
+public class MemoryStoreTest {
+
+    private static final String COLLECTION_NAME = "memorytest";
+
+    private MemoryStore store;
+
+    @Before
+    public void createStore() {
+        store = new MemoryStore();
+        store.initializeCollection(COLLECTION_NAME);
+    }
+
+    @Test
+    public void testKeysAreOrderedUnsigned() {
+        store.put(COLLECTION_NAME, new byte[]{(byte) 0x80}, bytes("high"));
+        store.put(COLLECTION_NAME, new byte[]{0x01, 0x00}, bytes("longer"));
+        store.put(COLLECTION_NAME, new byte[]{0x01}, bytes("low"));
+
+        assertEquals(Arrays.asList("low", "longer", "high"), values(store.scan(COLLECTION_NAME)));
+        assertEquals("high", new String(store.last(COLLECTION_NAME).getValue(), UTF_8));
+        assertEquals(Long.valueOf(3), store.getEntries(COLLECTION_NAME));
+    }
+
+    @Test
+    public void testScanRange() {
+        for (String key : new String[]{"a1", "a2", "a3", "b1", "c1"}) {
+            store.put(COLLECTION_NAME, bytes(key), bytes(key));
+        }
+
+        assertEquals(Arrays.asList("a2", "a3", "b1"), values(store.scan(COLLECTION_NAME, bytes("a2"), bytes("c1"), false)));
+        assertEquals(Arrays.asList("b1", "a3", "a2"), values(store.scan(COLLECTION_NAME, bytes("a2"), bytes("c1"), true)));
+        assertEquals(Arrays.asList("a3", "a2", "a1"), values(store.scanPrefix(COLLECTION_NAME, bytes("a"), true)));
+        assertTrue(values(store.scan(COLLECTION_NAME, bytes("c"), bytes("a"), false)).isEmpty());
+    }
+
+    @Test
+    public void testFailedBatchIsUndone() {
+        store.put(COLLECTION_NAME, bytes("a"), bytes("1"));
+        store.put(COLLECTION_NAME, bytes("b"), bytes("2"));
+        try {
+            store.batch(() -> {
+                store.put(COLLECTION_NAME, bytes("a"), bytes("changed"));
+                store.remove(COLLECTION_NAME, bytes("b"));
+                store.clear(COLLECTION_NAME);
+                store.put(COLLECTION_NAME, bytes("c"), bytes("3"));
+                throw new IllegalStateException("abort");
+            });
+            fail("Exception expected");
+        } catch (IllegalStateException e) {
+            assertEquals("abort", e.getMessage());
+        }
+
+        assertEquals(Arrays.asList("1", "2"), values(store.scan(COLLECTION_NAME)));
+    }
+
+    @Test
+    public void testOtherThreadsDoNotSeeRunningBatch() throws InterruptedException {
+        CountDownLatch written = new CountDownLatch(1);
+        Thread batch = new Thread(() -> {
+            try {
+                store.batch(() -> {
+                    store.put(COLLECTION_NAME, bytes("a"), bytes("1"));
+                    written.countDown();
+                    sleep(200);
+                    throw new IllegalStateException("abort");
+                });
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        });
+        batch.start();
+        written.await();
+
+        // The read waits for the batch, which is rolled back, instead of seeing its write
+        assertNull(store.get(COLLECTION_NAME, bytes("a")));
+        batch.join();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void testStoredValuesCanNotBeChangedByCallers() {
+        byte[] value = bytes("1");
+        store.put(COLLECTION_NAME, bytes("a"), value);
+        value[0] = 'x';
+        store.get(COLLECTION_NAME, bytes("a"))[0] = 'x';
+
+        assertArrayEquals(bytes("1"), store.get(COLLECTION_NAME, bytes("a")));
+    }
+
+    @Test
+    public void testSnapshotsKeepSharedCollections() {
+        store.put(COLLECTION_NAME, bytes("a"), bytes("1"));
+        try (StoreSnapshot first = store.snapshot(); StoreSnapshot second = store.snapshot()) {
+            store.put(COLLECTION_NAME, bytes("a"), bytes("2"));
+            store.clear(COLLECTION_NAME);
+            store.put(COLLECTION_NAME, bytes("b"), bytes("3"));
+            try (StoreSnapshot third = store.snapshot()) {
+                store.remove(COLLECTION_NAME, bytes("b"));
+
+                assertArrayEquals(bytes("1"), first.get(COLLECTION_NAME, bytes("a")));
+                assertArrayEquals(bytes("1"), second.get(COLLECTION_NAME, bytes("a")));
+                assertEquals(Long.valueOf(1), first.getEntries(COLLECTION_NAME));
+                assertArrayEquals(bytes("3"), third.get(COLLECTION_NAME, bytes("b")));
+                assertNull(store.get(COLLECTION_NAME, bytes("b")));
+            }
+        }
+    }
+
+    @Test
+    public void testPagedCollection() {
+        PagedCollection collection = new PagedCollection(store, COLLECTION_NAME, "array");
+        for (int i = 0; i < 10; i++) {
+            collection.append(bytes("v" + i));
+        }
+
+        assertEquals(10, collection.size());
+        assertEquals(Arrays.asList("v9", "v8"), strings(collection.page(0, 2, true)));
+        assertEquals(Arrays.asList("v3", "v4"), strings(collection.page(3, 2, false)));
+    }
+
+    @Test
+    public void testPagedCollectionReadsPageFromSnapshot() {
+        PagedCollection collection = new PagedCollection(store, COLLECTION_NAME, "array");
+        for (int i = 0; i < 10; i++) {
+            collection.append(bytes("v" + i));
+        }
+
+        try (StoreSnapshot snapshot = store.snapshot()) {
+            collection.append(bytes("v10"));
+            collection.truncate(5);
+
+            assertEquals(10, collection.size(snapshot));
+            assertEquals(Arrays.asList("v9", "v8"), strings(collection.page(snapshot, 0, 2, true)));
+        }
+        assertEquals(Arrays.asList("v4", "v3"), strings(collection.page(0, 2, true)));
+    }
+
+    private static List<String> values(Stream<Map.Entry<byte[], byte[]>> entries) {
+        try (Stream<Map.Entry<byte[], byte[]>> closing = entries) {
+            return closing.map(e -> new String(e.getValue(), UTF_8)).collect(toList());
+        }
+    }
+}
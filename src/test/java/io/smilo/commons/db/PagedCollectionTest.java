@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.smilo.commons.db;
+
+import io.smilo.commons.AbstractSpringTest;
+import io.smilo.commons.StableTests;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static io.smilo.commons.db.StoreTestUtility.bytes;
+import static io.smilo.commons.db.StoreTestUtility.strings;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+@Category({StableTests.class})
+public class PagedCollectionTest extends AbstractSpringTest {
+
+    private static final String COLLECTION_NAME = "pagedtest";
+
+    @Autowired
+    private Store store;
+
+    @Before
+    public void initializeCollection() {
+        store.initializeCollection(COLLECTION_NAME);
+        store.clear(COLLECTION_NAME);
+    }
+
+    @After
+    public void clearCollection() {
+        store.clear(COLLECTION_NAME);
+    }
+
+    @Test
+    public void testPageWholeCollection() {
+        PagedCollection collection = new PagedCollection(store, COLLECTION_NAME);
+        for (int i = 0; i < 300; i++) {
+            assertEquals(i, collection.append(bytes("value" + i)));
+        }
+
+        assertEquals(300, collection.size());
+        assertEquals(Arrays.asList("value0", "value1", "value2"), strings(collection.page(0, 3, false)));
+        assertEquals(Arrays.asList("value256", "value257"), strings(collection.page(256, 2, false)));
+        assertEquals(Arrays.asList("value298", "value299"), strings(collection.page(298, 5, false)));
+        assertEquals(Arrays.asList("value299", "value298"), strings(collection.page(0, 2, true)));
+        assertEquals(Arrays.asList("value1", "value0"), strings(collection.page(298, 5, true)));
+        assertTrue(collection.page(300, 5, false).isEmpty());
+        assertEquals("value42", new String(collection.get(42), UTF_8));
+    }
+
+    @Test
+    public void testArraysDoNotMix() {
+        PagedCollection first = new PagedCollection(store, COLLECTION_NAME, "a");
+        PagedCollection second = new PagedCollection(store, COLLECTION_NAME, "ab");
+        for (int i = 0; i < 20; i++) {
+            first.append(bytes("a" + i));
+            second.append(bytes("ab" + i));
+        }
+
+        assertEquals(20, first.size());
+        assertEquals(20, second.size());
+        assertEquals(Arrays.asList("a18", "a19"), strings(first.page(18, 10, false)));
+        assertEquals(Arrays.asList("ab19", "ab18", "ab17"), strings(second.page(0, 3, true)));
+        assertEquals(0, new PagedCollection(store, COLLECTION_NAME, "b").size());
+        assertNull(first.get(20));
+    }
+
+    @Test
+    public void testAppendAll() {
+        PagedCollection collection = new PagedCollection(store, COLLECTION_NAME, "a");
+        collection.append(bytes("a0"));
+
+        assertEquals(1, collection.appendAll(Arrays.asList(bytes("a1"), bytes("a2"), bytes("a3"))));
+        assertEquals(4, collection.size());
+        assertEquals(Arrays.asList("a0", "a1", "a2", "a3"), strings(collection.page(0, 10, false)));
+    }
+
+    @Test
+    public void testTruncate() {
+        PagedCollection collection = new PagedCollection(store, COLLECTION_NAME, "a");
+        collection.appendAll(Arrays.asList(bytes("a0"), bytes("a1"), bytes("a2"), bytes("a3")));
+
+        collection.truncate(2);
+        assertEquals(2, collection.size());
+        assertNull(collection.get(2));
+        assertEquals(2, collection.append(bytes("a4")));
+        assertEquals(Arrays.asList("a0", "a1", "a4"), strings(collection.page(0, 10, false)));
+
+        collection.truncate(5);
+        assertEquals(3, collection.size());
+    }
+
+    @Test
+    public void testConcurrentAppendsAreNotLost() throws InterruptedException {
+        PagedCollection collection = new PagedCollection(store, COLLECTION_NAME, "a");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int thread = 0; thread < 4; thread++) {
+            int offset = thread * 50;
+            executor.execute(() -> {
+                for (int i = 0; i < 50; i++) {
+                    collection.append(bytes("a" + (offset + i)));
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertEquals(200, collection.size());
+        assertEquals(200, new HashSet<>(strings(collection.page(0, 200, false))).size());
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.smilo.commons.db;
+
+import io.smilo.commons.StableTests;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static io.smilo.commons.db.StoreTestUtility.bytes;
+import static org.junit.Assert.*;
+
+@Category({StableTests.class})
+public class RoutingStoreTest {
+
+    private static final String ROUTED = "routed";
+    private static final String DEFAULT = "default";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Store defaultStore;
+    private Store routedStore;
+    private RoutingStore store;
+
+    @Before
+    public void createStore() throws IOException {
+        defaultStore = new LMDBStore(folder.newFolder().getAbsolutePath());
+        routedStore = new LMDBStore(folder.newFolder().getAbsolutePath());
+        store = new RoutingStore(defaultStore).route(ROUTED, routedStore);
+        store.initializeCollection(ROUTED);
+        store.initializeCollection(DEFAULT);
+    }
+
+    @Test
+    public void testCollectionsAreRoutedToTheirStore() {
+        store.put(ROUTED, bytes("a"), bytes("1"));
+        store.put(DEFAULT, bytes("b"), bytes("2"));
+
+        assertArrayEquals(bytes("1"), routedStore.get(ROUTED, bytes("a")));
+        assertNull(defaultStore.get(ROUTED, bytes("a")));
+        assertArrayEquals(bytes("2"), defaultStore.get(DEFAULT, bytes("b")));
+        assertArrayEquals(bytes("1"), store.get(ROUTED, bytes("a")));
+        assertEquals(Long.valueOf(1), store.getEntries(DEFAULT));
+        try (StoreSnapshot snapshot = store.snapshot()) {
+            assertArrayEquals(bytes("1"), snapshot.get(ROUTED, bytes("a")));
+            assertArrayEquals(bytes("2"), snapshot.get(DEFAULT, bytes("b")));
+        }
+    }
+
+    @Test
+    public void testBatchSpansAllStores() {
+        try {
+            store.batch(() -> {
+                store.put(ROUTED, bytes("a"), bytes("1"));
+                store.put(DEFAULT, bytes("b"), bytes("2"));
+                assertArrayEquals(bytes("1"), store.get(ROUTED, bytes("a")));
+                throw new IllegalStateException("abort");
+            });
+            fail("Exception expected");
+        } catch (IllegalStateException e) {
+            assertEquals("abort", e.getMessage());
+        }
+        assertNull(store.get(ROUTED, bytes("a")));
+        assertNull(store.get(DEFAULT, bytes("b")));
+
+        store.batch(() -> {
+            store.put(ROUTED, bytes("a"), bytes("1"));
+            store.put(DEFAULT, bytes("b"), bytes("2"));
+        });
+        assertArrayEquals(bytes("1"), store.get(ROUTED, bytes("a")));
+        assertArrayEquals(bytes("2"), store.get(DEFAULT, bytes("b")));
+    }
+
+    @Test
+    public void testWritesToDifferentStoresDontWaitForEachOther() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // Holds the write transaction of the default store
+        Thread writer = new Thread(() -> defaultStore.batch(() -> {
+            defaultStore.put(DEFAULT, bytes("b"), bytes("2"));
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        writer.start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        store.put(ROUTED, bytes("a"), bytes("1"));
+        assertArrayEquals(bytes("1"), store.get(ROUTED, bytes("a")));
+
+        release.countDown();
+        writer.join();
+        assertArrayEquals(bytes("2"), store.get(DEFAULT, bytes("b")));
+    }
+
+    @Test
+    public void testBatchOnlyHoldsTheStoresItUses() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // Holds the write transaction of the default store through the routing store
+        Thread writer = new Thread(() -> store.batch(() -> {
+            store.put(DEFAULT, bytes("b"), bytes("2"));
+            started.countDown();
+            await(release);
+        }));
+        writer.start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        store.batch(() -> store.put(ROUTED, bytes("a"), bytes("1")));
+        // Single writes through a cache don't start a batch on every store either
+        Store cached = new CachingStore(store, Collections.singletonMap(ROUTED, new CachePolicy(10, 1024)));
+        cached.put(ROUTED, bytes("c"), bytes("3"));
+        assertArrayEquals(bytes("1"), store.get(ROUTED, bytes("a")));
+        assertArrayEquals(bytes("3"), cached.get(ROUTED, bytes("c")));
+
+        release.countDown();
+        writer.join();
+        assertArrayEquals(bytes("2"), store.get(DEFAULT, bytes("b")));
+    }
+
+    @Test
+    public void testBatchClosingACycleFails() throws InterruptedException {
+        CountDownLatch joined = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        Thread other = new Thread(() -> store.batch(() -> {
+            store.put(ROUTED, bytes("a"), bytes("1"));
+            joined.countDown();
+            await(release);
+            try {
+                store.put(DEFAULT, bytes("b"), bytes("2"));
+            } catch (RuntimeException e) {
+                failure.set(e);
+                throw e;
+            }
+        }));
+        other.start();
+        assertTrue(joined.await(10, TimeUnit.SECONDS));
+
+        try {
+            store.batch(() -> {
+                store.put(DEFAULT, bytes("c"), bytes("3"));
+                release.countDown();
+                // Waits for the other batch to give up the routed store
+                store.put(ROUTED, bytes("d"), bytes("4"));
+            });
+        } catch (IllegalStateException e) {
+            failure.compareAndSet(null, e);
+        }
+        other.join();
+
+        // Exactly one of the batches failed and discarded its writes
+        assertNotNull(failure.get());
+        boolean otherFailed = store.get(ROUTED, bytes("a")) == null;
+        assertEquals(otherFailed, store.get(DEFAULT, bytes("c")) != null);
+        assertEquals(otherFailed, store.get(ROUTED, bytes("d")) != null);
+    }
+
+    @Test
+    public void testBatchJoinsDecoratedStores() {
+        DefaultStoreMetrics metrics = new DefaultStoreMetrics();
+        Store decorated = new CachingStore(new InstrumentedStore(new CompressingStore(new MemoryStore(),
+                Collections.singletonMap(ROUTED, new DeflateCodec())), metrics),
+                Collections.singletonMap(ROUTED, new CachePolicy(10, 1024)));
+        RoutingStore routing = new RoutingStore(new MemoryStore()).route(ROUTED, decorated);
+        routing.initializeCollection(ROUTED);
+
+        try {
+            routing.batch(() -> {
+                routing.put(ROUTED, bytes("a"), bytes("1"));
+                assertArrayEquals(bytes("1"), routing.get(ROUTED, bytes("a")));
+                throw new IllegalStateException("abort");
+            });
+            fail("Exception expected");
+        } catch (IllegalStateException e) {
+            assertEquals("abort", e.getMessage());
+        }
+        assertNull(routing.get(ROUTED, bytes("a")));
+
+        routing.batch(() -> routing.put(ROUTED, bytes("a"), bytes("1")));
+        assertArrayEquals(bytes("1"), routing.get(ROUTED, bytes("a")));
+        // Both batches went through every decorator, including the one that was discarded
+        assertEquals(2, metrics.getOperations().stream()
+                .filter(o -> o.getOperation().equals("batch"))
+                .mapToLong(OperationStatistics::getCount)
+                .sum());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.smilo.commons.db;
+
+import io.smilo.commons.AbstractSpringTest;
+import io.smilo.commons.StableTests;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static io.smilo.commons.db.StoreTestUtility.bytes;
+import static io.smilo.commons.db.StoreTestUtility.keys;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
+import static org.ethereum.util.ByteUtil.longToBytes;
+import static org.junit.Assert.*;
+
+@Category({StableTests.class})
+public class StoreTest extends AbstractSpringTest {
+
+    private static final String COLLECTION_NAME = "storetest";
+
+    @Autowired
+    private Store store;
+
+    @Before
+    public void initializeCollection() {
+        store.initializeCollection(COLLECTION_NAME);
+        store.clear(COLLECTION_NAME);
+    }
+
+    @After
+    public void clearCollection() {
+        store.clear(COLLECTION_NAME);
+    }
+
+    @Test
+    public void testBatchCommitsAllWrites() {
+        store.batch(() -> {
+            store.put(COLLECTION_NAME, bytes("a"), bytes("1"));
+            store.put(COLLECTION_NAME, bytes("b"), bytes("2"));
+            // Reads inside the batch see the pending writes
+            assertArrayEquals(bytes("1"), store.get(COLLECTION_NAME, bytes("a")));
+        });
+
+        assertArrayEquals(bytes("1"), store.get(COLLECTION_NAME, bytes("a")));
+        assertArrayEquals(bytes("2"), store.get(COLLECTION_NAME, bytes("b")));
+        assertEquals(Long.valueOf(2), store.getEntries(COLLECTION_NAME));
+    }
+
+    @Test
+    public void testBatchIsDiscardedOnException() {
+        store.put(COLLECTION_NAME, bytes("a"), bytes("1"));
+        try {
+            store.batch(() -> {
+                store.put(COLLECTION_NAME, bytes("a"), bytes("changed"));
+                store.put(COLLECTION_NAME, bytes("b"), bytes("2"));
+                throw new IllegalStateException("abort");
+            });
+            fail("Exception expected");
+        } catch (IllegalStateException e) {
+            assertEquals("abort", e.getMessage());
+        }
+
+        assertArrayEquals(bytes("1"), store.get(COLLECTION_NAME, bytes("a")));
+        assertNull(store.get(COLLECTION_NAME, bytes("b")));
+    }
+
+    @Test
+    public void testNestedBatchJoinsOuterBatch() {
+        try {
+            store.batch(() -> {
+                store.batch(() -> store.put(COLLECTION_NAME, bytes("a"), bytes("1")));
+                throw new IllegalStateException("abort");
+            });
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        assertNull(store.get(COLLECTION_NAME, bytes("a")));
+    }
+
+    @Test
+    public void testReadDecodesStoredValue() {
+        store.put(COLLECTION_NAME, bytes("a"), bytes("value"));
+
+        assertEquals(Integer.valueOf(5), store.read(COLLECTION_NAME, bytes("a"), ByteBuffer::remaining));
+        assertEquals("value", store.read(COLLECTION_NAME, bytes("a"), buffer -> UTF_8.decode(buffer).toString()));
+        assertNull(store.read(COLLECTION_NAME, bytes("b"), ByteBuffer::remaining));
+    }
+
+    @Test(expected = ReadOnlyBufferException.class)
+    public void testReadHandsOutReadOnlyView() {
+        store.put(COLLECTION_NAME, bytes("a"), bytes("value"));
+
+        store.read(COLLECTION_NAME, bytes("a"), buffer -> buffer.put((byte) 0));
+    }
+
+    @Test
+    public void testScanRange() {
+        store.batch(() -> {
+            for (String key : new String[]{"a1", "a2", "a3", "b1", "c1"}) {
+                store.put(COLLECTION_NAME, bytes(key), bytes("value " + key));
+            }
+        });
+
+        assertEquals(Arrays.asList("a1", "a2", "a3", "b1", "c1"), keys(store.scan(COLLECTION_NAME)));
+        assertEquals(Arrays.asList("a2", "a3", "b1"), keys(store.scan(COLLECTION_NAME, bytes("a2"), bytes("c1"), false)));
+        assertEquals(Arrays.asList("b1", "a3", "a2"), keys(store.scan(COLLECTION_NAME, bytes("a2"), bytes("c1"), true)));
+        assertEquals(Arrays.asList("c1", "b1"), keys(store.scan(COLLECTION_NAME, bytes("b"), null, true)));
+        assertEquals(Arrays.asList("a1", "a2", "a3"), keys(store.scanPrefix(COLLECTION_NAME, bytes("a"), false)));
+        assertEquals(Arrays.asList("a3", "a2", "a1"), keys(store.scanPrefix(COLLECTION_NAME, bytes("a"), true)));
+        assertTrue(keys(store.scanPrefix(COLLECTION_NAME, bytes("d"), false)).isEmpty());
+    }
+
+    @Test
+    public void testScanOrdersKeysUnsigned() {
+        store.put(COLLECTION_NAME, new byte[]{(byte) 0x80}, bytes("high"));
+        store.put(COLLECTION_NAME, new byte[]{0x01}, bytes("low"));
+
+        try (Stream<Map.Entry<byte[], byte[]>> entries = store.scan(COLLECTION_NAME)) {
+            assertEquals(Arrays.asList("low", "high"), entries.map(e -> new String(e.getValue(), UTF_8)).collect(toList()));
+        }
+    }
+
+    @Test
+    public void testScanInParallel() {
+        store.batch(() -> {
+            for (int i = 0; i < 5000; i++) {
+                store.put(COLLECTION_NAME, longToBytes(i), longToBytes(i));
+            }
+        });
+
+        try (Stream<Map.Entry<byte[], byte[]>> entries = store.scan(COLLECTION_NAME)) {
+            long sum = entries.parallel().mapToLong(e -> ByteBuffer.wrap(e.getValue()).getLong()).sum();
+            assertEquals(4999L * 5000L / 2, sum);
+        }
+    }
+
+    @Test
+    public void testScanInsideBatchSeesPendingWrites() {
+        store.put(COLLECTION_NAME, bytes("a"), bytes("1"));
+        store.batch(() -> {
+            store.put(COLLECTION_NAME, bytes("b"), bytes("2"));
+            assertEquals(Arrays.asList("a", "b"), keys(store.scan(COLLECTION_NAME)));
+        });
+    }
+
+    @Test
+    public void testAppendFallsBackWhenKeyDoesNotSortLast() {
+        store.append(COLLECTION_NAME, bytes("b"), bytes("2"));
+        store.append(COLLECTION_NAME, bytes("c"), bytes("3"));
+        store.append(COLLECTION_NAME, bytes("a"), bytes("1"));
+        store.append(COLLECTION_NAME, bytes("c"), bytes("changed"));
+
+        assertEquals(Arrays.asList("a", "b", "c"), keys(store.scan(COLLECTION_NAME)));
+        assertArrayEquals(bytes("changed"), store.get(COLLECTION_NAME, bytes("c")));
+    }
+
+    @Test
+    public void testSnapshotIgnoresLaterWrites() {
+        store.put(COLLECTION_NAME, bytes("a"), bytes("1"));
+        try (StoreSnapshot snapshot = store.snapshot()) {
+            store.batch(() -> {
+                store.put(COLLECTION_NAME, bytes("a"), bytes("changed"));
+                store.put(COLLECTION_NAME, bytes("b"), bytes("2"));
+            });
+
+            assertArrayEquals(bytes("1"), snapshot.get(COLLECTION_NAME, bytes("a")));
+            assertNull(snapshot.get(COLLECTION_NAME, bytes("b")));
+            assertEquals("1", snapshot.read(COLLECTION_NAME, bytes("a"), buffer -> UTF_8.decode(buffer).toString()));
+            assertEquals(Arrays.asList("a"), keys(snapshot.scan(COLLECTION_NAME)));
+            assertArrayEquals(bytes("a"), snapshot.last(COLLECTION_NAME).getKey());
+            assertEquals(Long.valueOf(1), snapshot.getEntries(COLLECTION_NAME));
+        }
+
+        assertArrayEquals(bytes("changed"), store.get(COLLECTION_NAME, bytes("a")));
+    }
+
+    @Test
+    public void testSnapshotInsideBatchSeesPendingWrites() {
+        store.batch(() -> {
+            store.put(COLLECTION_NAME, bytes("a"), bytes("1"));
+            try (StoreSnapshot snapshot = store.snapshot()) {
+                assertArrayEquals(bytes("1"), snapshot.get(COLLECTION_NAME, bytes("a")));
+                assertEquals(Arrays.asList("a"), keys(snapshot.scanPrefix(COLLECTION_NAME, bytes("a"), false)));
+            }
+        });
+    }
+}
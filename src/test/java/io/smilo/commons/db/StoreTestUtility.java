@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.smilo.commons.db;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Helpers for writing and reading text keys and values in store tests.
+ */
+public class StoreTestUtility {
+
+    /**
+     * @param value text to store
+     * @return the UTF-8 bytes of the text
+     */
+    public static byte[] bytes(String value) {
+        return value.getBytes(UTF_8);
+    }
+
+    /**
+     * @param values stored values
+     * @return the values decoded as UTF-8 text
+     */
+    public static List<String> strings(List<byte[]> values) {
+        return values.stream().map(v -> new String(v, UTF_8)).collect(toList());
+    }
+
+    /**
+     * Collects the keys of a scan and closes it.
+     *
+     * @param entries entries of a scan
+     * @return the keys decoded as UTF-8 text
+     */
+    public static List<String> keys(Stream<Map.Entry<byte[], byte[]>> entries) {
+        try (Stream<Map.Entry<byte[], byte[]>> closing = entries) {
+            return closing.map(e -> new String(e.getKey(), UTF_8)).collect(toList());
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2018 Smilo Platform B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.smilo.commons.ledger;
+
+import io.smilo.commons.AbstractSpringTest;
+import io.smilo.commons.Hash32;
+import io.smilo.commons.HashUtility;
+import io.smilo.commons.StableTests;
+import io.smilo.commons.block.data.transaction.Transaction;
+import io.smilo.commons.block.data.transaction.TransactionBuilder;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.math.BigInteger;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+@Category({StableTests.class})
+public class UndoJournalTest extends AbstractSpringTest {
+
+    @Autowired
+    private UndoJournal undoJournal;
+
+    @Autowired
+    private LedgerManager ledgerManager;
+
+    @Autowired
+    private LedgerStore ledgerStore;
+
+    @Autowired
+    private AccountBuilder accountBuilder;
+
+    @Autowired
+    private TransactionBuilder transactionBuilder;
+
+    private static Hash32 hash(String name) {
+        return Hash32.of(HashUtility.digestSHA256(name));
+    }
+
+    @Test
+    public void testRollbackRestoresAccounts() {
+        Account elkan = accountBuilder.elkan().save();
+        Account kelly = accountBuilder.kelly().save();
+        Account robert = accountBuilder.robert().save();
+        ledgerStore.remove(robert.getAddress());
+
+        undoJournal.record(1, hash("block"), asList(elkan.getAddress(), kelly.getAddress(), robert.getAddress()));
+        Transaction transaction = transactionBuilder.elkan_shares_wealth().construct();
+        assertTrue(ledgerManager.executeTransaction(transaction));
+        assertEquals(BigInteger.valueOf(101L), ledgerManager.getAddressBalance(kelly.getAddress()));
+
+        assertTrue(undoJournal.rollback(1, hash("block")));
+        assertEquals(BigInteger.valueOf(9999L), ledgerManager.getAddressBalance(elkan.getAddress()));
+        assertEquals(elkan.getSignatureCount(), ledgerManager.getAddressSignatureCount(elkan.getAddress()));
+        assertEquals(BigInteger.ONE, ledgerManager.getAddressBalance(kelly.getAddress()));
+        // An account the block created is removed again
+        assertFalse(ledgerStore.getByAddress(robert.getAddress()).isPresent());
+
+        // The journal is used up by the rollback
+        assertFalse(undoJournal.rollback(1, hash("block")));
+    }
+
+    @Test
+    public void testPrune() {
+        Account elkan = accountBuilder.elkan().save();
+        undoJournal.record(1, hash("first"), asList(elkan.getAddress()));
+        undoJournal.record(2, hash("second"), asList(elkan.getAddress()));
+        undoJournal.record(2, hash("fork"), asList(elkan.getAddress()));
+
+        undoJournal.prune(1);
+        assertFalse(undoJournal.contains(1, hash("first")));
+        assertTrue(undoJournal.contains(2, hash("second")));
+        assertTrue(undoJournal.contains(2, hash("fork")));
+    }
+}